@@ -0,0 +1,63 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+import springbootfinal.dao.ConcurrentDataDao;
+import springbootfinal.dao.FakeDataDao;
+import springbootfinal.dao.ShardedDataDao;
+import springbootfinal.dao.UserDao;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// test data shared by the benchmarks, seeded so every run sees the same users
+final class BenchmarkUsers {
+
+    private BenchmarkUsers() {
+    }
+
+    static List<User> generate(int count, long seed) {
+        Random random = new Random(seed);
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(generate(i, random));
+        }
+        return users;
+    }
+
+    static User generate(int i, Random random) {
+        UUID userUid = new UUID(random.nextLong(), random.nextLong());
+        Gender gender = random.nextBoolean() ? Gender.MALE : Gender.FEMALE;
+        return new User(userUid, "first" + i, "last" + i, gender, 18 + random.nextInt(60),
+                "user" + i + "." + Long.toHexString(userUid.getLeastSignificantBits()) + "@gmail.com");
+    }
+
+    static UserDao newDao(String dao) {
+        switch (dao) {
+        case "fake":
+            return new FakeDataDao();
+        case "concurrent":
+            return new ConcurrentDataDao();
+        case "sharded":
+            return new ShardedDataDao(8);
+        default:
+            throw new IllegalArgumentException("unknown dao " + dao);
+        }
+    }
+
+    static UserDao populate(UserDao userDao, List<User> users) {
+        for (User user : users) {
+            userDao.insertUser(user.getUserUid(), user);
+        }
+        return userDao;
+    }
+
+    // configured like the ObjectMapper spring boot hands to jersey
+    static ObjectMapper objectMapper() {
+        return JsonMapper.builder().findAndAddModules().disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+    }
+}
@@ -0,0 +1,76 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.dao.WriteOutcome;
+import springbootfinal.model.User;
+import springbootfinal.service.UserService;
+
+// readers, writers and scanners hitting one UserService at the same time.
+// FakeDataDao is left out on purpose, a HashMap shared between threads can
+// corrupt itself and hang the run
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MixedWorkloadBenchmark {
+
+    @Param({ "10000" })
+    public int size;
+
+    private UserService userService;
+    private List<User> users;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        users = BenchmarkUsers.generate(size, 42);
+        userService = new UserService(BenchmarkUsers.populate(BenchmarkUsers.newDao("concurrent"), users));
+    }
+
+    // mostly reads with some writes and an occasional filtered scan
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(6)
+    public Optional<User> readHeavyGet() {
+        return userService.getUser(randomUser().getUserUid());
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public WriteOutcome readHeavyUpdate() {
+        return userService.updateUser(randomUser());
+    }
+
+    @Benchmark
+    @Group("readHeavy")
+    @GroupThreads(1)
+    public List<User> readHeavyScan() {
+        return userService.getAllUsers(Optional.of("male"));
+    }
+
+    // half reads, half writes
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(4)
+    public Optional<User> writeHeavyGet() {
+        return userService.getUser(randomUser().getUserUid());
+    }
+
+    @Benchmark
+    @Group("writeHeavy")
+    @GroupThreads(4)
+    public WriteOutcome writeHeavyUpdate() {
+        return userService.updateUser(randomUser());
+    }
+
+    private User randomUser() {
+        return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+    }
+}
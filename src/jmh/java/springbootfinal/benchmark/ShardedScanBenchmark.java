@@ -0,0 +1,56 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.dao.ShardedDataDao;
+import springbootfinal.dao.UserDao;
+import springbootfinal.dao.UserQuery;
+import springbootfinal.model.User;
+
+// scans over ShardedDataDao with 1 to 8 shards, which run on that many fork
+// join threads at most. selectAllUsers copies every user, fullScan filters on a
+// field that has no index and parallelCount is the stream the stats of
+// UserService use. the times only go down with the shard count up to the
+// number of cores of the machine
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class ShardedScanBenchmark {
+
+    @Param({ "1", "2", "4", "8" })
+    public int shards;
+
+    @Param({ "100000" })
+    public int size;
+
+    private UserDao userDao;
+    private UserQuery fullScan;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userDao = BenchmarkUsers.populate(new ShardedDataDao(shards), BenchmarkUsers.generate(size, 42));
+        fullScan = new UserQuery(UserQuery.parseConditions(Arrays.asList("firstName=first7")), null, false, null,
+                Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<User> selectAllUsers() {
+        return userDao.selectAllUsers();
+    }
+
+    @Benchmark
+    public List<User> fullScan() {
+        return userDao.selectUsers(fullScan);
+    }
+
+    @Benchmark
+    public long parallelCount() {
+        return userDao.streamUsers().parallel().filter(user -> user.getAge() != null && user.getAge() >= 40).count();
+    }
+}
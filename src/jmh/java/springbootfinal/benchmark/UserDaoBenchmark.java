@@ -0,0 +1,58 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.dao.UserDao;
+import springbootfinal.model.User;
+
+// single threaded get, put and selectAll against each in-memory dao
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserDaoBenchmark {
+
+    @Param({ "fake", "concurrent" })
+    public String dao;
+
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private UserDao userDao;
+    private List<User> users;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        users = BenchmarkUsers.generate(size, 42);
+        userDao = BenchmarkUsers.populate(BenchmarkUsers.newDao(dao), users);
+    }
+
+    @Benchmark
+    public Optional<User> selectUserByUserUid() {
+        return userDao.selectUserByUserUid(nextUser().getUserUid());
+    }
+
+    // overwrites an existing user so the size stays the same between iterations
+    @Benchmark
+    public int updateUser() {
+        return userDao.updateUser(nextUser());
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<User> selectAllUsers() {
+        return userDao.selectAllUsers();
+    }
+
+    private User nextUser() {
+        User user = users.get(next);
+        next = next + 1 == users.size() ? 0 : next + 1;
+        return user;
+    }
+}
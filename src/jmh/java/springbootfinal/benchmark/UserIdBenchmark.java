@@ -0,0 +1,68 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.ext.ParamConverter;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.dao.WriteOutcome;
+import springbootfinal.model.User;
+import springbootfinal.resource.UuidParamConverterProvider;
+import springbootfinal.service.NoUserCache;
+import springbootfinal.service.RandomUserIdGenerator;
+import springbootfinal.service.TimeOrderedUserIdGenerator;
+import springbootfinal.service.UserIdGenerator;
+import springbootfinal.service.UserService;
+
+// the ids of inserted users under 32 threads, and parsing a {userUid}
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserIdBenchmark {
+
+    @Param({ "random", "time-ordered" })
+    public String generator;
+
+    private UserIdGenerator userIdGenerator;
+    private UserService userService;
+    private ParamConverter<UUID> converter;
+    private String userUid;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userIdGenerator = generator.equals("random") ? new RandomUserIdGenerator() : new TimeOrderedUserIdGenerator();
+        userService = new UserService(BenchmarkUsers.newDao("concurrent"), new NoUserCache(), userIdGenerator);
+        converter = new UuidParamConverterProvider().getConverter(UUID.class, UUID.class, null);
+        userUid = userIdGenerator.next().toString();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public UUID next() {
+        return userIdGenerator.next();
+    }
+
+    // removed again so the dao stays the same size for the whole run
+    @Benchmark
+    @Threads(32)
+    public WriteOutcome insertUser() {
+        User user = new User(null, "Anna", "Montana", User.Gender.FEMALE, 30, null);
+        userService.insertUser(user);
+        return userService.removeUser(user.getUserUid());
+    }
+
+    @Benchmark
+    public UUID parseFromString() {
+        return UUID.fromString(userUid);
+    }
+
+    @Benchmark
+    public UUID parseConverter() {
+        return converter.fromString(userUid);
+    }
+}
@@ -0,0 +1,69 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.dao.UserDao;
+import springbootfinal.dao.UserQuery;
+import springbootfinal.model.User;
+
+// UserDao.selectUsers with the filters of GET /api/v1/users. fake answers
+// every query with the default scan, concurrent picks one of its indexes or
+// walks the users in userUid order, see ConcurrentDataDao.explain. ages are
+// 18 to 77, so age<20 is one user in thirty
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class UserQueryBenchmark {
+
+    @Param({ "fake", "concurrent" })
+    public String dao;
+
+    @Param({ "100000" })
+    public int size;
+
+    private UserDao userDao;
+    private UserQuery narrowAgeRange;
+    private UserQuery genderPage;
+    private UserQuery sortedByLastName;
+    private UserQuery email;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<User> users = BenchmarkUsers.generate(size, 42);
+        userDao = BenchmarkUsers.populate(BenchmarkUsers.newDao(dao), users);
+        narrowAgeRange = query(Arrays.asList("age>=18", "age<20", "gender=female"), null, Integer.MAX_VALUE);
+        genderPage = query(Arrays.asList("gender=female", "age>=30"), null, 100);
+        sortedByLastName = query(Arrays.asList("age>=70"), UserQuery.Field.LAST_NAME, 100);
+        email = query(Arrays.asList("email=" + users.get(size / 2).getEmail()), null, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<User> narrowAgeRange() {
+        return userDao.selectUsers(narrowAgeRange);
+    }
+
+    @Benchmark
+    public List<User> genderPage() {
+        return userDao.selectUsers(genderPage);
+    }
+
+    @Benchmark
+    public List<User> sortedByLastName() {
+        return userDao.selectUsers(sortedByLastName);
+    }
+
+    @Benchmark
+    public List<User> email() {
+        return userDao.selectUsers(email);
+    }
+
+    private static UserQuery query(List<String> filter, UserQuery.Field sortField, int limit) {
+        return new UserQuery(UserQuery.parseConditions(filter), sortField, false, null, limit);
+    }
+}
@@ -0,0 +1,56 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.dao.UserDao;
+import springbootfinal.model.User;
+
+// UserDao.searchUsers on the search index of ConcurrentDataDao. the users are
+// named first<i> last<i>, so "first" matches everybody and "first12345" a
+// dozen users
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class UserSearchBenchmark {
+
+    @Param({ "1000000" })
+    public int size;
+
+    private UserDao userDao;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userDao = BenchmarkUsers.populate(BenchmarkUsers.newDao("concurrent"), BenchmarkUsers.generate(size, 42));
+    }
+
+    @Benchmark
+    public List<User> searchNarrowPrefix() {
+        return userDao.searchUsers("first12345", 0, 20);
+    }
+
+    @Benchmark
+    public List<User> searchBroadPrefix() {
+        return userDao.searchUsers("first", 0, 20);
+    }
+
+    @Benchmark
+    public List<User> searchBroadPrefixDeepOffset() {
+        return userDao.searchUsers("first", 1000, 20);
+    }
+
+    @Benchmark
+    public List<User> searchTwoWords() {
+        return userDao.searchUsers("last1234 first12", 0, 20);
+    }
+
+    @Benchmark
+    public List<User> searchEmailPrefix() {
+        return userDao.searchUsers("user77777.", 0, 20);
+    }
+}
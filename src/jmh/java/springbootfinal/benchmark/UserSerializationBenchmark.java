@@ -0,0 +1,116 @@
+package springbootfinal.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.model.User;
+import springbootfinal.resource.PrecomputedUserJsonWriter;
+import springbootfinal.resource.UserBinaryProvider;
+
+// jackson serialization of one user and of the list GET /api/v1/users returns,
+// next to the bytes PrecomputedUserJsonWriter writes for the same entities and
+// the binary form UserBinaryProvider writes
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UserSerializationBenchmark {
+
+    @Param({ "100", "10000" })
+    public int size;
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter userWriter;
+    private User user;
+    private List<User> users;
+    private byte[] userJson;
+    private PrecomputedUserJsonWriter precomputedWriter;
+    private UserBinaryProvider binaryProvider;
+    private byte[] usersBinary;
+    private byte[] usersJson;
+    private GenericEntity<List<User>> usersEntity;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        objectMapper = BenchmarkUsers.objectMapper();
+        userWriter = objectMapper.writerFor(User.class);
+        users = BenchmarkUsers.generate(size, 42);
+        user = users.get(0);
+        userJson = userWriter.writeValueAsBytes(user);
+        precomputedWriter = new PrecomputedUserJsonWriter(objectMapper);
+        usersEntity = new GenericEntity<List<User>>(users) {
+        };
+        binaryProvider = new UserBinaryProvider();
+        usersBinary = writeUserListBinary();
+        usersJson = objectMapper.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public byte[] writeUser() throws Exception {
+        return userWriter.writeValueAsBytes(user);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] writeUserList() throws Exception {
+        return objectMapper.writeValueAsBytes(users);
+    }
+
+    @Benchmark
+    public byte[] writeUserPrecomputed() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+        precomputedWriter.writeTo(user, User.class, User.class, null, MediaType.APPLICATION_JSON_TYPE, null, output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] writeUserListPrecomputed() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(256 * size);
+        precomputedWriter.writeTo(users, usersEntity.getRawType(), usersEntity.getType(), null,
+                MediaType.APPLICATION_JSON_TYPE, null, output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] writeUserListBinary() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(64 * size);
+        binaryProvider.writeTo(users, usersEntity.getRawType(), usersEntity.getType(), null,
+                UserBinaryProvider.APPLICATION_USER_BINARY_TYPE, null, output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @SuppressWarnings("unchecked")
+    public Object readUserListBinary() throws Exception {
+        return binaryProvider.readFrom((Class<Object>) (Class<?>) usersEntity.getRawType(), usersEntity.getType(),
+                null, UserBinaryProvider.APPLICATION_USER_BINARY_TYPE, null, new ByteArrayInputStream(usersBinary));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<?> readUserList() throws Exception {
+        // read as maps for the same reason as readUser
+        return objectMapper.readValue(usersJson, List.class);
+    }
+
+    @Benchmark
+    public Map<?, ?> readUser() throws Exception {
+        // User has no creator for jackson, so read it the way a client would
+        return objectMapper.readValue(userJson, Map.class);
+    }
+}
@@ -0,0 +1,60 @@
+package springbootfinal.benchmark;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import springbootfinal.model.User;
+import springbootfinal.service.UserService;
+import springbootfinal.service.UserStats;
+
+// UserService.getAllUsers with and without the gender filter, and the stats
+// that replace pulling every user to count them
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UserServiceBenchmark {
+
+    @Param({ "fake", "concurrent" })
+    public String dao;
+
+    @Param({ "1000", "100000" })
+    public int size;
+
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        userService = new UserService(
+                BenchmarkUsers.populate(BenchmarkUsers.newDao(dao), BenchmarkUsers.generate(size, 42)));
+    }
+
+    @Benchmark
+    public List<User> getAllUsers() {
+        return userService.getAllUsers(Optional.empty());
+    }
+
+    @Benchmark
+    public List<User> getAllUsersByGender() {
+        return userService.getAllUsers(Optional.of("female"));
+    }
+
+    @Benchmark
+    public UserStats getStatsByGender() {
+        return userService.getStats(true, false, 10);
+    }
+
+    @Benchmark
+    public UserStats getStatsByAge() {
+        return userService.getStats(false, true, 10);
+    }
+
+    @Benchmark
+    public UserStats getStatsByGenderAndAge() {
+        return userService.getStats(true, true, 10);
+    }
+}
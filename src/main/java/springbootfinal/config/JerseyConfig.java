@@ -0,0 +1,51 @@
+package springbootfinal.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletProperties;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.dao.UserDao;
+import springbootfinal.resource.ResourceMetricsListener;
+import springbootfinal.resource.InvalidUserInputExceptionMapper;
+import springbootfinal.resource.PrecomputedUserJsonWriter;
+import springbootfinal.resource.UserApiCompression;
+import springbootfinal.resource.UserLoadShedder;
+import springbootfinal.resource.UserRateLimiter;
+import springbootfinal.resource.UserBinaryProvider;
+import springbootfinal.resource.UserReplicationFilter;
+import springbootfinal.resource.UserResourceResteasy;
+import springbootfinal.resource.UuidParamConverterProvider;
+
+// Jersey only starts when there is a ResourceConfig bean, every jax-rs
+// resource and provider has to be registered here
+@Component
+public class JerseyConfig extends ResourceConfig {
+
+    public JerseyConfig(MeterRegistry meterRegistry, ObjectMapper objectMapper, UserApiCompression compression,
+            UserReplicationFilter replicationFilter, UserRateLimiter rateLimiter, UserLoadShedder loadShedder,
+            UserDao userDao, @Value("${user.api.json:jackson}") String json) {
+        if (!json.equals("jackson") && !json.equals("precomputed")) {
+            throw new IllegalArgumentException("user.api.json must be jackson or precomputed but was " + json);
+        }
+        register(UserResourceResteasy.class);
+        register(InvalidUserInputExceptionMapper.class);
+        register(UserBinaryProvider.class);
+        register(UuidParamConverterProvider.class);
+        register(new ResourceMetricsListener(meterRegistry));
+        register(compression);
+        register(replicationFilter);
+        register(rateLimiter);
+        register(loadShedder);
+        if (json.equals("precomputed")) {
+            register(new PrecomputedUserJsonWriter(objectMapper, userDao.keepsUserInstances()));
+        }
+        // jersey runs as a filter (spring.jersey.type=filter) and hands anything it
+        // has no resource for on to spring mvc
+        property(ServletProperties.FILTER_FORWARD_ON_404, true);
+    }
+}
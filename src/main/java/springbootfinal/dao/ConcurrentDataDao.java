@@ -0,0 +1,513 @@
+package springbootfinal.dao;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// Thread safe replacement for the HashMap in FakeDataDao.
+// Reads go straight to a ConcurrentHashMap and never take a lock. Writes take
+// one of a fixed number of stripe locks (picked from the hash of the userUid)
+// so writers on different stripes do not contend with each other. A full scan
+// takes every stripe lock in order, which means no write is half way through
+// while the copy is made and the returned list is a consistent snapshot.
+// Gender, age and email are indexed (see UserIndexes) so the query methods
+// only touch the users that match, and so are the words searchUsers looks
+// for (see UserSearchIndex).
+@Repository
+@ConditionalOnProperty(name = "user.dao", havingValue = "concurrent", matchIfMissing = true)
+public class ConcurrentDataDao implements UserDao {
+
+    // must be a power of two so the stripe can be picked with a mask
+    static final int DEFAULT_STRIPES = 64;
+
+    // the ways selectUsers can find the users of a query, see explain
+    static final String EMAIL_INDEX = "email-index";
+    static final String GENDER_INDEX = "gender-index";
+    static final String AGE_INDEX = "age-index";
+    static final String ORDERED_SCAN = "ordered-scan";
+    static final String FULL_SCAN = "full-scan";
+
+    private final ConcurrentHashMap<UUID, User> database;
+    private final UserIndexes indexes;
+    // every userUid in order, used for keyset pagination
+    private final ConcurrentSkipListSet<UUID> orderedUserUids;
+    private final ReentrantLock[] stripes;
+    private final int stripeMask;
+    private final List<UserChangeListener> listeners;
+
+    public ConcurrentDataDao() {
+        this(DEFAULT_STRIPES);
+        // same seed user as FakeDataDao so that the application behaves the same
+        UUID joeUserUid = UUID.randomUUID();
+        insertUser(joeUserUid, new User(joeUserUid, "Joe", "Jones", Gender.MALE, 20, "JoeJones2021@gmail.com"));
+    }
+
+    ConcurrentDataDao(int stripeCount) {
+        this(stripeCount, new ConcurrentHashMap<>());
+    }
+
+    // a shard of ShardedDataDao, which hands every shard the same email index
+    ConcurrentDataDao(int stripeCount, ConcurrentHashMap<String, UUID> emails) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a power of two but was " + stripeCount);
+        }
+        database = new ConcurrentHashMap<>();
+        indexes = new UserIndexes(emails);
+        orderedUserUids = new ConcurrentSkipListSet<>();
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        stripeMask = stripeCount - 1;
+        listeners = new CopyOnWriteArrayList<>();
+    }
+
+    @Override
+    public void addChangeListener(UserChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public List<User> selectAllUsers() {
+        return withAllStripesLocked(() -> new ArrayList<>(database.values()));
+    }
+
+    @Override
+    public Optional<User> selectUserByUserUid(UUID userUid) {
+        return Optional.ofNullable(database.get(userUid));
+    }
+
+    @Override
+    public int updateUser(User user) {
+        return locked(user.getUserUid(), () -> writeLocked(user.getUserUid(), user));
+    }
+
+    @Override
+    public int deleteUserByUserUid(UUID userUid) {
+        return locked(userUid, () -> {
+            deleteLocked(userUid);
+            return 1;
+        });
+    }
+
+    @Override
+    public int insertUser(UUID userUid, User user) {
+        return locked(userUid, () -> writeLocked(userUid, user));
+    }
+
+    @Override
+    public WriteOutcome putReplicated(User user) {
+        return locked(user.getUserUid(), () -> putLocked(user.getUserUid(), user, user.getVersion()));
+    }
+
+    // the conditional writes check and write under the stripe lock of the user,
+    // so no other write to the same user can get in between
+
+    @Override
+    public WriteOutcome insertIfAbsent(User user) {
+        return locked(user.getUserUid(), () -> insertIfAbsentLocked(user));
+    }
+
+    @Override
+    public WriteOutcome updateIfPresent(User user) {
+        return locked(user.getUserUid(), () -> updateIfPresentLocked(user));
+    }
+
+    @Override
+    public WriteOutcome compareAndSet(User user, long expectedVersion) {
+        return locked(user.getUserUid(), () -> {
+            User current = database.get(user.getUserUid());
+            if (current == null) {
+                return WriteOutcome.NOT_FOUND;
+            }
+            if (current.getVersion() != expectedVersion) {
+                return WriteOutcome.VERSION_CONFLICT;
+            }
+            return putLocked(user.getUserUid(), user);
+        });
+    }
+
+    @Override
+    public WriteOutcome deleteIfPresent(UUID userUid) {
+        return locked(userUid, () -> deleteIfPresentLocked(userUid));
+    }
+
+    @Override
+    public WriteOutcome compareAndDelete(UUID userUid, long expectedVersion) {
+        return locked(userUid, () -> {
+            User current = database.get(userUid);
+            if (current == null) {
+                return WriteOutcome.NOT_FOUND;
+            }
+            if (current.getVersion() != expectedVersion) {
+                return WriteOutcome.VERSION_CONFLICT;
+            }
+            return deleteIfPresentLocked(userUid);
+        });
+    }
+
+    // the batch writes lock every stripe the batch touches once, in index order,
+    // and then apply the whole batch
+
+    @Override
+    public WriteOutcome[] insertUsersIfAbsent(List<User> users) {
+        return writeAll(users, User::getUserUid, this::insertIfAbsentLocked);
+    }
+
+    @Override
+    public WriteOutcome[] updateUsersIfPresent(List<User> users) {
+        return writeAll(users, User::getUserUid, this::updateIfPresentLocked);
+    }
+
+    @Override
+    public WriteOutcome[] deleteUsersIfPresent(List<UUID> userUids) {
+        return writeAll(userUids, userUid -> userUid, this::deleteIfPresentLocked);
+    }
+
+    private <T> WriteOutcome[] writeAll(List<T> items, Function<T, UUID> userUidOf,
+            Function<T, WriteOutcome> writeLocked) {
+        BitSet locked = lockStripes(items.stream().map(userUidOf).iterator());
+        try {
+            WriteOutcome[] outcomes = new WriteOutcome[items.size()];
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] = writeLocked.apply(items.get(i));
+            }
+            return outcomes;
+        } finally {
+            unlockStripes(locked);
+        }
+    }
+
+    @Override
+    public List<User> selectUsersByGender(Gender gender) {
+        List<User> users = new ArrayList<>();
+        for (UUID userUid : indexes.selectByGender(gender)) {
+            User user = database.get(userUid);
+            // the index may be a step behind the map, so check the user still matches
+            if (user != null && gender.equals(user.getGender())) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public List<User> selectUsersByAgeRange(int fromAge, int toAge) {
+        List<User> users = new ArrayList<>();
+        for (Set<UUID> bucket : indexes.selectByAgeRange(fromAge, toAge)) {
+            for (UUID userUid : bucket) {
+                User user = database.get(userUid);
+                if (user != null && user.getAge() != null && user.getAge() >= fromAge && user.getAge() < toAge) {
+                    users.add(user);
+                }
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public Optional<User> selectUserByEmail(String email) {
+        return indexes.selectByEmail(email).map(database::get)
+                .filter(user -> user.getEmail() != null && user.getEmail().equalsIgnoreCase(email));
+    }
+
+    // the plan is the cheapest of: the email, gender or age index narrowed to the
+    // query's condition on it, a walk over orderedUserUids that stops after
+    // limit matches (only when the results are ordered by userUid anyway) and
+    // a scan of the map. an index costs its bucket sizes, the walk about
+    // limit * total / matches users going by the narrowest index
+    @Override
+    public List<User> selectUsers(UserQuery query) {
+        UserQueryPlan plan = explain(query);
+        switch (plan.getAccess()) {
+        case ORDERED_SCAN:
+            return selectUsersAfter(query.getAfter(), query.getLimit(), query::matches);
+        case FULL_SCAN:
+            return query.finish(streamUsers().filter(query::matches));
+        default:
+            // the index may be a step behind the map, so every user is checked again
+            return query.finish(indexed(plan.getAccess(), query).map(database::get)
+                    .filter(user -> user != null && query.matches(user)));
+        }
+    }
+
+    @Override
+    public UserQueryPlan explain(UserQuery query) {
+        long total = database.size();
+        UserQueryPlan best = UserQueryPlan.scan(query, total);
+        Optional<String> email = query.emailEquals();
+        if (email.isPresent()) {
+            long rows = indexes.selectByEmail(email.get()).isPresent() ? 1 : 0;
+            best = cheaper(best, new UserQueryPlan(EMAIL_INDEX, "email=" + email.get(), rows, total, query));
+        }
+        Optional<Gender> gender = query.genderEquals();
+        if (gender.isPresent()) {
+            long rows = indexes.selectByGender(gender.get()).size();
+            best = cheaper(best, new UserQueryPlan(GENDER_INDEX,
+                    "gender=" + gender.get().name().toLowerCase(Locale.ROOT), rows, total, query));
+        }
+        Optional<int[]> ageRange = query.ageRange();
+        if (ageRange.isPresent()) {
+            int[] range = ageRange.get();
+            long rows = 0;
+            for (Set<UUID> bucket : indexes.selectByAgeRange(range[0], range[1])) {
+                rows += bucket.size();
+            }
+            best = cheaper(best, new UserQueryPlan(AGE_INDEX, "age>=" + range[0] + "&age<" + range[1], rows, total,
+                    query));
+        }
+        if (query.isOrderedByUserUid()) {
+            // no index estimate means every user is taken to match
+            long matches = best.getAccess().equals(FULL_SCAN) ? total : best.getEstimatedRows();
+            long rows = matches == 0 ? total : Math.min(total, (long) query.getLimit() * total / matches);
+            best = cheaper(best, new UserQueryPlan(ORDERED_SCAN, null, rows, total, query));
+        }
+        return best;
+    }
+
+    // ties keep the plan found first
+    private static UserQueryPlan cheaper(UserQueryPlan current, UserQueryPlan candidate) {
+        return candidate.getEstimatedRows() < current.getEstimatedRows() ? candidate : current;
+    }
+
+    private Stream<UUID> indexed(String access, UserQuery query) {
+        switch (access) {
+        case EMAIL_INDEX:
+            return indexes.selectByEmail(query.emailEquals().get()).map(Stream::of).orElseGet(Stream::empty);
+        case GENDER_INDEX:
+            return indexes.selectByGender(query.genderEquals().get()).stream();
+        default:
+            int[] range = query.ageRange().get();
+            return indexes.selectByAgeRange(range[0], range[1]).stream().flatMap(Set::stream);
+        }
+    }
+
+    @Override
+    public List<User> selectUsersAfter(UUID after, int limit, Predicate<? super User> filter) {
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        Iterator<UUID> userUids = after == null ? orderedUserUids.iterator()
+                : orderedUserUids.tailSet(after, false).iterator();
+        while (users.size() < limit && userUids.hasNext()) {
+            User user = database.get(userUids.next());
+            if (user != null && filter.test(user)) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public List<User> searchUsers(String query, int offset, int limit) {
+        List<String> queryWords = UserSearchIndex.queryWords(query);
+        List<User> users = new ArrayList<>(Math.min(limit, 1024));
+        if (queryWords.isEmpty()) {
+            return users;
+        }
+        Iterator<UUID> userUids = indexes.searchStartingWith(UserSearchIndex.leadingWord(queryWords));
+        int skipped = 0;
+        while (users.size() < limit && userUids.hasNext()) {
+            User user = database.get(userUids.next());
+            // the index may be a step behind the map, and only knows the leading word
+            if (user == null || !UserSearchIndex.matches(user, queryWords)) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public Stream<User> streamUsers() {
+        // walks the map itself, so nothing is copied however many users there are
+        return database.values().stream();
+    }
+
+    @Override
+    public int countUsers() {
+        return database.size();
+    }
+
+    // read off the index buckets without locking, so a count can be a write
+    // behind
+
+    @Override
+    public Map<Gender, Long> countUsersByGender() {
+        return indexes.countByGender();
+    }
+
+    @Override
+    public SortedMap<Integer, Long> countUsersByAge() {
+        return indexes.countByAge();
+    }
+
+    @Override
+    public Map<String, Integer> indexSizes() {
+        return indexes.sizes();
+    }
+
+    private <T> T locked(UUID userUid, Supplier<T> action) {
+        ReentrantLock lock = stripeFor(userUid);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the methods below must be called holding the stripe lock for the userUid
+
+    // insert and update are the same operation on a map, both return 0 without
+    // writing anything when the email already belongs to another user
+    private int writeLocked(UUID userUid, User user) {
+        return putLocked(userUid, user) == WriteOutcome.APPLIED ? 1 : 0;
+    }
+
+    private WriteOutcome putLocked(UUID userUid, User user) {
+        User previous = database.get(userUid);
+        return putLocked(userUid, user, previous == null ? 1 : previous.getVersion() + 1);
+    }
+
+    private WriteOutcome putLocked(UUID userUid, User user, long version) {
+        prepareWrite(userUid, user);
+        if (!indexes.claimEmail(userUid, user.getEmail())) {
+            return WriteOutcome.EMAIL_TAKEN;
+        }
+        User previous = database.get(userUid);
+        // set before the user is visible so nobody reads it with the old version
+        user.setVersion(version);
+        database.put(userUid, user);
+        indexes.update(previous, user);
+        orderedUserUids.add(userUid);
+        notifyListeners(userUid, previous, user);
+        return WriteOutcome.APPLIED;
+    }
+
+    private WriteOutcome insertIfAbsentLocked(User user) {
+        if (database.containsKey(user.getUserUid())) {
+            return WriteOutcome.ALREADY_EXISTS;
+        }
+        return putLocked(user.getUserUid(), user);
+    }
+
+    private WriteOutcome updateIfPresentLocked(User user) {
+        if (!database.containsKey(user.getUserUid())) {
+            return WriteOutcome.NOT_FOUND;
+        }
+        return putLocked(user.getUserUid(), user);
+    }
+
+    private WriteOutcome deleteIfPresentLocked(UUID userUid) {
+        return deleteLocked(userUid) ? WriteOutcome.APPLIED : WriteOutcome.NOT_FOUND;
+    }
+
+    // returns whether there was a user to delete
+    private boolean deleteLocked(UUID userUid) {
+        if (!database.containsKey(userUid)) {
+            return false;
+        }
+        prepareWrite(userUid, null);
+        User previous = database.remove(userUid);
+        indexes.update(previous, null);
+        orderedUserUids.remove(userUid);
+        notifyListeners(userUid, previous, null);
+        return true;
+    }
+
+    // puts a user back exactly as it was, for example while replaying a log.
+    // the write was already accepted once, so the email check is skipped and the
+    // email index simply follows the user being restored. a null user deletes.
+    // versions are not in the log, they count again from the restored state
+    void restoreUser(UUID userUid, User user) {
+        locked(userUid, () -> {
+            if (user == null) {
+                return deleteLocked(userUid);
+            }
+            indexes.forceEmail(userUid, user.getEmail());
+            return writeLocked(userUid, user);
+        });
+    }
+
+    // called holding the stripe lock before a write changes anything (a put may
+    // still turn out EMAIL_TAKEN after it), user is null for a delete. a
+    // subclass that cannot take the write throws here, which leaves the store
+    // and the listeners untouched
+    void prepareWrite(UUID userUid, User user) {
+    }
+
+    // runs the action with every stripe locked, so no write is in progress while
+    // it runs and none can start until it returns
+    <T> T withAllStripesLocked(Supplier<T> action) {
+        lockAll();
+        try {
+            return action.get();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void notifyListeners(UUID userUid, User previous, User current) {
+        for (UserChangeListener listener : listeners) {
+            listener.onChange(userUid, previous, current);
+        }
+    }
+
+    private ReentrantLock stripeFor(UUID userUid) {
+        return stripes[stripeIndex(userUid)];
+    }
+
+    int stripeIndex(UUID userUid) {
+        // spread the high bits down the same way HashMap does before masking
+        int h = userUid.hashCode();
+        return (h ^ (h >>> 16)) & stripeMask;
+    }
+
+    // locks the stripes of all the given userUids in index order, the same order
+    // lockAll uses, so batches and scans cannot deadlock each other
+    private BitSet lockStripes(Iterator<UUID> userUids) {
+        BitSet toLock = new BitSet(stripes.length);
+        while (userUids.hasNext()) {
+            toLock.set(stripeIndex(userUids.next()));
+        }
+        for (int i = toLock.nextSetBit(0); i >= 0; i = toLock.nextSetBit(i + 1)) {
+            stripes[i].lock();
+        }
+        return toLock;
+    }
+
+    private void unlockStripes(BitSet locked) {
+        for (int i = locked.nextSetBit(0); i >= 0; i = locked.nextSetBit(i + 1)) {
+            stripes[i].unlock();
+        }
+    }
+
+    // always locked in index order so that two scans can never deadlock
+    private void lockAll() {
+        for (ReentrantLock lock : stripes) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            stripes[i].unlock();
+        }
+    }
+
+}
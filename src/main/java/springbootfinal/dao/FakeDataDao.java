@@ -1,16 +1,21 @@
 package springbootfinal.dao;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Repository;
 
 import springbootfinal.model.User;
 import springbootfinal.model.User.Gender;
 
+// not safe to share between request threads, use ConcurrentDataDao instead
 @Repository
+@ConditionalOnProperty(name = "user.dao", havingValue = "fake")
 public class FakeDataDao implements UserDao {
 
     private Map<UUID, User> database;
+    private final List<UserChangeListener> listeners = new CopyOnWriteArrayList<>();
 
     // static initializer block that is used to initialize static members of the
     // class
@@ -37,24 +42,40 @@ public class FakeDataDao implements UserDao {
     @Override
     public int updateUser(User user) {
         // user.getUserUid
-        database.put(user.getUserUid(), user);
+        User previous = database.put(user.getUserUid(), user);
+        notifyListeners(user.getUserUid(), previous, user);
         return 1;
     }
 
     @Override
     public int deleteUserByUserUid(UUID userUid) {
-        database.remove(userUid);
+        User previous = database.remove(userUid);
+        if (previous != null) {
+            notifyListeners(userUid, previous, null);
+        }
         return 1;
     }
 
     @Override
     public int insertUser(UUID userUid, User user) {
-        database.put(userUid, user);
+        User previous = database.put(userUid, user);
+        notifyListeners(userUid, previous, user);
         return 1;
     }
 
+    @Override
+    public void addChangeListener(UserChangeListener listener) {
+        listeners.add(listener);
+    }
+
     public Set<UUID> getKeySet() {
         return database.keySet();
     }
 
+    private void notifyListeners(UUID userUid, User previous, User current) {
+        for (UserChangeListener listener : listeners) {
+            listener.onChange(userUid, previous, current);
+        }
+    }
+
 }
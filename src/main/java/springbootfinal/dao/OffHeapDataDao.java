@@ -0,0 +1,825 @@
+package springbootfinal.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// UserDao that keeps users out of the java heap.
+// Every field lives in its own fixed width column in a memory-mapped file:
+// the userUid as two longs, gender as a byte, age as a short and, for the
+// three strings, an (offset, length) pair into an append-only UTF-8 arena.
+// A User object is only built when a row is read. The only heap used per user
+// is a slot in each of the two open addressing hash tables (userUid and email)
+// that map to a row number, and they are rebuilt by scanning the id and state
+// columns when the files are opened, so a restart does not reload anything.
+//
+// A delete marks its row as deleted and the next insert takes that row
+// again. An update appends its strings to the arena again, and once the arena
+// would have to grow while at least half of it is garbage, the live strings
+// are moved together in place instead, so the files only grow with the live
+// users. Writes go to the page cache straight away and are forced to disk on
+// close.
+@Repository
+@ConditionalOnProperty(name = "user.dao", havingValue = "offheap")
+public class OffHeapDataDao implements UserDao, Closeable {
+
+    private static final byte FREE = 0;
+    private static final byte LIVE = 1;
+    private static final byte DELETED = 2;
+    private static final byte NO_GENDER = -1;
+    private static final short NO_AGE = Short.MIN_VALUE;
+    private static final int NO_STRING = -1;
+
+    // each string is an int offset and an int length in the arena
+    private static final int FIRST_NAME = 0;
+    private static final int LAST_NAME = 8;
+    private static final int EMAIL = 16;
+    private static final int STRINGS_WIDTH = 24;
+
+    private static final int INITIAL_ROWS = 1024;
+    private static final int INITIAL_ARENA_BYTES = 64 * 1024;
+    // rows are read this many at a time while streaming, holding the lock once per chunk
+    private static final int STREAM_CHUNK_ROWS = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Column ids;
+    private final Column states;
+    private final Column genders;
+    private final Column ages;
+    private final Column versions;
+    private final Column strings;
+    private final Column arena;
+    // row count at 0 and arena size at 8
+    private final Column meta;
+    private final RowIndex byUserUid;
+    private final RowIndex byEmail;
+    private final List<UserChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private int rowCount;
+    private int arenaSize;
+    // bytes of the arena that live rows point to, the rest is garbage
+    private long liveBytes;
+    // deleted rows for the next inserts, found again from the state column on open
+    private int[] freeRows = new int[16];
+    private int freeRowCount;
+
+    @Autowired
+    public OffHeapDataDao(@Value("${user.offheap.directory:data/offheap}") String directory) throws IOException {
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+        ids = new Column(path.resolve("ids.col"), 16, INITIAL_ROWS);
+        states = new Column(path.resolve("states.col"), 1, INITIAL_ROWS);
+        genders = new Column(path.resolve("genders.col"), 1, INITIAL_ROWS);
+        ages = new Column(path.resolve("ages.col"), 2, INITIAL_ROWS);
+        versions = new Column(path.resolve("versions.col"), 8, INITIAL_ROWS);
+        strings = new Column(path.resolve("strings.col"), STRINGS_WIDTH, INITIAL_ROWS);
+        arena = new Column(path.resolve("strings.arena"), 1, INITIAL_ARENA_BYTES);
+        meta = new Column(path.resolve("meta"), 16, 1);
+        rowCount = meta.buffer.getInt(0);
+        arenaSize = meta.buffer.getInt(8);
+
+        byUserUid = new RowIndex(row -> hash(readUserUid(row)));
+        byEmail = new RowIndex(row -> hash(UserIndexes.normalizeEmail(readString(row, EMAIL))));
+        for (int row = 0; row < rowCount; row++) {
+            if (states.buffer.get(row) == LIVE) {
+                byUserUid.add(row);
+                if (readString(row, EMAIL) != null) {
+                    byEmail.add(row);
+                }
+                liveBytes += stringBytes(row);
+            } else {
+                addFreeRow(row);
+            }
+        }
+    }
+
+    @Override
+    public List<User> selectAllUsers() {
+        lock.readLock().lock();
+        try {
+            List<User> users = new ArrayList<>();
+            for (int row = 0; row < rowCount; row++) {
+                if (states.buffer.get(row) == LIVE) {
+                    users.add(readRow(row));
+                }
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<User> selectUserByUserUid(UUID userUid) {
+        lock.readLock().lock();
+        try {
+            int row = findRow(userUid);
+            return row < 0 ? Optional.empty() : Optional.of(readRow(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int updateUser(User user) {
+        return insertUser(user.getUserUid(), user);
+    }
+
+    @Override
+    public int deleteUserByUserUid(UUID userUid) {
+        lock.writeLock().lock();
+        try {
+            int row = findRow(userUid);
+            if (row >= 0) {
+                // only built when somebody listens
+                User previous = listeners.isEmpty() ? null : readRow(row);
+                if (readString(row, EMAIL) != null) {
+                    byEmail.remove(row);
+                }
+                byUserUid.remove(row);
+                states.buffer.put(row, DELETED);
+                liveBytes -= stringBytes(row);
+                addFreeRow(row);
+                if (previous != null) {
+                    notifyListeners(userUid, previous, null);
+                }
+            }
+            return 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // insert and update are the same, both return 0 without writing anything
+    // when the email belongs to another user or the age does not fit a short
+    @Override
+    public int insertUser(UUID userUid, User user) {
+        return writeRow(userUid, user, false);
+    }
+
+    // keeps the version the user already has, see UserDao.putReplicated
+    @Override
+    public WriteOutcome putReplicated(User user) {
+        return writeRow(user.getUserUid(), user, true) == 1 ? WriteOutcome.APPLIED : WriteOutcome.EMAIL_TAKEN;
+    }
+
+    private int writeRow(UUID userUid, User user, boolean keepVersion) {
+        if (user.getAge() != null && (user.getAge() <= NO_AGE || user.getAge() > Short.MAX_VALUE)) {
+            return 0;
+        }
+        lock.writeLock().lock();
+        try {
+            int row = findRow(userUid);
+            if (user.getEmail() != null) {
+                int owner = findEmailRow(user.getEmail());
+                if (owner >= 0 && owner != row) {
+                    return 0;
+                }
+            }
+            byte[] firstName = encode(user.getFirstName());
+            byte[] lastName = encode(user.getLastName());
+            byte[] email = encode(user.getEmail());
+            // may move the strings of every row, so before any of them is read
+            reserveArena((long) length(firstName) + length(lastName) + length(email));
+            User previous = row >= 0 && !listeners.isEmpty() ? readRow(row) : null;
+            boolean added = row < 0;
+            if (added) {
+                row = freeRowCount > 0 ? freeRows[--freeRowCount] : rowCount;
+                ensureRows(row + 1);
+                ids.buffer.putLong(row * 16, userUid.getMostSignificantBits());
+                ids.buffer.putLong(row * 16 + 8, userUid.getLeastSignificantBits());
+            } else {
+                liveBytes -= stringBytes(row);
+                if (readString(row, EMAIL) != null) {
+                    // unhooked before the email is overwritten, the hash comes from the row
+                    byEmail.remove(row);
+                }
+            }
+            // a new row starts at version 1, every later write counts up
+            if (!keepVersion) {
+                user.setVersion(added ? 1 : versions.buffer.getLong(row * 8) + 1);
+            }
+            versions.buffer.putLong(row * 8, user.getVersion());
+            genders.buffer.put(row, user.getGender() == null ? NO_GENDER : (byte) user.getGender().ordinal());
+            ages.buffer.putShort(row * 2, user.getAge() == null ? NO_AGE : (short) (int) user.getAge());
+            writeString(row, FIRST_NAME, firstName);
+            writeString(row, LAST_NAME, lastName);
+            writeString(row, EMAIL, email);
+            if (added) {
+                // the row only counts once it is complete
+                states.buffer.put(row, LIVE);
+                if (row == rowCount) {
+                    rowCount++;
+                }
+                byUserUid.add(row);
+            }
+            if (user.getEmail() != null) {
+                byEmail.add(row);
+            }
+            meta.buffer.putInt(0, rowCount);
+            meta.buffer.putInt(8, arenaSize);
+            notifyListeners(userUid, previous, user);
+            return 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // the conditional writes and the batches run the check-then-write defaults
+    // of UserDao holding the write lock, which makes them atomic. the lock is
+    // reentrant so the reads and writes inside do not take it again
+
+    @Override
+    public WriteOutcome insertIfAbsent(User user) {
+        return withWriteLock(() -> UserDao.super.insertIfAbsent(user));
+    }
+
+    @Override
+    public WriteOutcome updateIfPresent(User user) {
+        return withWriteLock(() -> UserDao.super.updateIfPresent(user));
+    }
+
+    @Override
+    public WriteOutcome compareAndSet(User user, long expectedVersion) {
+        return withWriteLock(() -> UserDao.super.compareAndSet(user, expectedVersion));
+    }
+
+    @Override
+    public WriteOutcome deleteIfPresent(UUID userUid) {
+        return withWriteLock(() -> UserDao.super.deleteIfPresent(userUid));
+    }
+
+    @Override
+    public WriteOutcome compareAndDelete(UUID userUid, long expectedVersion) {
+        return withWriteLock(() -> UserDao.super.compareAndDelete(userUid, expectedVersion));
+    }
+
+    @Override
+    public WriteOutcome[] insertUsersIfAbsent(List<User> users) {
+        return withWriteLock(() -> UserDao.super.insertUsersIfAbsent(users));
+    }
+
+    @Override
+    public WriteOutcome[] updateUsersIfPresent(List<User> users) {
+        return withWriteLock(() -> UserDao.super.updateUsersIfPresent(users));
+    }
+
+    @Override
+    public WriteOutcome[] deleteUsersIfPresent(List<UUID> userUids) {
+        return withWriteLock(() -> UserDao.super.deleteUsersIfPresent(userUids));
+    }
+
+    // the two scans below only read the narrow column they filter on and build
+    // Users for the matching rows
+
+    @Override
+    public List<User> selectUsersByGender(Gender gender) {
+        lock.readLock().lock();
+        try {
+            List<User> users = new ArrayList<>();
+            byte ordinal = (byte) gender.ordinal();
+            for (int row = 0; row < rowCount; row++) {
+                if (genders.buffer.get(row) == ordinal && states.buffer.get(row) == LIVE) {
+                    users.add(readRow(row));
+                }
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<User> selectUsersByAgeRange(int fromAge, int toAge) {
+        lock.readLock().lock();
+        try {
+            List<User> users = new ArrayList<>();
+            for (int row = 0; row < rowCount; row++) {
+                short age = ages.buffer.getShort(row * 2);
+                if (age != NO_AGE && age >= fromAge && age < toAge && states.buffer.get(row) == LIVE) {
+                    users.add(readRow(row));
+                }
+            }
+            return users;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<User> selectUserByEmail(String email) {
+        lock.readLock().lock();
+        try {
+            int row = findEmailRow(email);
+            return row < 0 ? Optional.empty() : Optional.of(readRow(row));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // an email condition goes through the email table, anything else is one pass
+    // over the rows that checks the query's gender and age conditions on their
+    // columns first and only builds a User for the rows that pass them
+    @Override
+    public List<User> selectUsers(UserQuery query) {
+        lock.readLock().lock();
+        try {
+            Optional<String> email = query.emailEquals();
+            if (email.isPresent()) {
+                int row = findEmailRow(email.get());
+                return query.finish(row < 0 ? Stream.empty() : Stream.of(readRow(row)).filter(query::matches));
+            }
+            byte gender = query.genderEquals().map(value -> (byte) value.ordinal()).orElse(NO_GENDER);
+            int[] ageRange = query.ageRange().orElse(null);
+            List<User> users = new ArrayList<>();
+            for (int row = 0; row < rowCount; row++) {
+                if (states.buffer.get(row) != LIVE || gender != NO_GENDER && genders.buffer.get(row) != gender) {
+                    continue;
+                }
+                if (ageRange != null) {
+                    short age = ages.buffer.getShort(row * 2);
+                    if (age == NO_AGE || age < ageRange[0] || age >= ageRange[1]) {
+                        continue;
+                    }
+                }
+                User user = readRow(row);
+                if (query.matches(user)) {
+                    users.add(user);
+                }
+            }
+            return query.finish(users.stream());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UserQueryPlan explain(UserQuery query) {
+        lock.readLock().lock();
+        try {
+            long total = byUserUid.size();
+            Optional<String> email = query.emailEquals();
+            if (email.isPresent()) {
+                return new UserQueryPlan("email-index", "email=" + email.get(), findEmailRow(email.get()) < 0 ? 0 : 1,
+                        total, query);
+            }
+            List<String> columns = new ArrayList<>();
+            query.genderEquals().ifPresent(gender -> columns.add("gender=" + gender.name().toLowerCase(Locale.ROOT)));
+            query.ageRange().ifPresent(range -> columns.add("age>=" + range[0] + "&age<" + range[1]));
+            if (columns.isEmpty()) {
+                return UserQueryPlan.scan(query, total);
+            }
+            // every row is looked at, but only through the narrow columns
+            return new UserQueryPlan("column-scan", String.join("&", columns), total, total, query);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Stream<User> streamUsers() {
+        // a row is only taken again after its user was deleted, so walking them
+        // by number a chunk at a time sees every user that exists for the whole
+        // stream
+        Iterator<User> iterator = new Iterator<User>() {
+            private int nextRow;
+            private final ArrayDeque<User> chunk = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                while (chunk.isEmpty() && nextRow < rowCountUnderLock()) {
+                    lock.readLock().lock();
+                    try {
+                        int end = Math.min(rowCount, nextRow + STREAM_CHUNK_ROWS);
+                        for (; nextRow < end; nextRow++) {
+                            if (states.buffer.get(nextRow) == LIVE) {
+                                chunk.add(readRow(nextRow));
+                            }
+                        }
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return !chunk.isEmpty();
+            }
+
+            @Override
+            public User next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunk.poll();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public int countUsers() {
+        lock.readLock().lock();
+        try {
+            return byUserUid.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the counts only read the gender or age column, no User is built
+
+    @Override
+    public Map<Gender, Long> countUsersByGender() {
+        lock.readLock().lock();
+        try {
+            long[] counts = new long[Gender.values().length];
+            for (int row = 0; row < rowCount; row++) {
+                byte gender = genders.buffer.get(row);
+                if (gender != NO_GENDER && states.buffer.get(row) == LIVE) {
+                    counts[gender]++;
+                }
+            }
+            Map<Gender, Long> byGender = new EnumMap<>(Gender.class);
+            for (Gender gender : Gender.values()) {
+                byGender.put(gender, counts[gender.ordinal()]);
+            }
+            return byGender;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SortedMap<Integer, Long> countUsersByAge() {
+        lock.readLock().lock();
+        try {
+            SortedMap<Integer, Long> byAge = new TreeMap<>();
+            for (int row = 0; row < rowCount; row++) {
+                short age = ages.buffer.getShort(row * 2);
+                if (age != NO_AGE && states.buffer.get(row) == LIVE) {
+                    byAge.merge((int) age, 1L, Long::sum);
+                }
+            }
+            return byAge;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // every read builds its User from the columns
+    @Override
+    public boolean keepsUserInstances() {
+        return false;
+    }
+
+    @Override
+    public Map<String, Integer> indexSizes() {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> sizes = new LinkedHashMap<>();
+            sizes.put("userUid", byUserUid.size());
+            sizes.put("email", byEmail.size());
+            return sizes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Column column : Arrays.asList(ids, states, genders, ages, versions, strings, arena, meta)) {
+                column.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // listeners are called holding the write lock, so they see the writes in
+    // the order they were made
+    @Override
+    public void addChangeListener(UserChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    private void notifyListeners(UUID userUid, User previous, User current) {
+        for (UserChangeListener listener : listeners) {
+            listener.onChange(userUid, previous, current);
+        }
+    }
+
+    private <T> T withWriteLock(Supplier<T> action) {
+        lock.writeLock().lock();
+        try {
+            return action.get();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int rowCountUnderLock() {
+        lock.readLock().lock();
+        try {
+            return rowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int findRow(UUID userUid) {
+        long most = userUid.getMostSignificantBits();
+        long least = userUid.getLeastSignificantBits();
+        return byUserUid.find(hash(userUid),
+                row -> ids.buffer.getLong(row * 16) == most && ids.buffer.getLong(row * 16 + 8) == least);
+    }
+
+    private int findEmailRow(String email) {
+        String normalized = UserIndexes.normalizeEmail(email);
+        return byEmail.find(hash(normalized), row -> {
+            String stored = readString(row, EMAIL);
+            return stored != null && UserIndexes.normalizeEmail(stored).equals(normalized);
+        });
+    }
+
+    private User readRow(int row) {
+        byte gender = genders.buffer.get(row);
+        short age = ages.buffer.getShort(row * 2);
+        User user = new User(readUserUid(row), readString(row, FIRST_NAME), readString(row, LAST_NAME),
+                gender == NO_GENDER ? null : Gender.values()[gender], age == NO_AGE ? null : (int) age,
+                readString(row, EMAIL));
+        user.setVersion(versions.buffer.getLong(row * 8));
+        return user;
+    }
+
+    private UUID readUserUid(int row) {
+        return new UUID(ids.buffer.getLong(row * 16), ids.buffer.getLong(row * 16 + 8));
+    }
+
+    private String readString(int row, int field) {
+        int offset = strings.buffer.getInt(row * STRINGS_WIDTH + field);
+        int length = strings.buffer.getInt(row * STRINGS_WIDTH + field + 4);
+        if (length == NO_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        // a duplicate has its own position, so concurrent readers do not interfere
+        ByteBuffer view = arena.buffer.duplicate();
+        view.position(offset);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the arena has room for the bytes once reserveArena made it
+    private void writeString(int row, int field, byte[] bytes) {
+        int offset = arenaSize;
+        int length = NO_STRING;
+        if (bytes != null) {
+            ByteBuffer view = arena.buffer.duplicate();
+            view.position(arenaSize);
+            view.put(bytes);
+            arenaSize += bytes.length;
+            liveBytes += bytes.length;
+            length = bytes.length;
+        }
+        strings.buffer.putInt(row * STRINGS_WIDTH + field, offset);
+        strings.buffer.putInt(row * STRINGS_WIDTH + field + 4, length);
+    }
+
+    private void reserveArena(long bytes) {
+        long needed = arenaSize + bytes;
+        if (needed > Integer.MAX_VALUE || needed > arena.buffer.capacity() && arenaSize - liveBytes >= arenaSize / 2) {
+            compactArena();
+            needed = arenaSize + bytes;
+        }
+        if (needed > Integer.MAX_VALUE) {
+            // only live strings are left, so this is the capacity of the dao and not
+            // anything the write did wrong
+            throw new IllegalStateException("the user string arena is full with " + liveBytes + " bytes of live strings");
+        }
+        arena.ensureRows((int) needed);
+    }
+
+    // moves the strings of the live rows to the start of the arena, in the order
+    // they are in it. every string only moves towards the start, over garbage or
+    // strings that have moved already, so nothing is copied elsewhere first
+    private void compactArena() {
+        long[] slots = new long[byUserUid.size() * 3];
+        int count = 0;
+        for (int row = 0; row < rowCount; row++) {
+            if (states.buffer.get(row) != LIVE) {
+                continue;
+            }
+            for (int field = FIRST_NAME; field < STRINGS_WIDTH; field += 8) {
+                if (strings.buffer.getInt(row * STRINGS_WIDTH + field + 4) != NO_STRING) {
+                    // the offset first, so sorting the slots sorts by it
+                    slots[count++] = (long) strings.buffer.getInt(row * STRINGS_WIDTH + field) << 32
+                            | (row * STRINGS_WIDTH + field);
+                }
+            }
+        }
+        Arrays.sort(slots, 0, count);
+        ByteBuffer view = arena.buffer.duplicate();
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int offset = (int) (slots[i] >>> 32);
+            int position = (int) slots[i];
+            byte[] bytes = new byte[strings.buffer.getInt(position + 4)];
+            view.position(offset);
+            view.get(bytes);
+            view.position(size);
+            view.put(bytes);
+            strings.buffer.putInt(position, size);
+            size += bytes.length;
+        }
+        arenaSize = size;
+        liveBytes = size;
+        meta.buffer.putInt(8, arenaSize);
+    }
+
+    private int stringBytes(int row) {
+        int bytes = 0;
+        for (int field = FIRST_NAME; field < STRINGS_WIDTH; field += 8) {
+            bytes += Math.max(0, strings.buffer.getInt(row * STRINGS_WIDTH + field + 4));
+        }
+        return bytes;
+    }
+
+    private void addFreeRow(int row) {
+        if (freeRowCount == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, freeRowCount * 2);
+        }
+        freeRows[freeRowCount++] = row;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private void ensureRows(int rows) {
+        ids.ensureRows(rows);
+        states.ensureRows(rows);
+        genders.ensureRows(rows);
+        ages.ensureRows(rows);
+        versions.ensureRows(rows);
+        strings.ensureRows(rows);
+    }
+
+    private static int hash(UUID userUid) {
+        long bits = userUid.getMostSignificantBits() ^ userUid.getLeastSignificantBits();
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+    private static int hash(String normalizedEmail) {
+        return normalizedEmail.hashCode();
+    }
+
+    // one memory-mapped file of fixed width entries that doubles when it runs out
+    private static final class Column implements Closeable {
+
+        private final FileChannel channel;
+        private final int width;
+        private MappedByteBuffer buffer;
+
+        Column(Path file, int width, int initialRows) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            this.width = width;
+            // a file from an earlier run is mapped at its full size
+            long size = Math.max(channel.size(), (long) initialRows * width);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        // called with the write lock held
+        void ensureRows(int rows) {
+            long needed = (long) rows * width;
+            if (needed <= buffer.capacity()) {
+                return;
+            }
+            long size = Math.min(Math.max(needed, buffer.capacity() * 2L), Integer.MAX_VALUE);
+            try {
+                // mapping past the end of the file grows the file
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException e) {
+                throw new IllegalStateException("could not grow " + channel, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    // open addressing hash table from a key to a row number, for keys that are
+    // stored in the columns themselves. a slot holds row + 1, 0 for empty and -1
+    // for a removed entry. the hash of an entry is worked out again from its row
+    // when the table grows, so the table itself is only ints
+    private static final class RowIndex {
+
+        private static final int EMPTY = 0;
+        private static final int REMOVED = -1;
+
+        private final IntUnaryOperator hashOfRow;
+        private int[] slots = new int[16];
+        // live and removed slots, both make probes longer
+        private int used;
+        private int live;
+
+        RowIndex(IntUnaryOperator hashOfRow) {
+            this.hashOfRow = hashOfRow;
+        }
+
+        int size() {
+            return live;
+        }
+
+        int find(int hash, IntPredicate matches) {
+            int mask = slots.length - 1;
+            for (int i = spread(hash) & mask;; i = (i + 1) & mask) {
+                int slot = slots[i];
+                if (slot == EMPTY) {
+                    return -1;
+                }
+                if (slot != REMOVED && matches.test(slot - 1)) {
+                    return slot - 1;
+                }
+            }
+        }
+
+        // the caller has checked that the row is not in the table yet
+        void add(int row) {
+            if ((used + 1) * 2 > slots.length) {
+                resize(live + 1);
+            }
+            int mask = slots.length - 1;
+            int i = spread(hashOfRow.applyAsInt(row)) & mask;
+            while (slots[i] != EMPTY && slots[i] != REMOVED) {
+                i = (i + 1) & mask;
+            }
+            if (slots[i] == EMPTY) {
+                used++;
+            }
+            slots[i] = row + 1;
+            live++;
+        }
+
+        void remove(int row) {
+            int mask = slots.length - 1;
+            for (int i = spread(hashOfRow.applyAsInt(row)) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+                if (slots[i] == row + 1) {
+                    slots[i] = REMOVED;
+                    live--;
+                    return;
+                }
+            }
+        }
+
+        private void resize(int minLive) {
+            int capacity = 16;
+            while (capacity < minLive * 4) {
+                capacity <<= 1;
+            }
+            int[] old = slots;
+            slots = new int[capacity];
+            used = 0;
+            live = 0;
+            for (int slot : old) {
+                if (slot != EMPTY && slot != REMOVED) {
+                    add(slot - 1);
+                }
+            }
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
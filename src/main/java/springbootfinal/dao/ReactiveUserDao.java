@@ -0,0 +1,20 @@
+package springbootfinal.dao;
+
+import java.util.*;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// Reactive reads over the same users as UserDao. A Flux must only read users
+// from the storage as they are requested, so a subscriber that requests slowly
+// holds the read back instead of having users pile up in memory.
+public interface ReactiveUserDao {
+
+    Flux<User> selectAllUsers();
+
+    Flux<User> selectUsersByGender(Gender gender);
+
+    Mono<User> selectUserByUserUid(UUID userUid);
+}
@@ -0,0 +1,309 @@
+package springbootfinal.dao;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// UserDao that splits the users over user.sharded.shards ConcurrentDataDaos by
+// a hash of the userUid.
+// Anything about one user goes to its shard only, so writers to different
+// shards share no map, index or lock. Scans, queries and counts ask every
+// shard at once on the common fork join pool and merge what comes back, so a
+// full scan takes about as long as the scan of one shard when there are cores
+// for all of them.
+// The shards share one email index, which keeps emails unique across all of
+// them. Each shard is consistent on its own but a scan does not stop writes to
+// the other shards while it runs, and a batch is applied shard by shard.
+@Repository
+@ConditionalOnProperty(name = "user.dao", havingValue = "sharded")
+public class ShardedDataDao implements UserDao {
+
+    private final ConcurrentDataDao[] shards;
+    private final ConcurrentHashMap<String, UUID> emails;
+
+    @Autowired
+    public ShardedDataDao(@Value("${user.sharded.shards:8}") int shardCount) {
+        this(shardCount, ConcurrentDataDao.DEFAULT_STRIPES);
+        // same seed user as FakeDataDao so that the application behaves the same
+        UUID joeUserUid = UUID.randomUUID();
+        insertUser(joeUserUid, new User(joeUserUid, "Joe", "Jones", Gender.MALE, 20, "JoeJones2021@gmail.com"));
+    }
+
+    ShardedDataDao(int shardCount, int stripesPerShard) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("user.sharded.shards must be positive but was " + shardCount);
+        }
+        emails = new ConcurrentHashMap<>();
+        shards = new ConcurrentDataDao[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new ConcurrentDataDao(stripesPerShard, emails);
+        }
+    }
+
+    // the writes and reads of one user
+
+    @Override
+    public Optional<User> selectUserByUserUid(UUID userUid) {
+        return shardFor(userUid).selectUserByUserUid(userUid);
+    }
+
+    @Override
+    public int updateUser(User user) {
+        return shardFor(user.getUserUid()).updateUser(user);
+    }
+
+    @Override
+    public int deleteUserByUserUid(UUID userUid) {
+        return shardFor(userUid).deleteUserByUserUid(userUid);
+    }
+
+    @Override
+    public int insertUser(UUID userUid, User user) {
+        return shardFor(userUid).insertUser(userUid, user);
+    }
+
+    @Override
+    public WriteOutcome insertIfAbsent(User user) {
+        return shardFor(user.getUserUid()).insertIfAbsent(user);
+    }
+
+    @Override
+    public WriteOutcome updateIfPresent(User user) {
+        return shardFor(user.getUserUid()).updateIfPresent(user);
+    }
+
+    @Override
+    public WriteOutcome compareAndSet(User user, long expectedVersion) {
+        return shardFor(user.getUserUid()).compareAndSet(user, expectedVersion);
+    }
+
+    @Override
+    public WriteOutcome deleteIfPresent(UUID userUid) {
+        return shardFor(userUid).deleteIfPresent(userUid);
+    }
+
+    @Override
+    public WriteOutcome putReplicated(User user) {
+        return shardFor(user.getUserUid()).putReplicated(user);
+    }
+
+    @Override
+    public WriteOutcome compareAndDelete(UUID userUid, long expectedVersion) {
+        return shardFor(userUid).compareAndDelete(userUid, expectedVersion);
+    }
+
+    // the email index is shared, so it knows the shard of the owner
+    @Override
+    public Optional<User> selectUserByEmail(String email) {
+        UUID owner = emails.get(UserIndexes.normalizeEmail(email));
+        return owner == null ? Optional.empty() : shardFor(owner).selectUserByEmail(email);
+    }
+
+    // a batch is split by shard and each part is applied as one batch of its shard
+
+    @Override
+    public WriteOutcome[] insertUsersIfAbsent(List<User> users) {
+        return writeAll(users, User::getUserUid, ConcurrentDataDao::insertUsersIfAbsent);
+    }
+
+    @Override
+    public WriteOutcome[] updateUsersIfPresent(List<User> users) {
+        return writeAll(users, User::getUserUid, ConcurrentDataDao::updateUsersIfPresent);
+    }
+
+    @Override
+    public WriteOutcome[] deleteUsersIfPresent(List<UUID> userUids) {
+        return writeAll(userUids, userUid -> userUid, ConcurrentDataDao::deleteUsersIfPresent);
+    }
+
+    private <T> WriteOutcome[] writeAll(List<T> items, Function<T, UUID> userUidOf,
+            BiFunction<ConcurrentDataDao, List<T>, WriteOutcome[]> write) {
+        List<List<Integer>> positions = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < items.size(); i++) {
+            positions.get(shardIndex(userUidOf.apply(items.get(i)))).add(i);
+        }
+        WriteOutcome[] outcomes = new WriteOutcome[items.size()];
+        for (int shard = 0; shard < shards.length; shard++) {
+            List<Integer> inShard = positions.get(shard);
+            if (inShard.isEmpty()) {
+                continue;
+            }
+            List<T> part = new ArrayList<>(inShard.size());
+            for (int position : inShard) {
+                part.add(items.get(position));
+            }
+            WriteOutcome[] partOutcomes = write.apply(shards[shard], part);
+            for (int i = 0; i < partOutcomes.length; i++) {
+                outcomes[inShard.get(i)] = partOutcomes[i];
+            }
+        }
+        return outcomes;
+    }
+
+    // scatter-gather: every shard answers on its own and the answers are merged
+
+    @Override
+    public List<User> selectAllUsers() {
+        return concat(onEveryShard(UserDao::selectAllUsers));
+    }
+
+    @Override
+    public List<User> selectUsersByGender(Gender gender) {
+        return concat(onEveryShard(shard -> shard.selectUsersByGender(gender)));
+    }
+
+    @Override
+    public List<User> selectUsersByAgeRange(int fromAge, int toAge) {
+        return concat(onEveryShard(shard -> shard.selectUsersByAgeRange(fromAge, toAge)));
+    }
+
+    // every shard returns its first limit users after the cursor, the first
+    // limit of all of them are the page
+    @Override
+    public List<User> selectUsersAfter(UUID after, int limit, Predicate<? super User> filter) {
+        List<User> users = concat(onEveryShard(shard -> shard.selectUsersAfter(after, limit, filter)));
+        users.sort(Comparator.comparing(User::getUserUid));
+        return users.size() <= limit ? users : new ArrayList<>(users.subList(0, limit));
+    }
+
+    @Override
+    public List<User> selectUsers(UserQuery query) {
+        return query.finish(concat(onEveryShard(shard -> shard.selectUsers(query))).stream());
+    }
+
+    // the shards pick their plans on their own, usually the same one as they
+    // hold users alike. the estimates are added up
+    @Override
+    public UserQueryPlan explain(UserQuery query) {
+        List<UserQueryPlan> plans = onEveryShard(shard -> shard.explain(query));
+        String access = plans.stream().map(UserQueryPlan::getAccess).distinct().collect(Collectors.joining("|"));
+        String indexCondition = plans.stream().map(UserQueryPlan::getIndexCondition).filter(Objects::nonNull)
+                .findFirst().orElse(null);
+        return new UserQueryPlan(access, indexCondition, plans.stream().mapToLong(UserQueryPlan::getEstimatedRows).sum(),
+                plans.stream().mapToLong(UserQueryPlan::getTotalRows).sum(), query);
+    }
+
+    // every shard finds its first offset + limit users, which hold the page of
+    // the whole store. the order key is worked out once per user for the merge
+    @Override
+    public List<User> searchUsers(String query, int offset, int limit) {
+        List<String> queryWords = UserSearchIndex.queryWords(query);
+        if (queryWords.isEmpty()) {
+            return new ArrayList<>();
+        }
+        int perShard = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        String leadingWord = UserSearchIndex.leadingWord(queryWords);
+        List<Map.Entry<String, User>> found = new ArrayList<>();
+        for (User user : concat(onEveryShard(shard -> shard.searchUsers(query, 0, perShard)))) {
+            found.add(new AbstractMap.SimpleImmutableEntry<>(UserSearchIndex.orderKey(user, leadingWord), user));
+        }
+        found.sort(Map.Entry.<String, User>comparingByKey(Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(entry -> entry.getValue().getUserUid()));
+        return found.stream().skip(offset).limit(limit).map(Map.Entry::getValue).collect(Collectors.toList());
+    }
+
+    // one shard after the other, a parallel stream gets a shard per fork
+    @Override
+    public Stream<User> streamUsers() {
+        return Arrays.stream(shards).flatMap(UserDao::streamUsers);
+    }
+
+    @Override
+    public int countUsers() {
+        int count = 0;
+        for (ConcurrentDataDao shard : shards) {
+            count += shard.countUsers();
+        }
+        return count;
+    }
+
+    @Override
+    public Map<Gender, Long> countUsersByGender() {
+        Map<Gender, Long> counts = new EnumMap<>(Gender.class);
+        for (ConcurrentDataDao shard : shards) {
+            shard.countUsersByGender().forEach((gender, count) -> counts.merge(gender, count, Long::sum));
+        }
+        return counts;
+    }
+
+    @Override
+    public SortedMap<Integer, Long> countUsersByAge() {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (ConcurrentDataDao shard : shards) {
+            shard.countUsersByAge().forEach((age, count) -> counts.merge(age, count, Long::sum));
+        }
+        return counts;
+    }
+
+    // the entries of all shards, but the email index once since they share it.
+    // an age held by several shards is a key in each of their age indexes
+    @Override
+    public Map<String, Integer> indexSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (ConcurrentDataDao shard : shards) {
+            shard.indexSizes().forEach((index, size) -> sizes.merge(index, size, Integer::sum));
+        }
+        sizes.put("email", emails.size());
+        return sizes;
+    }
+
+    // a user is always written on its shard under that shard's lock, so the
+    // listener still sees the writes of any one user in order
+    @Override
+    public void addChangeListener(UserChangeListener listener) {
+        for (ConcurrentDataDao shard : shards) {
+            shard.addChangeListener(listener);
+        }
+    }
+
+    int shardCount() {
+        return shards.length;
+    }
+
+    // mixes all 128 bits and takes the high bits of the product: the stripe
+    // inside a shard comes from the low bits of UUID.hashCode, and the low bits
+    // of a product only depend on the low bits of what was multiplied, so
+    // taking those here would leave most stripes of every shard unused. the
+    // top 32 bits times the shard count, shifted down, pick the shard from the
+    // high bits for any shard count
+    int shardIndex(UUID userUid) {
+        long hash = (userUid.getMostSignificantBits() * 0x9E3779B97F4A7C15L ^ userUid.getLeastSignificantBits())
+                * 0xC2B2AE3D27D4EB4FL;
+        return (int) ((hash >>> 32) * shards.length >>> 32);
+    }
+
+    private ConcurrentDataDao shardFor(UUID userUid) {
+        return shards[shardIndex(userUid)];
+    }
+
+    private <T> List<T> onEveryShard(Function<ConcurrentDataDao, T> query) {
+        return Arrays.stream(shards).parallel().map(query).collect(Collectors.toList());
+    }
+
+    private static List<User> concat(List<List<User>> parts) {
+        int size = 0;
+        for (List<User> part : parts) {
+            size += part.size();
+        }
+        List<User> users = new ArrayList<>(size);
+        for (List<User> part : parts) {
+            users.addAll(part);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,43 @@
+package springbootfinal.dao;
+
+import java.util.*;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// ReactiveUserDao on top of whichever UserDao is configured. The users come
+// from UserDao.streamUsers, which ConcurrentDataDao and OffHeapDataDao walk
+// lazily, and Flux.fromStream only advances that walk by one user per user
+// requested. Cancelling closes the stream.
+@Repository
+public class StreamingReactiveUserDao implements ReactiveUserDao {
+
+    private final UserDao userDao;
+
+    @Autowired
+    public StreamingReactiveUserDao(UserDao userDao) {
+        this.userDao = userDao;
+    }
+
+    @Override
+    public Flux<User> selectAllUsers() {
+        // the supplier defers opening the stream until someone subscribes
+        return Flux.fromStream(userDao::streamUsers);
+    }
+
+    @Override
+    public Flux<User> selectUsersByGender(Gender gender) {
+        // the gender index hands back a copied list, walking the users keeps memory flat
+        return Flux.fromStream(() -> userDao.streamUsers().filter(user -> gender.equals(user.getGender())));
+    }
+
+    @Override
+    public Mono<User> selectUserByUserUid(UUID userUid) {
+        return Mono.fromCallable(() -> userDao.selectUserByUserUid(userUid)).flatMap(Mono::justOrEmpty);
+    }
+}
@@ -0,0 +1,46 @@
+package springbootfinal.dao;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import springbootfinal.model.User;
+
+// One write to the user store as UserChangeLog hands it out. sequence numbers
+// count up from 0 in the order the writes were applied, user is the user as
+// written and null for a delete.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class UserChange {
+
+    public enum Type {
+        INSERT, UPDATE, DELETE
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final UUID userUid;
+    private final User user;
+
+    public UserChange(long sequence, Type type, UUID userUid, User user) {
+        this.sequence = sequence;
+        this.type = type;
+        this.userUid = userUid;
+        this.user = user;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public UUID getUserUid() {
+        return userUid;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
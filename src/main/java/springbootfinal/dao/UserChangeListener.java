@@ -0,0 +1,14 @@
+package springbootfinal.dao;
+
+import java.util.UUID;
+
+import springbootfinal.model.User;
+
+// Told about every write a dao applies, in the order it applied them for any
+// one user. It is called while the dao still holds the lock for userUid, so
+// it must be quick and must not call back into the dao.
+public interface UserChangeListener {
+
+    // previous is null for an insert and current is null for a delete
+    void onChange(UUID userUid, User previous, User current);
+}
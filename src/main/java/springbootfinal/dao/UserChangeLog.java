@@ -0,0 +1,130 @@
+package springbootfinal.dao;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.model.User;
+
+// The last user.changes.capacity writes to the user store, numbered in the
+// order the dao applied them, so a client can follow the store from a
+// sequence number instead of reading every user again to find what changed.
+//
+// The changes live in a ring that overwrites the oldest one, so appending
+// never allocates more than the change itself and a slow reader can never hold
+// up a write. A reader that falls further behind than the ring is told so by
+// read and has to start over from a full read. Sequence numbers start at 0
+// again when the process restarts, which read reports the same way.
+//
+// Writes append from UserChangeListener.onChange, under the dao's lock for the
+// user, so the monitor of the log is only held for a few field writes.
+// Readers waiting for the next change (see whenAvailable) are woken on the
+// log's own threads, never on the writer's.
+@Component
+public class UserChangeLog implements UserChangeListener, Closeable {
+
+    // waiters that gave up are only removed once there are this many
+    private static final int MIN_PRUNE_WAITERS = 64;
+
+    private final UserChange[] ring;
+    private final int mask;
+    // guarded by this, like everything else that changes
+    private long nextSequence;
+    private final List<CompletableFuture<Void>> waiters = new ArrayList<>();
+    private int pruneWaitersAt = MIN_PRUNE_WAITERS;
+    private final ExecutorService notifier;
+
+    @Autowired
+    public UserChangeLog(UserDao userDao, @Value("${user.changes.capacity:65536}") int capacity) {
+        this(capacity);
+        userDao.addChangeListener(this);
+    }
+
+    // must be a power of two so a sequence maps to its slot with a mask
+    UserChangeLog(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("user.changes.capacity must be a power of two but was " + capacity);
+        }
+        ring = new UserChange[capacity];
+        mask = capacity - 1;
+        AtomicInteger count = new AtomicInteger();
+        notifier = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "user-changes-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void onChange(UUID userUid, User previous, User current) {
+        List<CompletableFuture<Void>> woken;
+        synchronized (this) {
+            UserChange.Type type = current == null ? UserChange.Type.DELETE
+                    : previous == null ? UserChange.Type.INSERT : UserChange.Type.UPDATE;
+            ring[(int) nextSequence & mask] = new UserChange(nextSequence, type, userUid, current);
+            nextSequence++;
+            if (waiters.isEmpty()) {
+                return;
+            }
+            woken = new ArrayList<>(waiters);
+            waiters.clear();
+            pruneWaitersAt = MIN_PRUNE_WAITERS;
+        }
+        // one task each, so a reader that is slow to write its response does not
+        // hold up the others
+        for (CompletableFuture<Void> waiter : woken) {
+            waiter.completeAsync(() -> null, notifier);
+        }
+    }
+
+    // the sequence the next change will get, where a client that only wants
+    // changes from now on starts
+    public synchronized long nextSequence() {
+        return nextSequence;
+    }
+
+    // up to max changes from sequence from on, empty when from is not in the
+    // log: overwritten already, or past the next sequence because the log
+    // started over since the client got it
+    public synchronized Optional<UserChangePage> read(long from, int max) {
+        if (from < nextSequence - ring.length || from > nextSequence) {
+            return Optional.empty();
+        }
+        long end = from + Math.min(max, nextSequence - from);
+        List<UserChange> changes = new ArrayList<>((int) (end - from));
+        for (long sequence = from; sequence < end; sequence++) {
+            changes.add(ring[(int) sequence & mask]);
+        }
+        return Optional.of(new UserChangePage(end, changes));
+    }
+
+    // completes once the change with this sequence has been written, on one of
+    // the log's threads. a reader that stops waiting should cancel it
+    public synchronized CompletableFuture<Void> whenAvailable(long sequence) {
+        if (sequence < nextSequence) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (waiters.size() >= pruneWaitersAt) {
+            waiters.removeIf(CompletableFuture::isDone);
+            pruneWaitersAt = Math.max(MIN_PRUNE_WAITERS, waiters.size() * 2);
+        }
+        CompletableFuture<Void> waiter = new CompletableFuture<>();
+        waiters.add(waiter);
+        return waiter;
+    }
+
+    @PreDestroy
+    @Override
+    public void close() {
+        notifier.shutdownNow();
+    }
+}
@@ -0,0 +1,25 @@
+package springbootfinal.dao;
+
+import java.util.*;
+
+// A run of changes read from UserChangeLog, and the sequence to read from next
+// time. next is the sequence after the last change, or the sequence asked for
+// when there were no changes yet.
+public final class UserChangePage {
+
+    private final long next;
+    private final List<UserChange> changes;
+
+    public UserChangePage(long next, List<UserChange> changes) {
+        this.next = next;
+        this.changes = changes;
+    }
+
+    public long getNext() {
+        return next;
+    }
+
+    public List<UserChange> getChanges() {
+        return changes;
+    }
+}
@@ -0,0 +1,103 @@
+package springbootfinal.dao;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// Compact binary form of a User used by the write-ahead log and snapshots.
+// The userUid is two longs and the gender its ordinal, every other field is
+// written with a presence flag because users posted over http can have nulls.
+// Strings are an int length and their UTF-8 bytes, so unlike writeUTF there is
+// no 64k limit that a single long name could hit halfway through a log or a
+// replication stream. Strings written with writeUTF by earlier versions have
+// their own flag and are still read.
+// The versioned form adds the version, for replication where a follower has to
+// keep the versions of its leader.
+public final class UserCodec {
+
+    private static final byte NO_STRING = 0;
+    // written by writeUTF, only found in older logs and snapshots
+    private static final byte MODIFIED_UTF8_STRING = 1;
+    private static final byte UTF8_STRING = 2;
+
+    private UserCodec() {
+    }
+
+    public static void writeUserUid(DataOutput output, UUID userUid) throws IOException {
+        output.writeLong(userUid.getMostSignificantBits());
+        output.writeLong(userUid.getLeastSignificantBits());
+    }
+
+    public static UUID readUserUid(DataInput input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    public static void writeUser(DataOutput output, User user) throws IOException {
+        writeUserUid(output, user.getUserUid());
+        writeString(output, user.getFirstName());
+        writeString(output, user.getLastName());
+        output.writeByte(user.getGender() == null ? -1 : user.getGender().ordinal());
+        output.writeBoolean(user.getAge() != null);
+        if (user.getAge() != null) {
+            output.writeInt(user.getAge());
+        }
+        writeString(output, user.getEmail());
+    }
+
+    public static User readUser(DataInput input) throws IOException {
+        UUID userUid = readUserUid(input);
+        String firstName = readString(input);
+        String lastName = readString(input);
+        byte gender = input.readByte();
+        Integer age = input.readBoolean() ? input.readInt() : null;
+        String email = readString(input);
+        return new User(userUid, firstName, lastName, gender < 0 ? null : Gender.values()[gender], age, email);
+    }
+
+    public static void writeVersionedUser(DataOutput output, User user) throws IOException {
+        writeUser(output, user);
+        output.writeLong(user.getVersion());
+    }
+
+    public static User readVersionedUser(DataInput input) throws IOException {
+        User user = readUser(input);
+        user.setVersion(input.readLong());
+        return user;
+    }
+
+    private static void writeString(DataOutput output, String value) throws IOException {
+        if (value == null) {
+            output.writeByte(NO_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeByte(UTF8_STRING);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        byte flag = input.readByte();
+        if (flag == NO_STRING) {
+            return null;
+        }
+        if (flag == MODIFIED_UTF8_STRING) {
+            return input.readUTF();
+        }
+        if (flag != UTF8_STRING) {
+            throw new IOException("not a user string: " + flag);
+        }
+        int length = input.readInt();
+        if (length < 0) {
+            throw new IOException("string of " + length + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
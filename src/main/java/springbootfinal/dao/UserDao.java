@@ -1,7 +1,12 @@
 package springbootfinal.dao;
 
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 import springbootfinal.model.*;
+import springbootfinal.model.User.Gender;
 
 //also can rename the methods for userDao to match that of sql
 public interface UserDao {
@@ -16,4 +21,197 @@ public interface UserDao {
 
     int insertUser(UUID userUid, User user);
 
+    // conditional writes, each returns what it did. the check and the write are
+    // one atomic step in ConcurrentDataDao and the daos built on it, so two
+    // racing writers can never both see a user present and a delete cannot be
+    // undone by an update that checked first. the defaults here only check and
+    // then write, which is enough for a dao that is not shared between threads.
+    // every applied write gives the user the next version, starting at 1
+
+    default WriteOutcome insertIfAbsent(User user) {
+        if (selectUserByUserUid(user.getUserUid()).isPresent()) {
+            return WriteOutcome.ALREADY_EXISTS;
+        }
+        user.setVersion(1);
+        return insertUser(user.getUserUid(), user) == 1 ? WriteOutcome.APPLIED : WriteOutcome.EMAIL_TAKEN;
+    }
+
+    default WriteOutcome updateIfPresent(User user) {
+        Optional<User> current = selectUserByUserUid(user.getUserUid());
+        if (!current.isPresent()) {
+            return WriteOutcome.NOT_FOUND;
+        }
+        user.setVersion(current.get().getVersion() + 1);
+        return updateUser(user) == 1 ? WriteOutcome.APPLIED : WriteOutcome.EMAIL_TAKEN;
+    }
+
+    // updates the user only if its stored version is still expectedVersion
+    default WriteOutcome compareAndSet(User user, long expectedVersion) {
+        Optional<User> current = selectUserByUserUid(user.getUserUid());
+        if (!current.isPresent()) {
+            return WriteOutcome.NOT_FOUND;
+        }
+        if (current.get().getVersion() != expectedVersion) {
+            return WriteOutcome.VERSION_CONFLICT;
+        }
+        user.setVersion(expectedVersion + 1);
+        return updateUser(user) == 1 ? WriteOutcome.APPLIED : WriteOutcome.EMAIL_TAKEN;
+    }
+
+    default WriteOutcome deleteIfPresent(UUID userUid) {
+        if (!selectUserByUserUid(userUid).isPresent()) {
+            return WriteOutcome.NOT_FOUND;
+        }
+        deleteUserByUserUid(userUid);
+        return WriteOutcome.APPLIED;
+    }
+
+    // deletes the user only if its stored version is still expectedVersion
+    default WriteOutcome compareAndDelete(UUID userUid, long expectedVersion) {
+        Optional<User> current = selectUserByUserUid(userUid);
+        if (!current.isPresent()) {
+            return WriteOutcome.NOT_FOUND;
+        }
+        if (current.get().getVersion() != expectedVersion) {
+            return WriteOutcome.VERSION_CONFLICT;
+        }
+        deleteUserByUserUid(userUid);
+        return WriteOutcome.APPLIED;
+    }
+
+    // writes the user as another store has it, version included, inserting it
+    // or replacing whatever is stored under its userUid. for a follower applying
+    // its leader's writes, so that both hand out the same version for the same
+    // state. EMAIL_TAKEN when another user here still holds the email. the
+    // default leaves the version alone, which is enough for a dao that does not
+    // count versions in insertUser
+    default WriteOutcome putReplicated(User user) {
+        return insertUser(user.getUserUid(), user) == 1 ? WriteOutcome.APPLIED : WriteOutcome.EMAIL_TAKEN;
+    }
+
+    // batch versions of the conditional writes, each user must already have its
+    // userUid set. the outcome for users.get(i) is at index i. daos should apply
+    // a whole batch under one lock acquisition, the defaults just loop
+
+    default WriteOutcome[] insertUsersIfAbsent(List<User> users) {
+        WriteOutcome[] outcomes = new WriteOutcome[users.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = insertIfAbsent(users.get(i));
+        }
+        return outcomes;
+    }
+
+    default WriteOutcome[] updateUsersIfPresent(List<User> users) {
+        WriteOutcome[] outcomes = new WriteOutcome[users.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = updateIfPresent(users.get(i));
+        }
+        return outcomes;
+    }
+
+    default WriteOutcome[] deleteUsersIfPresent(List<UUID> userUids) {
+        WriteOutcome[] outcomes = new WriteOutcome[userUids.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = deleteIfPresent(userUids.get(i));
+        }
+        return outcomes;
+    }
+
+    // the query methods below scan selectAllUsers by default, daos that keep
+    // secondary indexes override them
+
+    default List<User> selectUsersByGender(Gender gender) {
+        return selectAllUsers().stream().filter(user -> gender.equals(user.getGender()))
+                .collect(Collectors.toList());
+    }
+
+    // fromAge inclusive, toAge exclusive, like a range in sql
+    default List<User> selectUsersByAgeRange(int fromAge, int toAge) {
+        return selectAllUsers().stream()
+                .filter(user -> user.getAge() != null && user.getAge() >= fromAge && user.getAge() < toAge)
+                .collect(Collectors.toList());
+    }
+
+    // emails are compared ignoring case
+    default Optional<User> selectUserByEmail(String email) {
+        return selectAllUsers().stream().filter(user -> email.equalsIgnoreCase(user.getEmail())).findFirst();
+    }
+
+    // the users matching a UserQuery, in its order and up to its limit. daos
+    // with indexes pick the one that narrows the query down most (the choice
+    // is what explain returns), the default filters every user
+    default List<User> selectUsers(UserQuery query) {
+        return query.finish(streamUsers().filter(query::matches));
+    }
+
+    default UserQueryPlan explain(UserQuery query) {
+        return UserQueryPlan.scan(query, countUsers());
+    }
+
+    // prefix search: the users with a word of their firstName or lastName, or
+    // their email, starting with every word of the query, ignoring case (see
+    // UserSearchIndex). ordered by the first matching word and then userUid,
+    // skipping the first offset users
+    default List<User> searchUsers(String query, int offset, int limit) {
+        List<String> queryWords = UserSearchIndex.queryWords(query);
+        if (queryWords.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return selectAllUsers().stream().filter(user -> UserSearchIndex.matches(user, queryWords))
+                .sorted(UserSearchIndex.order(UserSearchIndex.leadingWord(queryWords))).skip(offset).limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    // keyset pagination: up to limit users matching the filter, ordered by
+    // userUid and starting strictly after the given userUid (null for the first
+    // page). the last userUid of a page is the cursor for the next one
+    default List<User> selectUsersAfter(UUID after, int limit, Predicate<? super User> filter) {
+        return selectAllUsers().stream().filter(user -> after == null || user.getUserUid().compareTo(after) > 0)
+                .filter(filter).sorted(Comparator.comparing(User::getUserUid)).limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    // every user, one at a time. unlike selectAllUsers this is not a snapshot,
+    // daos that can iterate their storage directly should do so to avoid a copy
+    default Stream<User> streamUsers() {
+        return selectAllUsers().stream();
+    }
+
+    // the two methods below feed the store gauges and are read on every metrics
+    // scrape, so daos should answer them without copying the users
+
+    default int countUsers() {
+        return selectAllUsers().size();
+    }
+
+    // users per gender and users per age, for UserService.getStats. users
+    // without the value are not counted. daos that index gender and age keep
+    // these counts up to date on every write and answer without a scan
+
+    default Map<Gender, Long> countUsersByGender() {
+        return streamUsers().filter(user -> user.getGender() != null)
+                .collect(Collectors.groupingBy(User::getGender, () -> new EnumMap<>(Gender.class), Collectors.counting()));
+    }
+
+    default SortedMap<Integer, Long> countUsersByAge() {
+        return streamUsers().filter(user -> user.getAge() != null)
+                .collect(Collectors.groupingBy(User::getAge, TreeMap::new, Collectors.counting()));
+    }
+
+    // whether a read hands out the User object the write stored, the same one
+    // every time until the next write, so that whatever is worked out from a
+    // user can be kept against the object (see PrecomputedUserJsonWriter). a dao
+    // that builds a new User on every read says no
+    default boolean keepsUserInstances() {
+        return true;
+    }
+
+    // number of entries in each secondary index, by index name
+    default Map<String, Integer> indexSizes() {
+        return Collections.emptyMap();
+    }
+
+    // tells the listener about every write from now on, see UserChangeListener
+    void addChangeListener(UserChangeListener listener);
+
 }
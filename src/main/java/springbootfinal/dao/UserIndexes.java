@@ -0,0 +1,149 @@
+package springbootfinal.dao;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// Secondary indexes kept next to the primary map of a UserDao.
+// The owner must call the write methods while holding the lock for the
+// userUid being written so that the index entries for one user are never
+// changed by two threads at once. Readers never lock, so an index can briefly
+// point at a user whose fields have already changed; the select methods in the
+// dao re-check every user they load against the query for that reason.
+class UserIndexes {
+
+    private final Map<Gender, Set<UUID>> byGender;
+    // age buckets are never removed once created, ages are small numbers so
+    // there are only ever a few hundred of them
+    private final ConcurrentSkipListMap<Integer, Set<UUID>> byAge;
+    private final ConcurrentHashMap<String, UUID> byEmail;
+    private final UserSearchIndex search;
+
+    UserIndexes() {
+        this(new ConcurrentHashMap<>());
+    }
+
+    // byEmail can be shared between the indexes of several daos, see
+    // ShardedDataDao. the email of a user is then unique across all of them
+    UserIndexes(ConcurrentHashMap<String, UUID> byEmail) {
+        byGender = new EnumMap<>(Gender.class);
+        for (Gender gender : Gender.values()) {
+            byGender.put(gender, ConcurrentHashMap.newKeySet());
+        }
+        byAge = new ConcurrentSkipListMap<>();
+        this.byEmail = byEmail;
+        search = new UserSearchIndex();
+    }
+
+    // the email index is unique, so this has to be called before the user is
+    // written. returns false if another user already owns the email
+    boolean claimEmail(UUID userUid, String email) {
+        if (email == null) {
+            return true;
+        }
+        UUID owner = byEmail.putIfAbsent(normalizeEmail(email), userUid);
+        return owner == null || owner.equals(userUid);
+    }
+
+    // takes the email over from whoever owns it, only for writes that were
+    // already accepted once (see ConcurrentDataDao.restoreUser)
+    void forceEmail(UUID userUid, String email) {
+        if (email != null) {
+            byEmail.put(normalizeEmail(email), userUid);
+        }
+    }
+
+    // moves the index entries of a user from previous (null on insert) to
+    // current (null on delete)
+    void update(User previous, User current) {
+        if (previous != null) {
+            UUID userUid = previous.getUserUid();
+            if (previous.getGender() != null) {
+                byGender.get(previous.getGender()).remove(userUid);
+            }
+            if (previous.getAge() != null) {
+                byAge.getOrDefault(previous.getAge(), Collections.emptySet()).remove(userUid);
+            }
+            if (previous.getEmail() != null && (current == null || !sameEmail(previous, current))) {
+                byEmail.remove(normalizeEmail(previous.getEmail()), userUid);
+            }
+        }
+        if (current != null) {
+            UUID userUid = current.getUserUid();
+            if (current.getGender() != null) {
+                byGender.get(current.getGender()).add(userUid);
+            }
+            if (current.getAge() != null) {
+                byAge.computeIfAbsent(current.getAge(), age -> ConcurrentHashMap.newKeySet()).add(userUid);
+            }
+        }
+        search.update(previous, current);
+    }
+
+    Set<UUID> selectByGender(Gender gender) {
+        return byGender.get(gender);
+    }
+
+    // fromAge inclusive, toAge exclusive
+    Collection<Set<UUID>> selectByAgeRange(int fromAge, int toAge) {
+        if (fromAge >= toAge) {
+            return Collections.emptyList();
+        }
+        return byAge.subMap(fromAge, toAge).values();
+    }
+
+    Optional<UUID> selectByEmail(String email) {
+        return Optional.ofNullable(byEmail.get(normalizeEmail(email)));
+    }
+
+    // the sizes of the gender and age buckets, which the indexes keep up to date
+    // on every write anyway
+    Map<Gender, Long> countByGender() {
+        Map<Gender, Long> counts = new EnumMap<>(Gender.class);
+        for (Map.Entry<Gender, Set<UUID>> bucket : byGender.entrySet()) {
+            counts.put(bucket.getKey(), (long) bucket.getValue().size());
+        }
+        return counts;
+    }
+
+    SortedMap<Integer, Long> countByAge() {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (Map.Entry<Integer, Set<UUID>> bucket : byAge.entrySet()) {
+            // emptied buckets stay in the index
+            if (!bucket.getValue().isEmpty()) {
+                counts.put(bucket.getKey(), (long) bucket.getValue().size());
+            }
+        }
+        return counts;
+    }
+
+    // see UserSearchIndex.startingWith
+    Iterator<UUID> searchStartingWith(String prefix) {
+        return search.startingWith(prefix);
+    }
+
+    // entries per index: one per gender bucket, the number of distinct ages, the
+    // number of claimed emails and the number of (word, user) search entries
+    Map<String, Integer> sizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (Map.Entry<Gender, Set<UUID>> bucket : byGender.entrySet()) {
+            sizes.put("gender." + bucket.getKey().name().toLowerCase(Locale.ROOT), bucket.getValue().size());
+        }
+        sizes.put("age", byAge.size());
+        sizes.put("email", byEmail.size());
+        sizes.put("search", search.size());
+        return sizes;
+    }
+
+    static String normalizeEmail(String email) {
+        return email.toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean sameEmail(User previous, User current) {
+        return current.getEmail() != null
+                && normalizeEmail(previous.getEmail()).equals(normalizeEmail(current.getEmail()));
+    }
+}
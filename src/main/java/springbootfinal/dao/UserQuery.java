@@ -0,0 +1,347 @@
+package springbootfinal.dao;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// A filter over users that a UserDao can answer with its own indexes, see
+// UserDao.selectUsers and UserDao.explain.
+// The filter is an AND of conditions like age>=18 or gender=female, parsed
+// and checked once up front so a dao never sees a condition it cannot
+// evaluate. Results are ordered by userUid, or by the sort field with userUid
+// breaking ties, and hold at most limit users. without a sort, after works
+// like the cursor of selectUsersAfter.
+public final class UserQuery {
+
+    public enum Field {
+        FIRST_NAME("firstName"), LAST_NAME("lastName"), EMAIL("email"), GENDER("gender"), AGE("age");
+
+        private final String name;
+
+        Field(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // the field as it is spelled in a query, sort=-age is named("age") descending
+        public static Field named(String name) {
+            for (Field field : values()) {
+                if (field.name.equals(name)) {
+                    return field;
+                }
+            }
+            throw new IllegalArgumentException("unknown field " + name + ", expected one of " + Arrays.stream(values())
+                    .map(Field::getName).collect(Collectors.joining(", ")));
+        }
+    }
+
+    // longest first, so >= is not read as >
+    public enum Operator {
+        GREATER_OR_EQUAL(">="), LESS_OR_EQUAL("<="), NOT_EQUAL("!="), EQUAL("="), GREATER(">"), LESS("<");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+    }
+
+    // one field compared with a value. strings compare ignoring case, a user
+    // without the field only matches !=
+    public static final class Condition {
+
+        private final Field field;
+        private final Operator operator;
+        private final Object value;
+
+        Condition(Field field, Operator operator, Object value) {
+            this.field = field;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        boolean matches(User user) {
+            Object actual = valueOf(user, field);
+            if (actual == null) {
+                return operator == Operator.NOT_EQUAL;
+            }
+            int comparison = field == Field.AGE ? Integer.compare((Integer) actual, (Integer) value)
+                    : field == Field.GENDER ? ((Gender) actual).compareTo((Gender) value)
+                            : ((String) actual).compareToIgnoreCase((String) value);
+            switch (operator) {
+            case EQUAL:
+                return comparison == 0;
+            case NOT_EQUAL:
+                return comparison != 0;
+            case LESS:
+                return comparison < 0;
+            case LESS_OR_EQUAL:
+                return comparison <= 0;
+            case GREATER:
+                return comparison > 0;
+            default:
+                return comparison >= 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            String text = value instanceof Gender ? ((Gender) value).name().toLowerCase(Locale.ROOT) : value.toString();
+            return field.getName() + operator.getSymbol() + text;
+        }
+    }
+
+    private final List<Condition> conditions;
+    private final Field sortField;
+    private final boolean descending;
+    private final UUID after;
+    private final int limit;
+
+    public UserQuery(List<Condition> conditions, Field sortField, boolean descending, UUID after, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive but was " + limit);
+        }
+        if (sortField != null && after != null) {
+            throw new IllegalArgumentException("a cursor only works with results ordered by id, not with sort");
+        }
+        this.conditions = Collections.unmodifiableList(new ArrayList<>(conditions));
+        this.sortField = sortField;
+        this.descending = descending;
+        this.after = after;
+        this.limit = limit;
+    }
+
+    // parses conditions like age>=18, gender!=male or email=anna@gmail.com.
+    // throws IllegalArgumentException naming the first one that is not valid
+    public static List<Condition> parseConditions(List<String> expressions) {
+        List<Condition> conditions = new ArrayList<>();
+        for (String expression : expressions) {
+            conditions.add(parseCondition(expression));
+        }
+        return conditions;
+    }
+
+    private static Condition parseCondition(String expression) {
+        int at = -1;
+        for (int i = 0; i < expression.length() && at < 0; i++) {
+            if ("<>=!".indexOf(expression.charAt(i)) >= 0) {
+                at = i;
+            }
+        }
+        if (at <= 0) {
+            throw new IllegalArgumentException("expected a condition like age>=18 but got " + expression);
+        }
+        Field field = Field.named(expression.substring(0, at));
+        Operator operator = null;
+        for (Operator candidate : Operator.values()) {
+            if (expression.startsWith(candidate.symbol, at)) {
+                operator = candidate;
+                break;
+            }
+        }
+        if (operator == null) {
+            throw new IllegalArgumentException("unknown operator in " + expression);
+        }
+        String text = expression.substring(at + operator.symbol.length());
+        if (field != Field.AGE && operator != Operator.EQUAL && operator != Operator.NOT_EQUAL) {
+            throw new IllegalArgumentException(field.getName() + " can only be compared with = or != in " + expression);
+        }
+        return new Condition(field, operator, parseValue(field, text, expression));
+    }
+
+    private static Object parseValue(Field field, String text, String expression) {
+        switch (field) {
+        case AGE:
+            try {
+                return Integer.parseInt(text.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("age must be a whole number in " + expression, e);
+            }
+        case GENDER:
+            for (Gender gender : Gender.values()) {
+                if (gender.name().equalsIgnoreCase(text.trim())) {
+                    return gender;
+                }
+            }
+            throw new IllegalArgumentException("unknown gender in " + expression);
+        default:
+            if (text.isEmpty()) {
+                throw new IllegalArgumentException("missing value in " + expression);
+            }
+            return text;
+        }
+    }
+
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    public Field getSortField() {
+        return sortField;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public UUID getAfter() {
+        return after;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public boolean matches(User user) {
+        for (Condition condition : conditions) {
+            if (!condition.matches(user)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the value email has to be equal to, if there is such a condition
+    public Optional<String> emailEquals() {
+        return equalTo(Field.EMAIL).map(String.class::cast);
+    }
+
+    public Optional<Gender> genderEquals() {
+        return equalTo(Field.GENDER).map(Gender.class::cast);
+    }
+
+    // the ages allowed by the age conditions as [from, to), or empty when there
+    // are none. != does not narrow the range and is left to matches
+    public Optional<int[]> ageRange() {
+        long from = Integer.MIN_VALUE;
+        long to = (long) Integer.MAX_VALUE + 1;
+        boolean any = false;
+        for (Condition condition : conditions) {
+            if (condition.field != Field.AGE || condition.operator == Operator.NOT_EQUAL) {
+                continue;
+            }
+            any = true;
+            long age = (Integer) condition.value;
+            switch (condition.operator) {
+            case EQUAL:
+                from = Math.max(from, age);
+                to = Math.min(to, age + 1);
+                break;
+            case GREATER:
+                from = Math.max(from, age + 1);
+                break;
+            case GREATER_OR_EQUAL:
+                from = Math.max(from, age);
+                break;
+            case LESS:
+                to = Math.min(to, age);
+                break;
+            default:
+                to = Math.min(to, age + 1);
+            }
+        }
+        if (!any) {
+            return Optional.empty();
+        }
+        // clamped so the bounds fit an int, an empty range stays empty
+        int clampedFrom = (int) Math.min(from, Integer.MAX_VALUE);
+        int clampedTo = (int) Math.max(Math.min(to, Integer.MAX_VALUE), Integer.MIN_VALUE);
+        return Optional.of(new int[] { clampedFrom, Math.max(clampedFrom, clampedTo) });
+    }
+
+    // orders, pages and limits users that already match, the last step of
+    // every selectUsers
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public List<User> finish(Stream<User> matching) {
+        Comparator<User> order = Comparator.comparing(User::getUserUid);
+        if (sortField != null) {
+            // missing values go last either way, so only the values are reversed
+            Comparator<Comparable> values = descending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+            order = Comparator.<User, Comparable>comparing(user -> comparable(valueOf(user, sortField)),
+                    Comparator.nullsLast(values)).thenComparing(order);
+        }
+        if (after != null) {
+            matching = matching.filter(user -> user.getUserUid().compareTo(after) > 0);
+        }
+        // a page of a larger result keeps only the limit first users in a heap
+        // instead of sorting everything that matched
+        Iterator<User> users = matching.iterator();
+        List<User> page = new ArrayList<>(Math.min(limit, 1024));
+        while (page.size() < limit && users.hasNext()) {
+            page.add(users.next());
+        }
+        if (users.hasNext()) {
+            PriorityQueue<User> first = new PriorityQueue<>(limit, order.reversed());
+            first.addAll(page);
+            while (users.hasNext()) {
+                User user = users.next();
+                if (order.compare(user, first.peek()) < 0) {
+                    first.poll();
+                    first.add(user);
+                }
+            }
+            page = new ArrayList<>(first);
+        }
+        page.sort(order);
+        return page;
+    }
+
+    // without a sort field a walk over the users in userUid order can stop once
+    // it has limit matches
+    public boolean isOrderedByUserUid() {
+        return sortField == null;
+    }
+
+    @Override
+    public String toString() {
+        return conditions.stream().map(Condition::toString).collect(Collectors.joining("&"));
+    }
+
+    private static Object valueOf(User user, Field field) {
+        switch (field) {
+        case FIRST_NAME:
+            return user.getFirstName();
+        case LAST_NAME:
+            return user.getLastName();
+        case EMAIL:
+            return user.getEmail();
+        case GENDER:
+            return user.getGender();
+        default:
+            return user.getAge();
+        }
+    }
+
+    // strings sort ignoring case like they compare
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Comparable comparable(Object value) {
+        return value instanceof String ? ((String) value).toLowerCase(Locale.ROOT) : (Comparable) value;
+    }
+
+    private Optional<Object> equalTo(Field field) {
+        return conditions.stream().filter(condition -> condition.field == field && condition.operator == Operator.EQUAL)
+                .map(Condition::getValue).findFirst();
+    }
+}
@@ -0,0 +1,67 @@
+package springbootfinal.dao;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// How a dao answers a UserQuery, what UserDao.explain returns. access is the
+// index or scan the candidates come from, indexCondition the part of the
+// query it answers and estimatedRows how many candidates it is expected to
+// yield. every candidate is then checked against the whole filter, which also
+// catches an index that is a write behind.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserQueryPlan {
+
+    private final String access;
+    private final String indexCondition;
+    private final long estimatedRows;
+    private final long totalRows;
+    private final List<String> filter;
+    private final String sort;
+    private final int limit;
+
+    public UserQueryPlan(String access, String indexCondition, long estimatedRows, long totalRows, UserQuery query) {
+        this.access = access;
+        this.indexCondition = indexCondition;
+        this.estimatedRows = estimatedRows;
+        this.totalRows = totalRows;
+        this.filter = query.getConditions().stream().map(UserQuery.Condition::toString).collect(Collectors.toList());
+        this.sort = query.getSortField() == null ? null
+                : (query.isDescending() ? "-" : "") + query.getSortField().getName();
+        this.limit = query.getLimit();
+    }
+
+    // every user is looked at
+    static UserQueryPlan scan(UserQuery query, long totalRows) {
+        return new UserQueryPlan("full-scan", null, totalRows, totalRows, query);
+    }
+
+    public String getAccess() {
+        return access;
+    }
+
+    public String getIndexCondition() {
+        return indexCondition;
+    }
+
+    public long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    public List<String> getFilter() {
+        return filter;
+    }
+
+    public String getSort() {
+        return sort;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,208 @@
+package springbootfinal.dao;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import springbootfinal.model.User;
+
+// Prefix search over users, the searchUsers of UserDao.
+// The words of a user are the whitespace separated words of its firstName and
+// lastName plus its whole email, all lower case. A query is split into words
+// the same way and a user matches when every query word is the start of one of
+// its words, so "ann mon" finds Anna Montana and "anna.m" finds
+// anna.montana@gmail.com.
+//
+// The index is one sorted set of (word, userUid) entries. The users starting
+// with a prefix are a contiguous range of it that is walked in order, so a
+// query costs a seek plus one step per user it looks at, however many users
+// there are. Like UserIndexes it is updated by the owner under the user's lock
+// and read without locking, so users found through it have to be checked
+// against the query again.
+class UserSearchIndex {
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+    // the size of a skip list is a full walk, too slow for every metrics scrape
+    private final AtomicInteger size = new AtomicInteger();
+
+    // moves the words of a user from previous (null on insert) to current (null
+    // on delete), words that both have are left alone
+    void update(User previous, User current) {
+        Set<String> before = previous == null ? Collections.emptySet() : words(previous);
+        Set<String> after = current == null ? Collections.emptySet() : words(current);
+        UUID userUid = previous != null ? previous.getUserUid() : current.getUserUid();
+        for (String word : before) {
+            if (!after.contains(word) && entries.remove(new Entry(word, userUid))) {
+                size.decrementAndGet();
+            }
+        }
+        for (String word : after) {
+            if (!before.contains(word) && entries.add(new Entry(word, userUid))) {
+                size.incrementAndGet();
+            }
+        }
+    }
+
+    // the userUids with a word starting with prefix, each once, ordered by the
+    // first of their words that does and then by userUid. read lazily, so
+    // stopping early costs nothing for the users after
+    Iterator<UUID> startingWith(String prefix) {
+        Iterator<Entry> range = entries.tailSet(new Entry(prefix, null)).iterator();
+        return new Iterator<UUID>() {
+
+            // a user with two words in the range is only returned for the first
+            private final Set<UUID> seen = new HashSet<>();
+            private UUID next;
+            private boolean pastRange;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !pastRange && range.hasNext()) {
+                    Entry entry = range.next();
+                    if (!entry.word.startsWith(prefix)) {
+                        pastRange = true;
+                    } else if (seen.add(entry.userUid)) {
+                        next = entry.userUid;
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public UUID next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                UUID userUid = next;
+                next = null;
+                return userUid;
+            }
+        };
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    // the words of a query, empty when there is nothing to search for
+    static List<String> queryWords(String query) {
+        List<String> words = new ArrayList<>();
+        String lowerCase = query.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean separator = i == lowerCase.length() || Character.isWhitespace(lowerCase.charAt(i));
+            if (separator && start >= 0) {
+                words.add(lowerCase.substring(start, i));
+                start = -1;
+            } else if (!separator && start < 0) {
+                start = i;
+            }
+        }
+        return words;
+    }
+
+    // the query word whose range is walked, the longest one as it is likely to
+    // match the fewest users. the others are checked on each user found
+    static String leadingWord(List<String> queryWords) {
+        return Collections.max(queryWords, Comparator.comparingInt(String::length));
+    }
+
+    // done for every user a search looks at, so it works on the fields as they
+    // are instead of building the set of words
+    static boolean matches(User user, List<String> queryWords) {
+        String firstName = lowerCase(user.getFirstName());
+        String lastName = lowerCase(user.getLastName());
+        String email = lowerCase(user.getEmail());
+        for (String queryWord : queryWords) {
+            if (!hasWordStartingWith(firstName, queryWord) && !hasWordStartingWith(lastName, queryWord)
+                    && (email == null || !email.startsWith(queryWord))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // the order startingWith returns users in, for daos that search without
+    // the index
+    static Comparator<User> order(String leadingWord) {
+        return Comparator.<User, String>comparing(user -> orderKey(user, leadingWord),
+                Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(User::getUserUid);
+    }
+
+    // what order compares first: the first word of the user starting with
+    // leadingWord. for merging results without building the words on every
+    // comparison
+    static String orderKey(User user, String leadingWord) {
+        return firstWordStartingWith(words(user), leadingWord);
+    }
+
+    static Set<String> words(User user) {
+        Set<String> words = new HashSet<>();
+        addNameWords(words, user.getFirstName());
+        addNameWords(words, user.getLastName());
+        if (user.getEmail() != null && !user.getEmail().isEmpty()) {
+            words.add(user.getEmail().toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+
+    private static void addNameWords(Set<String> words, String name) {
+        if (name != null) {
+            words.addAll(queryWords(name));
+        }
+    }
+
+    private static String lowerCase(String text) {
+        // toLowerCase hands back the same string when there is nothing to change
+        return text == null ? null : text.toLowerCase(Locale.ROOT);
+    }
+
+    // whether one of the whitespace separated words of text starts with prefix
+    private static boolean hasWordStartingWith(String text, String prefix) {
+        if (text == null) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            boolean wordStart = !Character.isWhitespace(text.charAt(i))
+                    && (i == 0 || Character.isWhitespace(text.charAt(i - 1)));
+            if (wordStart && text.startsWith(prefix, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String firstWordStartingWith(Set<String> words, String prefix) {
+        String first = null;
+        for (String word : words) {
+            if (word.startsWith(prefix) && (first == null || word.compareTo(first) < 0)) {
+                first = word;
+            }
+        }
+        return first;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+
+        final String word;
+        // null sorts before every userUid, to seek to the start of a word
+        final UUID userUid;
+
+        Entry(String word, UUID userUid) {
+            this.word = word;
+            this.userUid = userUid;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byWord = word.compareTo(other.word);
+            if (byWord != 0) {
+                return byWord;
+            }
+            if (userUid == null || other.userUid == null) {
+                return userUid == other.userUid ? 0 : userUid == null ? -1 : 1;
+            }
+            return userUid.compareTo(other.userUid);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package springbootfinal.dao;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Repository;
+
+import springbootfinal.model.User;
+
+// ConcurrentDataDao that survives a restart.
+// Every applied write is appended to a WriteAheadLog from the change listener,
+// so the log holds the writes of each user in the order they were applied. The
+// record of a write is encoded before the write is applied, so a user the log
+// cannot take is refused without changing anything.
+// With user.wal.fsync=always a write only returns once its record is on disk
+// (concurrent writers share one fsync). With user.wal.fsync=interval a write
+// returns as soon as the record is buffered and a background thread forces
+// the log every user.wal.fsync-interval-ms, so a crash can lose at most that
+// window of writes.
+//
+// Once the current log generation is larger than user.wal.snapshot-after-bytes
+// a compacted snapshot of all users is written and the older generations are
+// deleted. On startup the newest snapshot is loaded and the logs written after
+// it are replayed.
+@Repository
+@ConditionalOnProperty(name = "user.dao", havingValue = "wal")
+public class WalDataDao extends ConcurrentDataDao implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WalDataDao.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x55534e50;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final Path directory;
+    private final boolean fsyncEveryWrite;
+    private final long snapshotAfterBytes;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService background;
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean(false);
+    // the record of the write this thread is making, see prepareWrite
+    private final ThreadLocal<byte[]> preparedRecord = new ThreadLocal<>();
+
+    @Autowired
+    public WalDataDao(@Value("${user.wal.directory:data/wal}") String directory,
+            @Value("${user.wal.fsync:interval}") String fsync,
+            @Value("${user.wal.fsync-interval-ms:5}") long fsyncIntervalMs,
+            @Value("${user.wal.snapshot-after-bytes:67108864}") long snapshotAfterBytes) throws IOException {
+        super(DEFAULT_STRIPES);
+        if (!fsync.equals("always") && !fsync.equals("interval")) {
+            throw new IllegalArgumentException("user.wal.fsync must be always or interval but was " + fsync);
+        }
+        this.directory = Paths.get(directory);
+        this.fsyncEveryWrite = fsync.equals("always");
+        this.snapshotAfterBytes = snapshotAfterBytes;
+
+        long nextGeneration = recover();
+        log = new WriteAheadLog(this.directory, nextGeneration);
+        // only added after recovery so that replaying does not log everything again.
+        // appending to the buffer cannot fail, so the listeners after this one
+        // always hear of the write as well
+        addChangeListener((userUid, previous, current) -> {
+            byte[] record = preparedRecord.get();
+            preparedRecord.remove();
+            if (record == null) {
+                record = current == null ? WriteAheadLog.deleteRecord(userUid) : WriteAheadLog.putRecord(current);
+            }
+            log.append(record);
+        });
+
+        // one thread flushes, the other writes snapshots so a long snapshot
+        // never holds up the flushes
+        background = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "user-wal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        background.scheduleWithFixedDelay(this::flushInBackground, fsyncIntervalMs, fsyncIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int updateUser(User user) {
+        return durable(super.updateUser(user));
+    }
+
+    @Override
+    public int deleteUserByUserUid(UUID userUid) {
+        return durable(super.deleteUserByUserUid(userUid));
+    }
+
+    @Override
+    public int insertUser(UUID userUid, User user) {
+        return durable(super.insertUser(userUid, user));
+    }
+
+    @Override
+    public WriteOutcome insertIfAbsent(User user) {
+        return durable(super.insertIfAbsent(user));
+    }
+
+    @Override
+    public WriteOutcome updateIfPresent(User user) {
+        return durable(super.updateIfPresent(user));
+    }
+
+    @Override
+    public WriteOutcome compareAndSet(User user, long expectedVersion) {
+        return durable(super.compareAndSet(user, expectedVersion));
+    }
+
+    @Override
+    public WriteOutcome deleteIfPresent(UUID userUid) {
+        return durable(super.deleteIfPresent(userUid));
+    }
+
+    @Override
+    public WriteOutcome compareAndDelete(UUID userUid, long expectedVersion) {
+        return durable(super.compareAndDelete(userUid, expectedVersion));
+    }
+
+    @Override
+    public WriteOutcome putReplicated(User user) {
+        return durable(super.putReplicated(user));
+    }
+
+    @Override
+    public WriteOutcome[] insertUsersIfAbsent(List<User> users) {
+        return durable(super.insertUsersIfAbsent(users));
+    }
+
+    @Override
+    public WriteOutcome[] updateUsersIfPresent(List<User> users) {
+        return durable(super.updateUsersIfPresent(users));
+    }
+
+    @Override
+    public WriteOutcome[] deleteUsersIfPresent(List<UUID> userUids) {
+        return durable(super.deleteUsersIfPresent(userUids));
+    }
+
+    // encodes the record before the write changes anything, so a user the log
+    // cannot take, or any write once the log failed, fails instead of being
+    // applied but never logged
+    @Override
+    void prepareWrite(UUID userUid, User user) {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.checkUsable();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        preparedRecord.set(user == null ? WriteAheadLog.deleteRecord(userUid) : WriteAheadLog.putRecord(user));
+    }
+
+    // writes a compacted snapshot of every user and drops the log generations it
+    // replaces
+    public void snapshot() throws IOException {
+        // the users are copied and the log switched to a new generation while no
+        // write can run, so the snapshot holds exactly the older generations
+        long[] generation = new long[1];
+        List<User> users = withAllStripesLocked(() -> {
+            try {
+                generation[0] = log.rotate();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return selectAllUsers();
+        });
+        writeSnapshot(generation[0], users);
+        for (long old : listSnapshots()) {
+            if (old < generation[0]) {
+                Files.deleteIfExists(snapshotFile(old));
+            }
+        }
+        log.deleteGenerationsBefore(generation[0]);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        background.shutdown();
+        try {
+            background.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+    }
+
+    private int durable(int result) {
+        awaitDurableIfNeeded();
+        return result;
+    }
+
+    private <T> T durable(T outcome) {
+        awaitDurableIfNeeded();
+        return outcome;
+    }
+
+    private void awaitDurableIfNeeded() {
+        if (!fsyncEveryWrite) {
+            return;
+        }
+        try {
+            log.awaitDurable(log.lastAppendedSequence());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flushInBackground() {
+        try {
+            log.flush();
+            if (log.generationBytes() > snapshotAfterBytes && snapshotRunning.compareAndSet(false, true)) {
+                background.execute(() -> {
+                    try {
+                        snapshot();
+                    } catch (IOException | RuntimeException e) {
+                        LOG.error("could not write user snapshot", e);
+                    } finally {
+                        snapshotRunning.set(false);
+                    }
+                });
+            }
+        } catch (IOException | RuntimeException e) {
+            // keep the flusher alive, the next run tries again
+            LOG.error("could not flush user write-ahead log", e);
+        }
+    }
+
+    // loads the newest snapshot and replays every log generation written after
+    // it, returns the generation the new log should start at
+    private long recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Long> snapshots = listSnapshots();
+        long snapshotGeneration = snapshots.isEmpty() ? 0 : snapshots.get(snapshots.size() - 1);
+        if (snapshotGeneration > 0) {
+            readSnapshot(snapshotGeneration);
+        }
+        long lastGeneration = snapshotGeneration;
+        for (long generation : WriteAheadLog.listGenerations(directory)) {
+            if (generation >= snapshotGeneration) {
+                WriteAheadLog.replay(WriteAheadLog.logFile(directory, generation), this::restoreUser);
+            }
+            lastGeneration = Math.max(lastGeneration, generation);
+        }
+        // always start a fresh file, the last one may end with a torn record
+        return lastGeneration + 1;
+    }
+
+    private void writeSnapshot(long generation, List<User> users) throws IOException {
+        Path temporary = directory.resolve(snapshotFile(generation).getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream raw = Channels.newOutputStream(channel);
+            CRC32 crc = new CRC32();
+            DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(new CheckedOutputStream(raw, crc), 64 * 1024));
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeLong(generation);
+            output.writeInt(users.size());
+            for (User user : users) {
+                UserCodec.writeUser(output, user);
+            }
+            output.flush();
+            new DataOutputStream(raw).writeLong(crc.getValue());
+            channel.force(true);
+        }
+        // readers only ever see a complete snapshot
+        Files.move(temporary, snapshotFile(generation), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readSnapshot(long generation) throws IOException {
+        Path file = snapshotFile(generation);
+        CRC32 crc = new CRC32();
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            DataInputStream input = new DataInputStream(new CheckedInputStream(raw, crc));
+            if (input.readInt() != SNAPSHOT_MAGIC || input.readLong() != generation) {
+                throw new IllegalStateException("not a user snapshot: " + file);
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                User user = UserCodec.readUser(input);
+                restoreUser(user.getUserUid(), user);
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(raw).readLong() != expected) {
+                throw new IllegalStateException("corrupt user snapshot: " + file);
+            }
+        }
+        LOG.info("loaded user snapshot {}", file);
+    }
+
+    private List<Long> listSnapshots() throws IOException {
+        List<Long> generations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+                SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                generations.add(Long.parseLong(
+                        name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    private Path snapshotFile(long generation) {
+        return directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+    }
+}
@@ -0,0 +1,302 @@
+package springbootfinal.dao;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import springbootfinal.model.User;
+
+// Append-only log of user writes, split into numbered generation files
+// (wal-<generation>.log) so old generations can be dropped once a snapshot
+// covers them.
+//
+// Appending only copies the record into an in-memory buffer. flush() writes
+// the buffer with a FileChannel and forces it to disk, covering every record
+// appended since the last flush with one fsync (group commit). Whoever needs
+// a record to be durable calls awaitDurable, and concurrent callers queue
+// behind a single flush instead of doing one fsync each.
+//
+// Every record is [int length][int crc32][payload] so that a torn write at the
+// end of a file is detected and ignored on recovery.
+class WriteAheadLog implements Closeable {
+
+    static final byte PUT = 1;
+    static final byte DELETE = 2;
+
+    // users are tiny, anything longer than this is a corrupt length field
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path directory;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    // guarded by appendLock
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private long appendedSequence;
+    // guarded by flushLock, holds a batch that failed to write until it is
+    // written in front of everything appended after it
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream(64 * 1024);
+    private FileChannel channel;
+    private long generation;
+    private volatile long generationBytes;
+
+    private volatile long durableSequence;
+    // set when a failed batch could not be cut off the file again, nothing
+    // appended after it could be replayed any more
+    private volatile IOException failure;
+
+    WriteAheadLog(Path directory, long generation) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        openGeneration(generation);
+    }
+
+    // returns the sequence number of the record, pass it to awaitDurable
+    long appendPut(User user) {
+        return append(putRecord(user));
+    }
+
+    long appendDelete(UUID userUid) {
+        return append(deleteRecord(userUid));
+    }
+
+    // the record of a put, to be appended later. throws when the user cannot be
+    // logged, so a caller that encodes it before applying the write never
+    // applies a write the log does not have
+    static byte[] putRecord(User user) {
+        return record(PUT, output -> UserCodec.writeUser(output, user));
+    }
+
+    static byte[] deleteRecord(UUID userUid) {
+        return record(DELETE, output -> UserCodec.writeUserUid(output, userUid));
+    }
+
+    long lastAppendedSequence() {
+        appendLock.lock();
+        try {
+            return appendedSequence;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // blocks until every record up to and including sequence is on disk
+    void awaitDurable(long sequence) throws IOException {
+        while (durableSequence < sequence) {
+            flush();
+        }
+    }
+
+    // writes and forces everything appended so far. when that fails the file
+    // is cut back to where the batch started and the batch stays in front of
+    // the later appends, so the next flush writes the records in their order
+    void flush() throws IOException {
+        flushLock.lock();
+        try {
+            checkUsable();
+            long sequence;
+            appendLock.lock();
+            try {
+                if (pending.size() == 0 && spare.size() == 0) {
+                    return;
+                }
+                if (spare.size() == 0) {
+                    // swap the buffers so appends carry on while this one is written
+                    ByteArrayOutputStream toWrite = pending;
+                    pending = spare;
+                    spare = toWrite;
+                } else {
+                    pending.writeTo(spare);
+                    pending.reset();
+                }
+                sequence = appendedSequence;
+            } finally {
+                appendLock.unlock();
+            }
+            long start = -1;
+            try {
+                start = channel.size();
+                spare.writeTo(Channels.newOutputStream(channel));
+                channel.force(false);
+            } catch (IOException e) {
+                truncateAfterFailure(start, e);
+                throw e;
+            }
+            generationBytes += spare.size();
+            spare.reset();
+            durableSequence = sequence;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    // throws once the log failed for good, WalDataDao checks it before applying
+    // a write so that no write is applied that cannot be logged
+    void checkUsable() throws IOException {
+        if (failure != null) {
+            throw new IOException("the write-ahead log failed and takes no more writes", failure);
+        }
+    }
+
+    // makes everything so far durable and starts a new generation file. the
+    // caller must make sure nothing is appended while this runs. returns the new
+    // generation, a snapshot taken at this point belongs to it
+    long rotate() throws IOException {
+        flushLock.lock();
+        try {
+            flush();
+            channel.close();
+            openGeneration(generation + 1);
+            return generation;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    long generationBytes() {
+        return generationBytes;
+    }
+
+    // removes the log files of every generation before the given one
+    void deleteGenerationsBefore(long keepFrom) throws IOException {
+        for (long old : listGenerations(directory)) {
+            if (old < keepFrom) {
+                Files.deleteIfExists(logFile(directory, old));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+    long append(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        appendLock.lock();
+        try {
+            DataOutputStream frame = new DataOutputStream(pending);
+            frame.writeInt(bytes.length);
+            frame.writeInt((int) crc.getValue());
+            frame.write(bytes);
+            return ++appendedSequence;
+        } catch (IOException e) {
+            // cannot happen, pending is a byte array
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // start is -1 when not even the size of the file could be read
+    private void truncateAfterFailure(long start, IOException cause) {
+        if (start < 0) {
+            failure = cause;
+            return;
+        }
+        try {
+            channel.truncate(start);
+            channel.force(false);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            failure = cause;
+        }
+    }
+
+    private static byte[] record(byte type, RecordBody body) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+        DataOutputStream output = new DataOutputStream(payload);
+        try {
+            output.writeByte(type);
+            body.write(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // replay stops at a longer record, taking every record after it along
+        if (payload.size() > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("a user record of " + payload.size() + " bytes is longer than the "
+                    + MAX_RECORD_BYTES + " bytes the log takes");
+        }
+        return payload.toByteArray();
+    }
+
+    private void openGeneration(long newGeneration) throws IOException {
+        generation = newGeneration;
+        channel = FileChannel.open(logFile(directory, newGeneration), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        generationBytes = channel.size();
+    }
+
+    static Path logFile(Path directory, long generation) {
+        return directory.resolve(String.format("%s%020d%s", LOG_PREFIX, generation, LOG_SUFFIX));
+    }
+
+    static List<Long> listGenerations(Path directory) throws IOException {
+        List<Long> generations = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return generations;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                generations.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+
+    // reads every intact record of one generation file, stopping quietly at the
+    // first torn or corrupt record since that can only be the unflushed tail
+    static void replay(Path file, ReplayHandler handler) throws IOException {
+        try (DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ))))) {
+            while (true) {
+                byte[] bytes;
+                int expectedCrc;
+                try {
+                    int length = input.readInt();
+                    expectedCrc = input.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        return;
+                    }
+                    bytes = new byte[length];
+                    input.readFully(bytes);
+                } catch (EOFException e) {
+                    return;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != expectedCrc) {
+                    return;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = record.readByte();
+                if (type == PUT) {
+                    User user = UserCodec.readUser(record);
+                    handler.apply(user.getUserUid(), user);
+                } else if (type == DELETE) {
+                    handler.apply(UserCodec.readUserUid(record), null);
+                }
+            }
+        }
+    }
+
+    private interface RecordBody {
+        void write(DataOutput output) throws IOException;
+    }
+
+    interface ReplayHandler {
+        // user is null for a delete
+        void apply(UUID userUid, User user);
+    }
+}
@@ -0,0 +1,17 @@
+package springbootfinal.dao;
+
+// what a conditional write in UserDao did. only APPLIED changed anything
+public enum WriteOutcome {
+    APPLIED,
+    // update, delete or compare-and-set of a userUid that has no user
+    NOT_FOUND,
+    // insert of a userUid that already has a user
+    ALREADY_EXISTS,
+    // the email belongs to another user
+    EMAIL_TAKEN,
+    // compare-and-set found another version than the expected one
+    VERSION_CONFLICT,
+    // never got to the dao, UserService refuses a write without a userUid or
+    // with a string longer than it takes
+    INVALID
+}
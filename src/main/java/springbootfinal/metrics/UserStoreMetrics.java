@@ -0,0 +1,64 @@
+package springbootfinal.metrics;
+
+import java.util.*;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.dao.UserDao;
+import springbootfinal.service.UserService;
+
+// Gauges for the size of the user store and of each of its secondary indexes,
+// the counters of the getUser cache and of the reads UserService coalesces. Everything is read when the registry
+// is scraped, nothing is added to the request path.
+@Component
+public class UserStoreMetrics implements MeterBinder {
+
+    private final UserDao userDao;
+    private final UserService userService;
+
+    @Autowired
+    public UserStoreMetrics(UserDao userDao, UserService userService) {
+        this.userDao = userDao;
+        this.userService = userService;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("user.store.size", userDao, UserDao::countUsers).description("users in the store")
+                .register(registry);
+        // the index names of a dao never change, so they are read once here
+        for (String index : userDao.indexSizes().keySet()) {
+            Gauge.builder("user.index.size", userDao, dao -> dao.indexSizes().getOrDefault(index, 0))
+                    .tag("index", index).description("entries in a secondary index").register(registry);
+        }
+
+        FunctionCounter.builder("user.cache.requests", userService, service -> service.getCacheStats().getHits())
+                .tag("result", "hit").register(registry);
+        FunctionCounter.builder("user.cache.requests", userService, service -> service.getCacheStats().getMisses())
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("user.cache.evictions", userService, service -> service.getCacheStats().getEvictions())
+                .register(registry);
+        Gauge.builder("user.cache.size", userService, service -> service.getCacheStats().getSize()).register(registry);
+
+        // calls that ran the read and calls that waited for another one's
+        // result, the coalescing ratio over any window is coalesced / both
+        for (String operation : userService.getSingleFlightStats().keySet()) {
+            FunctionCounter.builder("user.single-flight.calls", userService,
+                    service -> service.getSingleFlightStats().get(operation).getExecutions())
+                    .tag("operation", operation).tag("result", "executed").register(registry);
+            FunctionCounter.builder("user.single-flight.calls", userService,
+                    service -> service.getSingleFlightStats().get(operation).getCoalesced())
+                    .tag("operation", operation).tag("result", "coalesced").register(registry);
+            Gauge.builder("user.single-flight.coalescing.ratio", userService,
+                    service -> service.getSingleFlightStats().get(operation).getCoalescingRatio())
+                    .tag("operation", operation).description("share of calls since start that were coalesced")
+                    .register(registry);
+        }
+    }
+}
@@ -19,6 +19,9 @@ public class User {
     private final Gender gender;
     private final Integer age;
     private final String email;
+    // set by the dao on every write, starting at 1, so a client can update a user
+    // only if nobody changed it since it was read
+    private long version;
 
     public User(UUID userUid, String firstName, String lastName, Gender gender, Integer age, String email) {
         this.userUid = userUid;
@@ -61,6 +64,15 @@ public class User {
         return this.email;
     }
 
+    @JsonIgnore
+    public long getVersion() {
+        return this.version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public LocalDate getDateOfBirth() {
         // getting the current localdate
         return LocalDate.now().minusYears(age);
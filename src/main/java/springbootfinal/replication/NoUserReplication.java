@@ -0,0 +1,41 @@
+package springbootfinal.replication;
+
+import java.net.URI;
+import java.util.Optional;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// an instance on its own: takes writes and has nobody to wait for
+@Component
+@ConditionalOnProperty(name = "user.replication.role", havingValue = "none", matchIfMissing = true)
+public class NoUserReplication implements UserReplication {
+
+    // versions are not persisted and count again from the restored state
+    // after a restart
+    private final String versionEpoch = Long.toString(System.currentTimeMillis(), 36);
+
+    @Override
+    public boolean acceptsWrites() {
+        return true;
+    }
+
+    @Override
+    public Optional<URI> leaderUrl() {
+        return Optional.empty();
+    }
+
+    @Override
+    public void awaitReplicated() {
+    }
+
+    @Override
+    public ReplicationStatus status() {
+        return ReplicationStatus.none();
+    }
+
+    @Override
+    public String versionEpoch() {
+        return versionEpoch;
+    }
+}
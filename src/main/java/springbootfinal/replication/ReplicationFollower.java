@@ -0,0 +1,267 @@
+package springbootfinal.replication;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.dao.UserChange;
+import springbootfinal.dao.UserCodec;
+import springbootfinal.dao.UserDao;
+import springbootfinal.dao.WriteOutcome;
+import springbootfinal.model.User;
+import springbootfinal.service.UserCache;
+
+// Keeps the local user store a copy of the leader's at user.replication.leader
+// (host:port of its replication port), so reads are answered here. Writes are
+// refused by UserReplicationFilter, or sent to user.replication.leader-url.
+//
+// One thread connects, says hello with the epoch and sequence applied so far
+// and applies whatever the leader sends in order, acknowledging after every
+// read from the socket. When the connection drops it connects again after
+// reconnect-ms and carries on from the same sequence, so a short outage costs
+// only the changes missed. A follower that starts empty, or that the leader
+// cannot resume (another leader process, or too far behind for its change log),
+// is sent every user again.
+//
+// The store only changes through this thread, the leader applied the same
+// writes in the same order, so they succeed here too. Users are written with
+// the leader's versions, so once a follower has copied all users of a leader
+// it hands out the leader's version epoch and ETags work across both. Until
+// then, and while it copies the users of another leader, its epoch is one of
+// its own that no other instance has. The exception is a copy
+// of all users, read while the leader kept writing: a user can arrive with an
+// email that another user here still holds, in which case that one is removed
+// first since the changes after the copy remove it anyway.
+@Component
+@ConditionalOnProperty(name = "user.replication.role", havingValue = "follower")
+public class ReplicationFollower implements UserReplication, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationFollower.class);
+
+    private final UserDao userDao;
+    private final UserCache userCache;
+    private final String leader;
+    private final InetSocketAddress leaderAddress;
+    private final Optional<URI> leaderUrl;
+    private final long reconnectMillis;
+    private final Thread thread;
+    private volatile boolean closed;
+    private volatile SocketChannel channel;
+    private volatile boolean connected;
+
+    // written by the replication thread only
+    private volatile long epoch;
+    private volatile long next;
+    private volatile long snapshots;
+    private volatile String versionEpoch = localVersionEpoch();
+    private long snapshotEpoch;
+    private Set<UUID> snapshotUserUids;
+
+    @Autowired
+    public ReplicationFollower(UserDao userDao, UserCache userCache,
+            @Value("${user.replication.leader:127.0.0.1:7070}") String leader,
+            @Value("${user.replication.leader-url:}") String leaderUrl,
+            @Value("${user.replication.reconnect-ms:1000}") long reconnectMillis) {
+        int colon = leader.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("user.replication.leader must be host:port but was " + leader);
+        }
+        this.userDao = userDao;
+        this.userCache = userCache;
+        this.leader = leader;
+        this.leaderAddress = InetSocketAddress.createUnresolved(leader.substring(0, colon),
+                Integer.parseInt(leader.substring(colon + 1)));
+        this.leaderUrl = leaderUrl.isEmpty() ? Optional.empty() : Optional.of(URI.create(leaderUrl));
+        this.reconnectMillis = reconnectMillis;
+        thread = new Thread(this::run, "user-replication-follower");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public boolean acceptsWrites() {
+        return false;
+    }
+
+    @Override
+    public Optional<URI> leaderUrl() {
+        return leaderUrl;
+    }
+
+    @Override
+    public void awaitReplicated() {
+    }
+
+    @Override
+    public ReplicationStatus status() {
+        return ReplicationStatus.follower(leader, connected, epoch, next, snapshots);
+    }
+
+    @Override
+    public String versionEpoch() {
+        return versionEpoch;
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        disconnect();
+        thread.interrupt();
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // drops the connection, the follower connects again after reconnect-ms
+    void disconnect() throws IOException {
+        SocketChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            try (SocketChannel socket = SocketChannel.open()) {
+                channel = socket;
+                if (closed) {
+                    return;
+                }
+                socket.connect(new InetSocketAddress(leaderAddress.getHostString(), leaderAddress.getPort()));
+                socket.socket().setTcpNoDelay(true);
+                connected = true;
+                LOG.info("replicating from {} after sequence {}", leader, next);
+                write(socket, new ReplicationProtocol.Frames().hello(epoch, next).toBuffer());
+                follow(socket);
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    LOG.info("lost the replication leader {}: {}", leader, e.toString());
+                }
+            } finally {
+                connected = false;
+                channel = null;
+            }
+            try {
+                Thread.sleep(reconnectMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(SocketChannel socket) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+        while (true) {
+            if (socket.read(in) < 0) {
+                throw new EOFException("the leader closed the connection");
+            }
+            in.flip();
+            long applied = next;
+            DataInputStream frame;
+            while ((frame = ReplicationProtocol.nextFrame(in, ReplicationProtocol.MAX_FRAME_BYTES)) != null) {
+                apply(frame);
+            }
+            in.compact();
+            if (!in.hasRemaining()) {
+                // a frame larger than the buffer
+                in = ByteBuffer.allocate(in.capacity() * 2).put(in.flip());
+            }
+            if (next != applied) {
+                write(socket, new ReplicationProtocol.Frames().ack(next).toBuffer());
+            }
+        }
+    }
+
+    private void apply(DataInputStream frame) throws IOException {
+        byte type = frame.readByte();
+        switch (type) {
+        case ReplicationProtocol.CHANGE:
+            long sequence = frame.readLong();
+            UserChange.Type changeType = UserChange.Type.values()[frame.readByte()];
+            UUID userUid = UserCodec.readUserUid(frame);
+            if (changeType == UserChange.Type.DELETE) {
+                remove(userUid);
+            } else {
+                put(UserCodec.readVersionedUser(frame));
+            }
+            next = sequence + 1;
+            break;
+        case ReplicationProtocol.SNAPSHOT_START:
+            snapshotEpoch = frame.readLong();
+            frame.readLong();
+            snapshotUserUids = new HashSet<>();
+            if (snapshotEpoch != epoch) {
+                // users of both leaders are mixed up until the copy is done
+                versionEpoch = localVersionEpoch();
+            }
+            break;
+        case ReplicationProtocol.SNAPSHOT_USER:
+            User user = UserCodec.readVersionedUser(frame);
+            put(user);
+            snapshotUserUids.add(user.getUserUid());
+            break;
+        case ReplicationProtocol.SNAPSHOT_END:
+            // whatever the leader does not have is left over from before
+            List<UUID> leftOver = userDao.streamUsers().map(User::getUserUid)
+                    .filter(existing -> !snapshotUserUids.contains(existing)).collect(Collectors.toList());
+            leftOver.forEach(this::remove);
+            snapshotUserUids = null;
+            epoch = snapshotEpoch;
+            versionEpoch = Long.toUnsignedString(snapshotEpoch, 36);
+            next = frame.readLong();
+            snapshots++;
+            LOG.info("replicated all users from {}, following from sequence {}", leader, next);
+            break;
+        default:
+            throw new IOException("unexpected frame type " + type);
+        }
+    }
+
+    private void put(User user) {
+        WriteOutcome outcome = userDao.putReplicated(user);
+        if (outcome == WriteOutcome.EMAIL_TAKEN) {
+            userDao.selectUserByEmail(user.getEmail()).ifPresent(holder -> remove(holder.getUserUid()));
+            outcome = userDao.putReplicated(user);
+        }
+        if (outcome != WriteOutcome.APPLIED) {
+            throw new IllegalStateException("could not apply user " + user.getUserUid() + ": " + outcome);
+        }
+        userCache.invalidate(user.getUserUid());
+    }
+
+    private void remove(UUID userUid) {
+        userDao.deleteIfPresent(userUid);
+        userCache.invalidate(userUid);
+    }
+
+    // leader epochs are odd, so this never names the versions of a leader
+    private static String localVersionEpoch() {
+        return Long.toUnsignedString(ThreadLocalRandom.current().nextLong() & ~1L, 36);
+    }
+
+    private static void write(SocketChannel socket, ByteBuffer frames) throws IOException {
+        while (frames.hasRemaining()) {
+            socket.write(frames);
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package springbootfinal.replication;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.dao.UserChange;
+import springbootfinal.dao.UserChangeLog;
+import springbootfinal.dao.UserChangePage;
+import springbootfinal.dao.UserDao;
+import springbootfinal.model.User;
+
+// Streams every write to the user store to the followers connected on
+// user.replication.port, in the order of the UserChangeLog.
+//
+// One thread runs a selector over all follower connections. A follower says
+// hello with the epoch and sequence it has applied up to. When those are from
+// this process and still in the change log it gets the changes from there on,
+// otherwise every user first (read while writes go on, the changes from the
+// sequence taken before the read make up for what it missed) and then the
+// changes. Once a follower has everything, the change log's whenAvailable
+// wakes the selector for the next write, so an idle follower costs nothing.
+//
+// With user.replication.ack=sync a write request is only answered once
+// ack-replicas followers have applied it (see awaitReplicated). When it takes
+// longer than ack-timeout-ms, or fewer followers are connected, the request is
+// answered anyway: the write has been applied here and reaches the followers
+// later, like with ack=async.
+@Component
+@ConditionalOnProperty(name = "user.replication.role", havingValue = "leader")
+public class ReplicationLeader implements UserReplication, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicationLeader.class);
+
+    // changes read from the log at a time
+    private static final int BATCH_SIZE = 256;
+    // bytes of frames put together for a follower before they are written
+    private static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    // followers only send hello and ack frames
+    private static final int READ_BUFFER_BYTES = 256;
+
+    private final UserDao userDao;
+    private final UserChangeLog changeLog;
+    private final boolean syncAck;
+    private final int ackReplicas;
+    private final long ackTimeoutMillis;
+    // never 0, which a follower that has nothing sends, and odd so that it is
+    // never one of the version epochs a follower makes up for itself
+    private final long epoch = ThreadLocalRandom.current().nextLong() | 1;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    // run on the selector thread before it looks at the channels
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    // guarded by this
+    private final List<Follower> followers = new ArrayList<>();
+    private final NavigableMap<Long, CompletableFuture<Void>> ackWaiters = new TreeMap<>();
+    private long ackTimeouts;
+
+    @Autowired
+    public ReplicationLeader(UserDao userDao, UserChangeLog changeLog,
+            @Value("${user.replication.bind-address:127.0.0.1}") String bindAddress,
+            @Value("${user.replication.port:7070}") int port,
+            @Value("${user.replication.ack:async}") String ack,
+            @Value("${user.replication.ack-replicas:1}") int ackReplicas,
+            @Value("${user.replication.ack-timeout-ms:1000}") long ackTimeoutMillis) throws IOException {
+        if (!ack.equals("async") && !ack.equals("sync")) {
+            throw new IllegalArgumentException("user.replication.ack must be async or sync but was " + ack);
+        }
+        if (ackReplicas <= 0) {
+            throw new IllegalArgumentException("user.replication.ack-replicas must be positive but was " + ackReplicas);
+        }
+        this.userDao = userDao;
+        this.changeLog = changeLog;
+        this.syncAck = ack.equals("sync");
+        this.ackReplicas = ackReplicas;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(bindAddress, port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this::run, "user-replication-leader");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("replication leader listening on {}", server.getLocalAddress());
+    }
+
+    // the port followers connect to, the one picked by the system for port 0
+    public int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public boolean acceptsWrites() {
+        return true;
+    }
+
+    @Override
+    public Optional<URI> leaderUrl() {
+        return Optional.empty();
+    }
+
+    @Override
+    public void awaitReplicated() {
+        if (!syncAck) {
+            return;
+        }
+        long sequence = changeLog.nextSequence();
+        CompletableFuture<Void> replicated;
+        synchronized (this) {
+            long acked = replicatedSequence();
+            if (acked < 0 || acked >= sequence) {
+                return;
+            }
+            replicated = ackWaiters.computeIfAbsent(sequence, ignored -> new CompletableFuture<>());
+        }
+        try {
+            replicated.get(ackTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            synchronized (this) {
+                ackTimeouts++;
+                ackWaiters.remove(sequence, replicated);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // only ever completed normally
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public synchronized ReplicationStatus status() {
+        long sequence = changeLog.nextSequence();
+        List<ReplicationStatus.Follower> states = new ArrayList<>();
+        for (Follower follower : followers) {
+            if (follower.following) {
+                states.add(new ReplicationStatus.Follower(follower.address, follower.acked,
+                        Math.max(0, sequence - follower.acked)));
+            }
+        }
+        return ReplicationStatus.leader(epoch, sequence, states, ackTimeouts);
+    }
+
+    // a new leader process starts a new epoch, its followers take it over
+    @Override
+    public String versionEpoch() {
+        return Long.toUnsignedString(epoch, 36);
+    }
+
+    @PreDestroy
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Follower follower = (Follower) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            follower.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            follower.write();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOG.info("replication follower {} dropped: {}", follower.address, e.toString());
+                        drop(follower);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("replication leader stopped", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Follower) {
+                    drop((Follower) key.attachment());
+                }
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // nothing left to serve either way
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Follower follower = new Follower(channel, channel.getRemoteAddress().toString());
+        follower.key = channel.register(selector, SelectionKey.OP_READ, follower);
+        synchronized (this) {
+            followers.add(follower);
+        }
+    }
+
+    private void drop(Follower follower) {
+        if (follower.changed != null) {
+            follower.changed.cancel(false);
+        }
+        try {
+            follower.channel.close();
+        } catch (IOException e) {
+            // it is gone either way
+        }
+        synchronized (this) {
+            followers.remove(follower);
+        }
+    }
+
+    // the sequence that ackReplicas followers have applied every change before,
+    // -1 when fewer than that many are connected
+    private long replicatedSequence() {
+        long[] acked = followers.stream().filter(follower -> follower.following)
+                .mapToLong(follower -> follower.acked).sorted().toArray();
+        return acked.length < ackReplicas ? -1 : acked[acked.length - ackReplicas];
+    }
+
+    private synchronized void acked(Follower follower, long sequence) {
+        follower.acked = Math.max(follower.acked, sequence);
+        long replicated = replicatedSequence();
+        if (replicated < 0) {
+            return;
+        }
+        Map<Long, CompletableFuture<Void>> done = ackWaiters.headMap(replicated, true);
+        done.values().forEach(waiter -> waiter.complete(null));
+        done.clear();
+    }
+
+    // state of one connection, only touched on the selector thread apart from
+    // the fields guarded by the leader
+    private final class Follower {
+
+        private final SocketChannel channel;
+        private final String address;
+        private final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private SelectionKey key;
+        private ByteBuffer out;
+        // the next change to send
+        private long next;
+        private boolean snapshotNeeded;
+        // the users still to send and the sequence the changes continue from
+        private Iterator<User> snapshot;
+        private long snapshotFrom;
+        // completes when the change log has the next change
+        private CompletableFuture<Void> changed;
+        // guarded by the leader
+        private boolean following;
+        private long acked;
+
+        Follower(SocketChannel channel, String address) {
+            this.channel = channel;
+            this.address = address;
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                throw new EOFException("connection closed");
+            }
+            in.flip();
+            DataInputStream frame;
+            while ((frame = ReplicationProtocol.nextFrame(in, READ_BUFFER_BYTES - Integer.BYTES)) != null) {
+                byte type = frame.readByte();
+                switch (type) {
+                case ReplicationProtocol.HELLO:
+                    hello(frame.readLong(), frame.readLong());
+                    break;
+                case ReplicationProtocol.ACK:
+                    acked(this, frame.readLong());
+                    break;
+                default:
+                    throw new IOException("unexpected frame type " + type);
+                }
+            }
+            in.compact();
+        }
+
+        private void hello(long followerEpoch, long sequence) {
+            boolean resumes = followerEpoch == epoch && changeLog.read(sequence, 0).isPresent();
+            next = sequence;
+            snapshotNeeded = !resumes;
+            synchronized (ReplicationLeader.this) {
+                following = true;
+                acked = resumes ? sequence : 0;
+            }
+            LOG.info("replication follower {} {}", address, resumes ? "resumes from " + sequence : "needs a snapshot");
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        // writes one buffer of frames per call so that a follower that can take
+        // a lot does not keep the others waiting
+        void write() throws IOException {
+            if (out == null || !out.hasRemaining()) {
+                out = fill();
+                if (out == null) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+            channel.write(out);
+        }
+
+        // the next frames to send, null when the follower has everything
+        private ByteBuffer fill() {
+            if (!following()) {
+                return null;
+            }
+            ReplicationProtocol.Frames frames = new ReplicationProtocol.Frames();
+            while (frames.size() < WRITE_BUFFER_BYTES) {
+                if (snapshotNeeded) {
+                    snapshotNeeded = false;
+                    snapshotFrom = changeLog.nextSequence();
+                    snapshot = userDao.streamUsers().iterator();
+                    frames.snapshotStart(epoch, snapshotFrom);
+                } else if (snapshot != null) {
+                    if (snapshot.hasNext()) {
+                        frames.snapshotUser(snapshot.next());
+                    } else {
+                        frames.snapshotEnd(snapshotFrom);
+                        snapshot = null;
+                        next = snapshotFrom;
+                    }
+                } else {
+                    Optional<UserChangePage> page = changeLog.read(next, BATCH_SIZE);
+                    if (!page.isPresent()) {
+                        // fell out of the log, during a snapshot as well when the
+                        // writes outpaced it
+                        snapshotNeeded = true;
+                        continue;
+                    }
+                    if (page.get().getChanges().isEmpty()) {
+                        awaitChange();
+                        break;
+                    }
+                    for (UserChange change : page.get().getChanges()) {
+                        frames.change(change);
+                    }
+                    next = page.get().getNext();
+                }
+            }
+            return frames.size() == 0 ? null : frames.toBuffer();
+        }
+
+        private boolean following() {
+            synchronized (ReplicationLeader.this) {
+                return following;
+            }
+        }
+
+        private void awaitChange() {
+            if (changed != null && !changed.isDone()) {
+                return;
+            }
+            changed = changeLog.whenAvailable(next);
+            changed.thenRun(() -> {
+                tasks.add(() -> {
+                    if (key.isValid()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                });
+                selector.wakeup();
+            });
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package springbootfinal.replication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import springbootfinal.dao.UserChange;
+import springbootfinal.dao.UserCodec;
+import springbootfinal.model.User;
+
+// The frames between a ReplicationLeader and its followers. Every frame is an
+// int holding the length of the rest, a type byte and the payload, numbers big
+// endian and users in the versioned form of UserCodec, so that followers hand
+// out the same versions (and ETags) as the leader.
+//
+// follower -> leader
+//   HELLO           epoch, sequence: the leader epoch and next change sequence
+//                   the follower has applied up to, epoch 0 when it has nothing
+//   ACK             sequence: every change before it is applied
+// leader -> follower
+//   CHANGE          sequence, type, userUid and the user unless it is a delete
+//   SNAPSHOT_START  epoch, sequence: all users follow, then the changes from sequence
+//   SNAPSHOT_USER   user
+//   SNAPSHOT_END    sequence
+final class ReplicationProtocol {
+
+    static final byte HELLO = 1;
+    static final byte ACK = 2;
+    static final byte CHANGE = 3;
+    static final byte SNAPSHOT_START = 4;
+    static final byte SNAPSHOT_USER = 5;
+    static final byte SNAPSHOT_END = 6;
+
+    // UserService takes no string longer than UserService.MAX_STRING_LENGTH,
+    // so no user frame comes close
+    static final int MAX_FRAME_BYTES = 1 << 20;
+
+    private ReplicationProtocol() {
+    }
+
+    // the next whole frame in buffer, read from the type byte on, or null when
+    // the buffer ends before the frame does
+    static DataInputStream nextFrame(ByteBuffer buffer, int maxBytes) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) {
+            return null;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length <= 0 || length > maxBytes) {
+            throw new IOException("frame of " + length + " bytes");
+        }
+        if (buffer.remaining() < Integer.BYTES + length) {
+            return null;
+        }
+        int start = buffer.position() + Integer.BYTES;
+        buffer.position(start + length);
+        if (buffer.hasArray()) {
+            return new DataInputStream(
+                    new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + start, length));
+        }
+        byte[] frame = new byte[length];
+        buffer.duplicate().position(start).get(frame);
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    // frames written one after the other into one buffer
+    static final class Frames {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream();
+        private final DataOutputStream payload = new DataOutputStream(payloadBytes);
+
+        Frames hello(long epoch, long sequence) {
+            return frame(HELLO, payload -> {
+                payload.writeLong(epoch);
+                payload.writeLong(sequence);
+            });
+        }
+
+        Frames ack(long sequence) {
+            return frame(ACK, payload -> payload.writeLong(sequence));
+        }
+
+        Frames change(UserChange change) {
+            return frame(CHANGE, payload -> {
+                payload.writeLong(change.getSequence());
+                payload.writeByte(change.getType().ordinal());
+                UserCodec.writeUserUid(payload, change.getUserUid());
+                if (change.getUser() != null) {
+                    UserCodec.writeVersionedUser(payload, change.getUser());
+                }
+            });
+        }
+
+        Frames snapshotStart(long epoch, long sequence) {
+            return frame(SNAPSHOT_START, payload -> {
+                payload.writeLong(epoch);
+                payload.writeLong(sequence);
+            });
+        }
+
+        Frames snapshotUser(User user) {
+            return frame(SNAPSHOT_USER, payload -> UserCodec.writeVersionedUser(payload, user));
+        }
+
+        Frames snapshotEnd(long sequence) {
+            return frame(SNAPSHOT_END, payload -> payload.writeLong(sequence));
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        // everything written so far, ready to be written to a channel
+        ByteBuffer toBuffer() {
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        // a payload that fails halfway is dropped, so the frames before it are
+        // still whole and nothing of it ends up in the next frame
+        private Frames frame(byte type, Payload body) {
+            try {
+                body.write(payload);
+            } catch (IOException e) {
+                payloadBytes.reset();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                payloadBytes.reset();
+                throw e;
+            }
+            int length = 1 + payloadBytes.size();
+            bytes.write(length >>> 24);
+            bytes.write(length >>> 16);
+            bytes.write(length >>> 8);
+            bytes.write(length);
+            bytes.write(type);
+            bytes.write(payloadBytes.toByteArray(), 0, payloadBytes.size());
+            payloadBytes.reset();
+            return this;
+        }
+    }
+
+    private interface Payload {
+        void write(DataOutputStream payload) throws IOException;
+    }
+}
@@ -0,0 +1,109 @@
+package springbootfinal.replication;
+
+import java.util.*;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// Where replication stands on this instance, for GET /api/v1/users/replication.
+// sequence is the next change sequence of the leader's change log: on the
+// leader the next one to be written, on a follower the next one to apply.
+// epoch tells the change logs of different leader processes apart.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public final class ReplicationStatus {
+
+    private final String role;
+    private final String epoch;
+    private final Long sequence;
+    // leader only
+    private final List<Follower> followers;
+    private final Long ackTimeouts;
+    // follower only
+    private final String leader;
+    private final Boolean connected;
+    private final Long snapshots;
+
+    private ReplicationStatus(String role, String epoch, Long sequence, List<Follower> followers, Long ackTimeouts,
+            String leader, Boolean connected, Long snapshots) {
+        this.role = role;
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.followers = followers;
+        this.ackTimeouts = ackTimeouts;
+        this.leader = leader;
+        this.connected = connected;
+        this.snapshots = snapshots;
+    }
+
+    static ReplicationStatus none() {
+        return new ReplicationStatus("none", null, null, null, null, null, null, null);
+    }
+
+    static ReplicationStatus leader(long epoch, long sequence, List<Follower> followers, long ackTimeouts) {
+        return new ReplicationStatus("leader", Long.toHexString(epoch), sequence, followers, ackTimeouts, null, null,
+                null);
+    }
+
+    static ReplicationStatus follower(String leader, boolean connected, long epoch, long sequence, long snapshots) {
+        return new ReplicationStatus("follower", Long.toHexString(epoch), sequence, null, null, leader, connected,
+                snapshots);
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public String getEpoch() {
+        return epoch;
+    }
+
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public List<Follower> getFollowers() {
+        return followers;
+    }
+
+    public Long getAckTimeouts() {
+        return ackTimeouts;
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    public Boolean getConnected() {
+        return connected;
+    }
+
+    public Long getSnapshots() {
+        return snapshots;
+    }
+
+    // a follower connected to the leader. acked is the sequence it has applied
+    // every change before, lag how many changes it is behind
+    public static final class Follower {
+
+        private final String address;
+        private final long acked;
+        private final long lag;
+
+        Follower(String address, long acked, long lag) {
+            this.address = address;
+            this.acked = acked;
+            this.lag = lag;
+        }
+
+        public String getAddress() {
+            return address;
+        }
+
+        public long getAcked() {
+            return acked;
+        }
+
+        public long getLag() {
+            return lag;
+        }
+    }
+}
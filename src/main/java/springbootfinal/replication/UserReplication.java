@@ -0,0 +1,35 @@
+package springbootfinal.replication;
+
+import java.net.URI;
+import java.util.Optional;
+
+// How this instance shares its user store with the others behind the load
+// balancer. user.replication.role picks one:
+//   none      every instance has a store of its own (default)
+//   leader    takes the writes and streams them to its followers, see
+//             ReplicationLeader
+//   follower  serves reads from a copy of the leader's store and sends writes
+//             to the leader, see ReplicationFollower
+public interface UserReplication {
+
+    // false on a follower, whose store only changes through the leader
+    boolean acceptsWrites();
+
+    // the http base url of the leader, for sending writes there. empty when
+    // this instance takes them or the url is not configured
+    Optional<URI> leaderUrl();
+
+    // called after a write was applied. with user.replication.ack=sync the
+    // leader returns once enough followers have applied everything written so
+    // far, or the timeout is up. everywhere else it returns at once
+    void awaitReplicated();
+
+    ReplicationStatus status();
+
+    // names the numbering of the user versions served here, for the ETags
+    // (see UserEntityTags). a leader and its followers share it since the
+    // followers keep the leader's versions. it changes whenever the versions
+    // could start over: a new process on its own or as leader, and a follower
+    // while it copies all users of another leader
+    String versionEpoch();
+}
@@ -0,0 +1,34 @@
+package springbootfinal.resource;
+
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// the outcome of one item of a batch request. status is the http status the
+// item would have got on its own: 200 when applied, 400 when rejected and
+// 404 when the user to update or delete does not exist
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+
+    private final int index;
+    private final UUID id;
+    private final int status;
+
+    public BatchResult(int index, UUID id, int status) {
+        this.index = index;
+        this.id = id;
+        this.status = status;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public UUID getId() {
+        return id;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
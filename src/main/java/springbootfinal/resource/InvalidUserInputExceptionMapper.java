@@ -0,0 +1,24 @@
+package springbootfinal.resource;
+
+import java.util.*;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.ExceptionMapper;
+import javax.ws.rs.ext.Provider;
+
+import springbootfinal.service.InvalidUserInputException;
+
+// UserService throws InvalidUserInputException for input it cannot use, like an
+// unknown gender. that is the client's fault, so answer 400 with the message
+// instead of letting it end up as a 500. any other exception still is one
+@Provider
+public class InvalidUserInputExceptionMapper implements ExceptionMapper<InvalidUserInputException> {
+
+    @Override
+    public Response toResponse(InvalidUserInputException exception) {
+        return Response.status(Status.BAD_REQUEST).type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(Collections.singletonMap("message", exception.getMessage())).build();
+    }
+}
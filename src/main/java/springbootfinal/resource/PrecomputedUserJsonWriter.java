@@ -0,0 +1,184 @@
+package springbootfinal.resource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import springbootfinal.model.User;
+import springbootfinal.service.SharedUserList;
+
+// Writes a User, or a List<User> sent as a GenericEntity, from json bytes that
+// are rendered once per stored user instead of running jackson on every request.
+// Only registered with user.api.json=precomputed.
+//
+// The bytes are kept against the User object itself (weak keys compare by
+// identity), and the daos replace the object on every write, so an update or
+// delete drops the old bytes with the old object. a list is the bytes of its
+// users joined with commas inside brackets, which is exactly what jackson
+// writes for a List<User>. dateOfBirth is computed from today's date, so bytes
+// rendered on an earlier day, or for another version, are rendered again.
+//
+// That only pays off when the dao hands out the same object on every read. A
+// dao that builds a new User each time (UserDao.keepsUserInstances, false for
+// user.dao=offheap) would only ever miss, paying for a render plus a cache
+// insert and eviction on every user. For those daos the users are rendered
+// straight away and never cached, the shared lists below still are.
+//
+// A SharedUserList went to several requests at once, the first of them to get
+// here joins its bytes and the others wait for those and write them as well.
+@Produces(MediaType.APPLICATION_JSON)
+public class PrecomputedUserJsonWriter implements MessageBodyWriter<Object> {
+
+    private final ObjectWriter writer;
+    private final boolean cacheUsers;
+    // the cache housekeeping is only draining cleared keys, running it on the
+    // calling thread is cheaper than waking a common pool thread for it
+    private final Cache<User, Rendered> rendered = Caffeine.newBuilder().weakKeys().executor(Runnable::run)
+            .build();
+    // gone with the list once the last request holding it was written
+    private final Cache<SharedUserList, Rendered> renderedLists = Caffeine.newBuilder().weakKeys()
+            .executor(Runnable::run).build();
+    // LocalDate.now() looks up the default zone and costs more than writing the
+    // bytes of a cached user, so the current day is kept until it ends
+    private volatile Today today = new Today(LocalDate.now());
+
+    public PrecomputedUserJsonWriter(ObjectMapper objectMapper) {
+        this(objectMapper, true);
+    }
+
+    public PrecomputedUserJsonWriter(ObjectMapper objectMapper, boolean cacheUsers) {
+        // with indenting the elements of a list are laid out differently from a
+        // user on its own, joining the single renderings would not match
+        if (objectMapper.isEnabled(SerializationFeature.INDENT_OUTPUT)) {
+            throw new IllegalStateException("user.api.json=precomputed does not support indented json");
+        }
+        this.writer = objectMapper.writerFor(User.class);
+        this.cacheUsers = cacheUsers;
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        if (User.class.equals(type)) {
+            return true;
+        }
+        // a plain List entity carries no element type, only a GenericEntity does
+        return List.class.isAssignableFrom(type) && genericType instanceof ParameterizedType
+                && User.class.equals(((ParameterizedType) genericType).getActualTypeArguments()[0]);
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream output) throws IOException {
+        LocalDate today = today();
+        if (entity instanceof User) {
+            output.write(toJson((User) entity, today));
+            return;
+        }
+        if (entity instanceof SharedUserList) {
+            output.write(toJson((SharedUserList) entity, today));
+            return;
+        }
+        writeList((List<?>) entity, today, output);
+    }
+
+    byte[] toJson(SharedUserList users, LocalDate today) throws IOException {
+        Rendered current;
+        try {
+            // a shared list cannot change, so there is no version to compare
+            current = renderedLists.get(users, list -> {
+                ByteArrayOutputStream json = new ByteArrayOutputStream();
+                try {
+                    writeList(list, today, json);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return new Rendered(0, today, json.toByteArray());
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (!current.day.equals(today)) {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            writeList(users, today, json);
+            return json.toByteArray();
+        }
+        return current.json;
+    }
+
+    private void writeList(List<?> users, LocalDate today, OutputStream output) throws IOException {
+        output.write('[');
+        boolean first = true;
+        for (Object user : users) {
+            if (!first) {
+                output.write(',');
+            }
+            output.write(toJson((User) user, today));
+            first = false;
+        }
+        output.write(']');
+    }
+
+    byte[] toJson(User user, LocalDate today) throws IOException {
+        if (!cacheUsers) {
+            return writer.writeValueAsBytes(user);
+        }
+        Rendered current = rendered.getIfPresent(user);
+        if (current != null && current.version == user.getVersion() && current.day.equals(today)) {
+            return current.json;
+        }
+        // today is taken before rendering, so bytes that already hold tomorrow's
+        // date are at worst rendered once more
+        Rendered fresh = new Rendered(user.getVersion(), today, writer.writeValueAsBytes(user));
+        rendered.put(user, fresh);
+        return fresh.json;
+    }
+
+    private LocalDate today() {
+        Today current = today;
+        if (System.currentTimeMillis() >= current.endsAtMillis) {
+            current = new Today(LocalDate.now());
+            today = current;
+        }
+        return current.day;
+    }
+
+    private static final class Today {
+        final LocalDate day;
+        final long endsAtMillis;
+
+        Today(LocalDate day) {
+            this.day = day;
+            this.endsAtMillis = day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+    }
+
+    private static final class Rendered {
+        final long version;
+        final LocalDate day;
+        final byte[] json;
+
+        Rendered(long version, LocalDate day, byte[] json) {
+            this.version = version;
+            this.day = day;
+            this.json = json;
+        }
+    }
+}
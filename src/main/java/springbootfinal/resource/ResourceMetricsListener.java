@@ -0,0 +1,122 @@
+package springbootfinal.resource;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.glassfish.jersey.server.internal.process.MappableException;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+// Times every request a jersey resource method handled in user.api.requests,
+// tagged with the java method, the status and the exception behind it (none
+// when there was none), and counts the 4xx and 5xx answers in user.api.errors.
+// Requests that match no resource are left out, jersey runs as a filter and
+// passes those on to spring mvc.
+// Being a jersey event listener it also sees requests that fail with an
+// exception no mapper handles, which never reach a response filter.
+//
+// The meters are registered the first time a method answers with a status
+// (and exception) and kept per method, so a request only looks them up in two
+// small maps instead of building and registering them every time.
+public class ResourceMetricsListener implements ApplicationEventListener {
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<Method, MethodMeters> methods = new ConcurrentHashMap<>();
+
+    public ResourceMetricsListener(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        long start = System.nanoTime();
+        return event -> {
+            if (event.getType() != RequestEvent.Type.FINISHED) {
+                return;
+            }
+            ResourceMethod resourceMethod = event.getUriInfo().getMatchedResourceMethod();
+            if (resourceMethod == null) {
+                return;
+            }
+            // no response means the exception went unmapped and the container answers 500
+            int status = event.getContainerResponse() == null ? 500 : event.getContainerResponse().getStatus();
+            Method method = resourceMethod.getInvocable().getDefinitionMethod();
+            MethodMeters methodMeters = methods.get(method);
+            if (methodMeters == null) {
+                methodMeters = methods.computeIfAbsent(method, MethodMeters::new);
+            }
+            Meters meters = methodMeters.get(status, event.getException());
+            meters.requests.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (meters.errors != null) {
+                meters.errors.increment();
+            }
+        };
+    }
+
+    // the meters of one resource method, by how its requests ended. most end
+    // without an exception, those are found by their status alone
+    private final class MethodMeters {
+
+        private final String name;
+        private final ConcurrentHashMap<Integer, Meters> byStatus = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Meters> byStatusAndException = new ConcurrentHashMap<>();
+
+        MethodMeters(Method method) {
+            this.name = method.getName();
+        }
+
+        Meters get(int status, Throwable exception) {
+            if (exception == null) {
+                Meters meters = byStatus.get(status);
+                return meters != null ? meters : byStatus.computeIfAbsent(status, key -> register(status, "none"));
+            }
+            String exceptionName = exceptionName(exception);
+            return byStatusAndException.computeIfAbsent(status + " " + exceptionName,
+                    key -> register(status, exceptionName));
+        }
+
+        private Meters register(int status, String exception) {
+            String outcome = status >= 500 ? "SERVER_ERROR" : status >= 400 ? "CLIENT_ERROR" : "SUCCESS";
+            Timer requests = Timer.builder("user.api.requests").tag("method", name)
+                    .tag("status", Integer.toString(status)).tag("outcome", outcome).tag("exception", exception)
+                    .publishPercentileHistogram().minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(10)).register(meterRegistry);
+            Counter errors = status < 400 ? null : Counter.builder("user.api.errors").tag("method", name)
+                    .tag("status", Integer.toString(status)).tag("outcome", outcome).tag("exception", exception)
+                    .register(meterRegistry);
+            return new Meters(requests, errors);
+        }
+    }
+
+    private static final class Meters {
+        final Timer requests;
+        // null for the statuses below 400
+        final Counter errors;
+
+        Meters(Timer requests, Counter errors) {
+            this.requests = requests;
+            this.errors = errors;
+        }
+    }
+
+    private static String exceptionName(Throwable exception) {
+        // jersey wraps whatever a resource throws before handing it to the mappers
+        while (exception instanceof MappableException && exception.getCause() != null) {
+            exception = exception.getCause();
+        }
+        return exception == null ? "none" : exception.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,296 @@
+package springbootfinal.resource;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotSupportedException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.ReaderInterceptor;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// gzip for the bodies of the user api, in both directions.
+//
+// Responses are compressed while they are written: the first
+// user.api.compression.min-response-bytes are held back and, if the body ends
+// before that, sent as they are. a longer body switches to gzip and from then
+// on goes through a fixed size deflater buffer, so a streamed list of any
+// length is never held in memory to be compressed. only clients that send
+// Accept-Encoding: gzip get it.
+//
+// Request bodies with Content-Encoding: gzip are inflated while they are read,
+// and reading stops with 413 once more than
+// user.api.compression.max-inflated-request-bytes come out, so a small
+// compressed body cannot blow up into an unbounded one. other encodings are
+// answered with 415.
+@Component
+public class UserApiCompression implements ContainerResponseFilter, WriterInterceptor, ReaderInterceptor {
+
+    private static final String GZIP = "gzip";
+    private static final String X_GZIP = "x-gzip";
+    private static final String IDENTITY = "identity";
+    // set by the response filter for the writer interceptor
+    private static final String COMPRESS_PROPERTY = UserApiCompression.class.getName() + ".compress";
+    private static final int BUFFER_BYTES = 8192;
+
+    private final boolean enabled;
+    private final int minResponseBytes;
+    private final int level;
+    private final long maxInflatedRequestBytes;
+
+    @Autowired
+    public UserApiCompression(@Value("${user.api.compression.enabled:true}") boolean enabled,
+            @Value("${user.api.compression.min-response-bytes:2048}") int minResponseBytes,
+            @Value("${user.api.compression.level:6}") int level,
+            @Value("${user.api.compression.max-inflated-request-bytes:268435456}") long maxInflatedRequestBytes) {
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("user.api.compression.level must be between 1 and 9 but was " + level);
+        }
+        this.enabled = enabled;
+        this.minResponseBytes = minResponseBytes;
+        this.level = level;
+        this.maxInflatedRequestBytes = maxInflatedRequestBytes;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (!enabled || !response.hasEntity() || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return;
+        }
+        // every event has to reach the client when it is written, gzip would hold
+        // small ones back
+        if (MediaType.SERVER_SENT_EVENTS_TYPE.isCompatible(response.getMediaType())) {
+            return;
+        }
+        // the body depends on Accept-Encoding whether or not this one is compressed
+        response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (acceptsGzip(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING))) {
+            request.setProperty(COMPRESS_PROPERTY, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        if (context.getProperty(COMPRESS_PROPERTY) == null) {
+            context.proceed();
+            return;
+        }
+        ThresholdGzipOutputStream output = new ThresholdGzipOutputStream(context.getOutputStream(),
+                context.getHeaders());
+        context.setOutputStream(output);
+        try {
+            context.proceed();
+        } finally {
+            output.finish();
+        }
+    }
+
+    @Override
+    public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException {
+        String encoding = context.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null || encoding.trim().equalsIgnoreCase(IDENTITY)) {
+            return context.proceed();
+        }
+        encoding = encoding.trim();
+        if (!encoding.equalsIgnoreCase(GZIP) && !encoding.equalsIgnoreCase(X_GZIP)) {
+            throw new NotSupportedException("unsupported Content-Encoding " + encoding);
+        }
+        // whatever reads the body next sees it as it was before it was compressed
+        context.getHeaders().remove(HttpHeaders.CONTENT_ENCODING);
+        context.getHeaders().remove(HttpHeaders.CONTENT_LENGTH);
+        GZIPInputStream gzip;
+        try {
+            gzip = new GZIPInputStream(context.getInputStream(), BUFFER_BYTES);
+        } catch (ZipException | EOFException e) {
+            throw new BadRequestException("request body is not gzip", e);
+        }
+        context.setInputStream(new LimitedInputStream(gzip, maxInflatedRequestBytes));
+        return context.proceed();
+    }
+
+    // true when gzip (or x-gzip, or *) is listed with a non zero q and not
+    // explicitly refused
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Boolean wildcard = null;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.split(";");
+            String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+            boolean accepted = quality(tokens) > 0;
+            if (coding.equals(GZIP) || coding.equals(X_GZIP)) {
+                return accepted;
+            }
+            if (coding.equals("*")) {
+                wildcard = accepted;
+            }
+        }
+        return Boolean.TRUE.equals(wildcard);
+    }
+
+    private static double quality(String[] tokens) {
+        for (int i = 1; i < tokens.length; i++) {
+            String parameter = tokens[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    // holds back the first minResponseBytes and only switches to gzip once the
+    // body grows past them. the headers can still be changed until then because
+    // nothing has reached the container yet
+    final class ThresholdGzipOutputStream extends OutputStream {
+
+        private final OutputStream raw;
+        private final MultivaluedMap<String, Object> headers;
+        private byte[] pending = new byte[Math.min(minResponseBytes, BUFFER_BYTES)];
+        private int pendingCount;
+        private LevelGzipOutputStream gzip;
+        private boolean finished;
+
+        ThresholdGzipOutputStream(OutputStream raw, MultivaluedMap<String, Object> headers) {
+            this.raw = raw;
+            this.headers = headers;
+        }
+
+        boolean isCompressing() {
+            return gzip != null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (gzip != null) {
+                gzip.write(bytes, offset, length);
+                return;
+            }
+            if (pendingCount + length <= minResponseBytes) {
+                if (pendingCount + length > pending.length) {
+                    pending = Arrays.copyOf(pending, Math.min(minResponseBytes,
+                            Math.max(pending.length * 2, pendingCount + length)));
+                }
+                System.arraycopy(bytes, offset, pending, pendingCount, length);
+                pendingCount += length;
+                return;
+            }
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, GZIP);
+            // the length of the compressed body is only known at the end
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            gzip = new LevelGzipOutputStream(raw, level);
+            gzip.write(pending, 0, pendingCount);
+            gzip.write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // below the threshold nothing is sent yet, and flushing a deflater
+            // early only makes the output larger
+            if (gzip == null) {
+                return;
+            }
+            raw.flush();
+        }
+
+        // ends the body without closing the container's stream. a writer may
+        // already have closed this stream, so it can run twice
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (gzip == null) {
+                raw.write(pending, 0, pendingCount);
+                return;
+            }
+            try {
+                gzip.finish();
+            } finally {
+                gzip.end();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            raw.close();
+        }
+    }
+
+    // GZIPOutputStream with a compression level, whose deflater can be freed
+    // without closing the stream underneath
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+
+        LevelGzipOutputStream(OutputStream output, int level) throws IOException {
+            super(output, BUFFER_BYTES);
+            def.setLevel(level);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long read;
+
+        LimitedInputStream(InputStream input, long limit) {
+            super(input);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int n = super.read(bytes, offset, length);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) {
+            read += n;
+            if (read > limit) {
+                throw new WebApplicationException("request body inflates to more than " + limit + " bytes",
+                        Status.REQUEST_ENTITY_TOO_LARGE);
+            }
+        }
+    }
+}
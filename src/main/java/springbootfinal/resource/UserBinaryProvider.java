@@ -0,0 +1,297 @@
+package springbootfinal.resource;
+
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+// Reads and writes users in a compact binary form for service to service
+// traffic, picked with Accept or Content-Type: application/x-user-binary. json
+// stays the default. Every user is
+//
+//   [flags byte] [id: 16 bytes, most significant long first]
+//   [firstName] [lastName] [gender: ordinal byte] [age: zigzag varint] [email]
+//
+// where bit 0 to 5 of the flags say which of the six fields follow, in that
+// order, and a string is a varint byte length followed by UTF-8. A list is its
+// users back to back until the end of the body, so it can be written and read
+// one user at a time. dateOfBirth is not sent, it is derived from age and the
+// current date.
+@Produces(UserBinaryProvider.APPLICATION_USER_BINARY)
+@Consumes(UserBinaryProvider.APPLICATION_USER_BINARY)
+public class UserBinaryProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+    public static final String APPLICATION_USER_BINARY = "application/x-user-binary";
+    public static final MediaType APPLICATION_USER_BINARY_TYPE = MediaType.valueOf(APPLICATION_USER_BINARY);
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_FIRST_NAME = 1 << 1;
+    private static final int HAS_LAST_NAME = 1 << 2;
+    private static final int HAS_GENDER = 1 << 3;
+    private static final int HAS_AGE = 1 << 4;
+    private static final int HAS_EMAIL = 1 << 5;
+    // users are tiny, a longer string is a corrupt length
+    private static final int MAX_STRING_BYTES = 1 << 20;
+    private static final Gender[] GENDERS = Gender.values();
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isUserOrUserList(type, genericType);
+    }
+
+    @Override
+    public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        Decoder decoder = new Decoder(entityStream);
+        try {
+            if (User.class.equals(type)) {
+                return decoder.readUser();
+            }
+            List<User> users = new ArrayList<>();
+            while (decoder.hasMore()) {
+                // checked while reading so an oversized body is never fully held in memory
+                if (users.size() == UserResourceResteasy.MAX_BATCH_SIZE) {
+                    throw new BadRequestException(
+                            "a batch can hold at most " + UserResourceResteasy.MAX_BATCH_SIZE + " items");
+                }
+                users.add(decoder.readUser());
+            }
+            return users;
+        } catch (EOFException | StreamCorruptedException e) {
+            throw new BadRequestException("malformed " + APPLICATION_USER_BINARY + " body", e);
+        }
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isUserOrUserList(type, genericType);
+    }
+
+    @Override
+    public void writeTo(Object entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        Encoder encoder = new Encoder(entityStream);
+        if (entity instanceof User) {
+            encoder.writeUser((User) entity);
+        } else {
+            for (Object user : (List<?>) entity) {
+                encoder.writeUser((User) user);
+            }
+        }
+        // only flushed, the container closes the entity stream
+        encoder.flush();
+    }
+
+    // a List<User> only has its element type when it is a parameter or a GenericEntity
+    private static boolean isUserOrUserList(Class<?> type, Type genericType) {
+        if (User.class.equals(type)) {
+            return true;
+        }
+        return List.class.isAssignableFrom(type) && genericType instanceof ParameterizedType
+                && User.class.equals(((ParameterizedType) genericType).getActualTypeArguments()[0]);
+    }
+
+    // writes users into its own buffer and hands the buffer to the stream when it
+    // is full, so a user costs no call on the (synchronized) stream
+    static final class Encoder implements Flushable {
+
+        private final OutputStream output;
+        private byte[] buffer = new byte[8192];
+        private int position;
+
+        Encoder(OutputStream output) {
+            this.output = output;
+        }
+
+        void writeUser(User user) throws IOException {
+            // the strings are encoded first to know how much room the user needs
+            byte[] firstName = utf8(user.getFirstName());
+            byte[] lastName = utf8(user.getLastName());
+            byte[] email = utf8(user.getEmail());
+            int flags = (user.getUserUid() != null ? HAS_ID : 0) | (firstName != null ? HAS_FIRST_NAME : 0)
+                    | (lastName != null ? HAS_LAST_NAME : 0) | (user.getGender() != null ? HAS_GENDER : 0)
+                    | (user.getAge() != null ? HAS_AGE : 0) | (email != null ? HAS_EMAIL : 0);
+            // flags, id, gender, age and three string lengths at 5 bytes at most
+            ensure(1 + 16 + 1 + 5 + 15 + length(firstName) + length(lastName) + length(email));
+            buffer[position++] = (byte) flags;
+            if (user.getUserUid() != null) {
+                writeLong(user.getUserUid().getMostSignificantBits());
+                writeLong(user.getUserUid().getLeastSignificantBits());
+            }
+            writeBytes(firstName);
+            writeBytes(lastName);
+            if (user.getGender() != null) {
+                buffer[position++] = (byte) user.getGender().ordinal();
+            }
+            if (user.getAge() != null) {
+                int age = user.getAge();
+                writeVarint((age << 1) ^ (age >> 31));
+            }
+            writeBytes(email);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.write(buffer, 0, position);
+            position = 0;
+            output.flush();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (bytes > buffer.length - position) {
+                output.write(buffer, 0, position);
+                position = 0;
+            }
+            if (bytes > buffer.length) {
+                // only a user with very long strings gets here
+                buffer = new byte[bytes];
+            }
+        }
+
+        private void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (value >>> shift);
+            }
+        }
+
+        private void writeVarint(int value) {
+            while ((value & ~0x7f) != 0) {
+                buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[position++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            if (bytes != null) {
+                writeVarint(bytes.length);
+                System.arraycopy(bytes, 0, buffer, position, bytes.length);
+                position += bytes.length;
+            }
+        }
+
+        private static byte[] utf8(String value) {
+            return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        private static int length(byte[] bytes) {
+            return bytes == null ? 0 : bytes.length;
+        }
+    }
+
+    // reads users out of its own buffer, refilled from the stream as needed
+    static final class Decoder {
+
+        private final InputStream input;
+        private byte[] buffer = new byte[8192];
+        private int position;
+        private int limit;
+
+        Decoder(InputStream input) {
+            this.input = input;
+        }
+
+        boolean hasMore() throws IOException {
+            return limit > position || fill(1);
+        }
+
+        User readUser() throws IOException {
+            require(1);
+            int flags = buffer[position++];
+            UUID userUid = null;
+            if ((flags & HAS_ID) != 0) {
+                require(16);
+                userUid = new UUID(readLong(), readLong());
+            }
+            String firstName = (flags & HAS_FIRST_NAME) != 0 ? readString() : null;
+            String lastName = (flags & HAS_LAST_NAME) != 0 ? readString() : null;
+            Gender gender = null;
+            if ((flags & HAS_GENDER) != 0) {
+                require(1);
+                int ordinal = buffer[position++];
+                if (ordinal < 0 || ordinal >= GENDERS.length) {
+                    throw new StreamCorruptedException("unknown gender " + ordinal);
+                }
+                gender = GENDERS[ordinal];
+            }
+            Integer age = null;
+            if ((flags & HAS_AGE) != 0) {
+                int zigzag = readVarint();
+                age = (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            String email = (flags & HAS_EMAIL) != 0 ? readString() : null;
+            return new User(userUid, firstName, lastName, gender, age, email);
+        }
+
+        private long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (buffer[position++] & 0xff);
+            }
+            return value;
+        }
+
+        private int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                require(1);
+                byte next = buffer[position++];
+                value |= (next & 0x7f) << shift;
+                if (next >= 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("varint longer than 5 bytes");
+        }
+
+        private String readString() throws IOException {
+            int length = readVarint();
+            if (length < 0 || length > MAX_STRING_BYTES) {
+                throw new StreamCorruptedException("string of " + length + " bytes");
+            }
+            require(length);
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (limit - position < bytes && !fill(bytes)) {
+                throw new EOFException();
+            }
+        }
+
+        // reads until at least bytes are buffered, false if the stream ends first
+        private boolean fill(int bytes) throws IOException {
+            if (bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(bytes, buffer.length * 2));
+            }
+            if (buffer.length - position < bytes) {
+                System.arraycopy(buffer, position, buffer, 0, limit - position);
+                limit -= position;
+                position = 0;
+            }
+            while (limit - position < bytes) {
+                int read = input.read(buffer, limit, buffer.length - limit);
+                if (read < 0) {
+                    return false;
+                }
+                limit += read;
+            }
+            return true;
+        }
+    }
+}
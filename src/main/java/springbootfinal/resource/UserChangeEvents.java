@@ -0,0 +1,92 @@
+package springbootfinal.resource;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import springbootfinal.dao.UserChange;
+import springbootfinal.dao.UserChangeLog;
+import springbootfinal.dao.UserChangePage;
+
+// Server-sent events of the changes in a UserChangeLog, for
+// GET /api/v1/users/changes with Accept: text/event-stream.
+// Every change is one event with its sequence as the event id, so an
+// EventSource that reconnects sends Last-Event-ID and carries on where it
+// stopped, and the change as json for data. A client whose sequence is no
+// longer in the log gets a single reset event holding the sequence to follow
+// from after it has read all users again, and the stream ends.
+//
+// No thread waits for a client between changes: whatever is in the log is
+// written, then the next write is left to whenAvailable, which runs it on one
+// of the log's threads. a client that went away is noticed on the next write.
+final class UserChangeEvents {
+
+    // changes written to the client in one chunk
+    static final int BATCH_SIZE = 256;
+
+    private final UserChangeLog changeLog;
+    private final ObjectMapper objectMapper;
+    private final ChunkedOutput<String> output = new ChunkedOutput<>(String.class);
+
+    private UserChangeEvents(UserChangeLog changeLog, ObjectMapper objectMapper) {
+        this.changeLog = changeLog;
+        this.objectMapper = objectMapper;
+    }
+
+    // the output to return from the resource method, fed from sequence from on
+    static ChunkedOutput<String> follow(UserChangeLog changeLog, ObjectMapper objectMapper, long from) {
+        UserChangeEvents events = new UserChangeEvents(changeLog, objectMapper);
+        events.deliverFrom(from);
+        return events.output;
+    }
+
+    private void deliverFrom(long from) {
+        long next = from;
+        while (!output.isClosed()) {
+            Optional<UserChangePage> page = changeLog.read(next, BATCH_SIZE);
+            try {
+                if (!page.isPresent()) {
+                    output.write("event: reset\ndata: {\"next\":" + changeLog.nextSequence() + "}\n\n");
+                    output.close();
+                    return;
+                }
+                if (!page.get().getChanges().isEmpty()) {
+                    output.write(events(page.get().getChanges()));
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            next = page.get().getNext();
+            CompletableFuture<Void> available = changeLog.whenAvailable(next);
+            // loops instead of calling itself while there is a backlog
+            if (!available.isDone()) {
+                long resumeFrom = next;
+                available.thenRun(() -> deliverFrom(resumeFrom));
+                return;
+            }
+        }
+    }
+
+    private String events(List<UserChange> changes) throws JsonProcessingException {
+        StringBuilder events = new StringBuilder();
+        for (UserChange change : changes) {
+            events.append("id: ").append(change.getSequence()).append('\n');
+            events.append("data: ").append(objectMapper.writeValueAsString(change)).append("\n\n");
+        }
+        return events.toString();
+    }
+
+    private void close() {
+        try {
+            output.close();
+        } catch (IOException e) {
+            // the client is gone either way
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package springbootfinal.resource;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import javax.ws.rs.core.EntityTag;
+
+import springbootfinal.model.User;
+
+// ETags for single users, built from the version the dao gives every write.
+// A tag is "<epoch>-<version>" where the epoch is UserReplication.versionEpoch:
+// versions are not persisted and count again from the restored state after a
+// restart, so without it a tag handed out before a restart could match a
+// different user state after it. a restart therefore only costs every client
+// one full download, never a wrong 304 or a lost update. a leader and its
+// followers share the epoch and the versions, so a tag from one of them works
+// on all of them.
+final class UserEntityTags {
+
+    private static final String WILDCARD = "*";
+
+    private final Supplier<String> epoch;
+
+    UserEntityTags(Supplier<String> epoch) {
+        this.epoch = epoch;
+    }
+
+    EntityTag of(User user) {
+        return new EntityTag(epoch.get() + "-" + user.getVersion());
+    }
+
+    static boolean isWildcard(String header) {
+        return header != null && header.trim().equals(WILDCARD);
+    }
+
+    // If-None-Match uses the weak comparison, so W/ tags match as well
+    boolean matchesAny(String ifNoneMatch, User user) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        if (isWildcard(ifNoneMatch)) {
+            return true;
+        }
+        String current = of(user).getValue();
+        for (EntityTag tag : parse(ifNoneMatch)) {
+            if (tag.getValue().equals(current)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the versions named by the strong tags of an If-Match header. weak tags and
+    // tags from another epoch can never match, so they are left out
+    List<Long> versions(String ifMatch) {
+        List<Long> versions = new ArrayList<>();
+        String prefix = epoch.get() + "-";
+        for (EntityTag tag : parse(ifMatch)) {
+            if (tag.isWeak() || !tag.getValue().startsWith(prefix)) {
+                continue;
+            }
+            try {
+                versions.add(Long.parseLong(tag.getValue().substring(prefix.length())));
+            } catch (NumberFormatException e) {
+                // not one of ours, cannot match
+            }
+        }
+        return versions;
+    }
+
+    // a header is a comma separated list of quoted tags, anything that does not
+    // parse is skipped since it cannot match a tag we handed out
+    private static List<EntityTag> parse(String header) {
+        List<EntityTag> tags = new ArrayList<>();
+        for (String part : header.split(",")) {
+            try {
+                tags.add(EntityTag.valueOf(part.trim()));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,164 @@
+package springbootfinal.resource;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Turns requests away with 503 and Retry-After while the node is overloaded,
+// cheapest to lose first, so that point requests keep their latency:
+//   - any request once user.api.shedding.max-in-flight are in progress
+//   - bulk requests (see UserRequestKind) once max-bulk-in-flight of them are
+//   - bulk requests while point requests take longer than point-latency-ms on
+//     average. the average moves 1/8 of the way to every point request that
+//     finishes and is ignored once none finished for a second, so it follows
+//     the load within a few requests and bulk requests come back by themselves
+// Requests waiting for changes hold no thread and are not counted.
+//
+// A request counts from this filter until jersey finished writing its
+// response, which the listener half of the class is told about, so a list
+// that is streamed counts for as long as it is being written.
+@Component
+@Priority(Priorities.USER - 100)
+public class UserLoadShedder implements ContainerRequestFilter, ApplicationEventListener {
+
+    private static final String ADMISSION_PROPERTY = UserLoadShedder.class.getName() + ".admission";
+    private static final int LATENCY_SHIFT = 3;
+    private static final long LATENCY_MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final int maxBulkInFlight;
+    private final long pointLatencyNanos;
+    private final LongSupplier clock;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger bulkInFlight = new AtomicInteger();
+    private final AtomicLong averagePointNanos = new AtomicLong();
+    private final AtomicLong lastPointAt = new AtomicLong();
+
+    @Autowired
+    public UserLoadShedder(@Value("${user.api.shedding.enabled:true}") boolean enabled,
+            @Value("${user.api.shedding.max-in-flight:512}") int maxInFlight,
+            @Value("${user.api.shedding.max-bulk-in-flight:8}") int maxBulkInFlight,
+            @Value("${user.api.shedding.point-latency-ms:100}") long pointLatencyMillis) {
+        this(enabled, maxInFlight, maxBulkInFlight, pointLatencyMillis, System::nanoTime);
+    }
+
+    UserLoadShedder(boolean enabled, int maxInFlight, int maxBulkInFlight, long pointLatencyMillis,
+            LongSupplier clock) {
+        if (maxInFlight <= 0 || maxBulkInFlight <= 0) {
+            throw new IllegalArgumentException("user.api.shedding limits must be positive but were " + maxInFlight
+                    + " and " + maxBulkInFlight);
+        }
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.maxBulkInFlight = maxBulkInFlight;
+        this.pointLatencyNanos = TimeUnit.MILLISECONDS.toNanos(pointLatencyMillis);
+        this.clock = clock;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        UserRequestKind kind = UserRequestKind.of(request);
+        if (!enabled || kind == UserRequestKind.WAIT) {
+            return;
+        }
+        Admission admission = admit(kind);
+        if (admission == null) {
+            request.abortWith(Response.status(Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, 1)
+                    .type(MediaType.TEXT_PLAIN_TYPE).entity("overloaded, retry in 1s").build());
+            return;
+        }
+        request.setProperty(ADMISSION_PROPERTY, admission);
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return event -> {
+            if (event.getType() == RequestEvent.Type.FINISHED) {
+                Object admission = event.getContainerRequest().getProperty(ADMISSION_PROPERTY);
+                if (admission != null) {
+                    event.getContainerRequest().removeProperty(ADMISSION_PROPERTY);
+                    finish((Admission) admission);
+                }
+            }
+        };
+    }
+
+    // counts the request in, or returns null when it has to be turned away
+    Admission admit(UserRequestKind kind) {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (kind == UserRequestKind.BULK) {
+            if (pointsAreSlow(now)) {
+                inFlight.decrementAndGet();
+                return null;
+            }
+            if (bulkInFlight.incrementAndGet() > maxBulkInFlight) {
+                bulkInFlight.decrementAndGet();
+                inFlight.decrementAndGet();
+                return null;
+            }
+        }
+        return new Admission(kind, now);
+    }
+
+    void finish(Admission admission) {
+        inFlight.decrementAndGet();
+        long now = clock.getAsLong();
+        if (admission.kind == UserRequestKind.BULK) {
+            bulkInFlight.decrementAndGet();
+            return;
+        }
+        long sample = now - admission.startedAt;
+        long average;
+        do {
+            average = averagePointNanos.get();
+        } while (!averagePointNanos.compareAndSet(average, average + ((sample - average) >> LATENCY_SHIFT)));
+        lastPointAt.set(now);
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    private boolean pointsAreSlow(long now) {
+        return averagePointNanos.get() > pointLatencyNanos && now - lastPointAt.get() < LATENCY_MAX_AGE_NANOS;
+    }
+
+    static final class Admission {
+
+        private final UserRequestKind kind;
+        private final long startedAt;
+
+        private Admission(UserRequestKind kind, long startedAt) {
+            this.kind = kind;
+            this.startedAt = startedAt;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package springbootfinal.resource;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.annotation.Priority;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Token buckets for the user api, one per client and resource method, so a
+// client that pulls the full list over and over runs out of tokens for that
+// and still has all of them for fetchUser.
+// A bucket holds user.api.rate-limit.burst tokens and refills at rate tokens a
+// second. a request takes point-cost tokens, or bulk-cost for the kinds of
+// UserRequestKind.BULK. one that finds too few is answered with 429 and a
+// Retry-After for when there will be enough. clients are told apart by the
+// client-header when it is set and sent, by their address otherwise.
+//
+// Each bucket is a single AtomicLong holding the time it will be full again
+// (GCRA): taking tokens moves that time forward by cost / rate, and there are
+// not enough tokens when it would end up more than burst / rate ahead of now.
+// so a request is one compare-and-set with no lock and nothing refills in the
+// background. a bucket nobody used for longer than it takes to fill up is
+// the same as a new one, Caffeine drops it after that.
+@Component
+@Priority(Priorities.USER - 200)
+public class UserRateLimiter implements ContainerRequestFilter {
+
+    private final boolean enabled;
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final int pointCost;
+    private final int bulkCost;
+    private final String clientHeader;
+    private final LongSupplier clock;
+    private final Cache<String, AtomicLong> buckets;
+
+    @Context
+    private HttpServletRequest servletRequest;
+
+    @Autowired
+    public UserRateLimiter(@Value("${user.api.rate-limit.enabled:true}") boolean enabled,
+            @Value("${user.api.rate-limit.rate:1000}") double rate,
+            @Value("${user.api.rate-limit.burst:2000}") int burst,
+            @Value("${user.api.rate-limit.point-cost:1}") int pointCost,
+            @Value("${user.api.rate-limit.bulk-cost:100}") int bulkCost,
+            @Value("${user.api.rate-limit.client-header:}") String clientHeader,
+            @Value("${user.api.rate-limit.max-clients:100000}") long maxClients) {
+        this(enabled, rate, burst, pointCost, bulkCost, clientHeader, maxClients, System::nanoTime);
+    }
+
+    UserRateLimiter(boolean enabled, double rate, int burst, int pointCost, int bulkCost, String clientHeader,
+            long maxClients, LongSupplier clock) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("user.api.rate-limit.rate must be positive but was " + rate);
+        }
+        if (pointCost <= 0 || bulkCost <= 0 || Math.max(pointCost, bulkCost) > burst) {
+            throw new IllegalArgumentException("user.api.rate-limit costs must be between 1 and burst (" + burst
+                    + ") but were " + pointCost + " and " + bulkCost);
+        }
+        this.enabled = enabled;
+        this.nanosPerToken = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        this.burstNanos = burst * nanosPerToken;
+        this.pointCost = pointCost;
+        this.bulkCost = bulkCost;
+        this.clientHeader = clientHeader;
+        this.clock = clock;
+        this.buckets = Caffeine.newBuilder().maximumSize(maxClients)
+                .expireAfterAccess(Duration.ofNanos(Math.max(burstNanos, TimeUnit.SECONDS.toNanos(1)))).build();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        if (!enabled) {
+            return;
+        }
+        int cost = UserRequestKind.of(request) == UserRequestKind.BULK ? bulkCost : pointCost;
+        long waitNanos = take(client(request) + " " + UserRequestKind.resourceMethod(request), cost);
+        if (waitNanos > 0) {
+            long retryAfterSeconds = (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+            request.abortWith(Response.status(Status.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, retryAfterSeconds).type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity("rate limit exceeded, retry in " + retryAfterSeconds + "s").build());
+        }
+    }
+
+    // takes cost tokens from the bucket of key. returns 0 when it had them,
+    // otherwise how many nanoseconds until it will, without taking any
+    long take(String key, int cost) {
+        long now = clock.getAsLong();
+        AtomicLong fullAt = buckets.get(key, ignored -> new AtomicLong(now));
+        long costNanos = cost * nanosPerToken;
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + costNanos;
+            long over = next - now - burstNanos;
+            if (over > 0) {
+                return over;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private String client(ContainerRequestContext request) {
+        if (!clientHeader.isEmpty()) {
+            String client = request.getHeaderString(clientHeader);
+            if (client != null && !client.isEmpty()) {
+                return client;
+            }
+        }
+        return servletRequest == null ? "unknown" : servletRequest.getRemoteAddr();
+    }
+}
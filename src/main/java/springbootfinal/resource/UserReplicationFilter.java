@@ -0,0 +1,65 @@
+package springbootfinal.resource;
+
+import java.net.URI;
+import java.util.*;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.replication.UserReplication;
+
+// The part of replication the api sees, see UserReplication.
+//
+// A follower answers writes with 307 to the same path on the leader, which
+// makes the client send the same request there, or with 503 when it does not
+// know the leader's url. On a leader with synchronous acknowledgement a
+// successful write is held until enough followers applied it, so a read sent
+// to any of them afterwards sees it. The thread writing the response waits
+// for that, up to user.replication.ack-timeout-ms.
+@Component
+public class UserReplicationFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private static final Set<String> WRITE_METHODS = Set.of(HttpMethod.POST, HttpMethod.PUT, HttpMethod.DELETE,
+            HttpMethod.PATCH);
+
+    private final UserReplication replication;
+
+    @Autowired
+    public UserReplicationFilter(UserReplication replication) {
+        this.replication = replication;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        if (replication.acceptsWrites() || !WRITE_METHODS.contains(request.getMethod())) {
+            return;
+        }
+        Optional<URI> leaderUrl = replication.leaderUrl();
+        if (!leaderUrl.isPresent()) {
+            request.abortWith(Response.status(Status.SERVICE_UNAVAILABLE).type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity("this instance is a read-only replication follower").build());
+            return;
+        }
+        URI requestUri = request.getUriInfo().getRequestUri();
+        String base = leaderUrl.get().toString().replaceAll("/+$", "");
+        String query = requestUri.getRawQuery() == null ? "" : "?" + requestUri.getRawQuery();
+        request.abortWith(Response.temporaryRedirect(URI.create(base + requestUri.getRawPath() + query)).build());
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (WRITE_METHODS.contains(request.getMethod())
+                && response.getStatusInfo().getFamily() == Status.Family.SUCCESSFUL) {
+            replication.awaitReplicated();
+        }
+    }
+}
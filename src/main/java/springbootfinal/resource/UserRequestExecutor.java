@@ -0,0 +1,101 @@
+package springbootfinal.resource;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Runs the work of a resource method and resumes its suspended AsyncResponse
+// with the result, so the container thread is given back while the work runs.
+// user.api.execution picks where it runs:
+//   sync     on the container thread, like a plain resource method (default)
+//   async    on a fixed pool of user.api.async-threads platform threads with
+//            room for user.api.async-queue waiting requests, more than that is
+//            answered with 503
+//   virtual  on a new virtual thread per request, needs a jdk with virtual
+//            threads. blocking in the dao then only parks the virtual thread
+@Component
+public class UserRequestExecutor {
+
+    // null when the work runs on the container thread
+    private final ExecutorService executor;
+
+    @Autowired
+    public UserRequestExecutor(@Value("${user.api.execution:sync}") String execution,
+            @Value("${user.api.async-threads:16}") int asyncThreads,
+            @Value("${user.api.async-queue:10000}") int asyncQueue) {
+        switch (execution) {
+        case "sync":
+            executor = null;
+            break;
+        case "async":
+            executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(asyncQueue), threadFactory("user-api-"));
+            break;
+        case "virtual":
+            executor = newVirtualThreadPerTaskExecutor();
+            break;
+        default:
+            throw new IllegalArgumentException("user.api.execution must be sync, async or virtual but was " + execution);
+        }
+    }
+
+    // resumes with whatever work returns, or with the exception it throws so
+    // the exception mappers still get to answer it
+    public void resume(AsyncResponse asyncResponse, Supplier<?> work) {
+        Runnable task = () -> {
+            try {
+                asyncResponse.resume(work.get());
+            } catch (Throwable e) {
+                asyncResponse.resume(e);
+            }
+        };
+        if (executor == null) {
+            task.run();
+            return;
+        }
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            asyncResponse.resume(new ServiceUnavailableException("too many requests in flight"));
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // looked up by reflection since the code is compiled for java 11
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("user.api.execution=virtual needs java 21 or newer, this is java "
+                    + Runtime.version().feature(), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("could not create the virtual thread executor", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package springbootfinal.resource;
+
+import java.util.*;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+
+import org.glassfish.jersey.server.ExtendedUriInfo;
+import org.glassfish.jersey.server.model.ResourceMethod;
+
+// What a request to the user api costs the server, told from the resource
+// method it matched. UserRateLimiter charges clients by it and
+// UserLoadShedder drops the expensive kind first so point reads keep going.
+enum UserRequestKind {
+
+    // one user, a bounded page or a single write
+    POINT,
+    // every user, or a batch of up to MAX_BATCH_SIZE of them
+    BULK,
+    // held until there is a change, without a thread, see fetchChanges
+    WAIT;
+
+    private static final Set<String> BULK_METHODS = Set.of("streamUsers", "insertNewUsers", "insertNewUsersNdjson",
+            "updateUsers", "updateUsersNdjson", "deleteUsers", "deleteUsersNdjson");
+    private static final Set<String> WAIT_METHODS = Set.of("fetchChanges", "followChanges");
+
+    static UserRequestKind of(ContainerRequestContext request) {
+        MultivaluedMap<String, String> query = request.getUriInfo().getQueryParameters();
+        return of(resourceMethod(request), query.containsKey("limit") || query.containsKey("cursor"));
+    }
+
+    // paged when the request has a limit or a cursor
+    static UserRequestKind of(String resourceMethod, boolean paged) {
+        if (WAIT_METHODS.contains(resourceMethod)) {
+            return WAIT;
+        }
+        if (BULK_METHODS.contains(resourceMethod)) {
+            return BULK;
+        }
+        // without limit or cursor fetchUsers returns every user there is
+        return resourceMethod.equals("fetchUsers") && !paged ? BULK : POINT;
+    }
+
+    // the java method of the matched resource method, like the method tag of
+    // user.api.requests
+    static String resourceMethod(ContainerRequestContext request) {
+        UriInfo uriInfo = request.getUriInfo();
+        if (!(uriInfo instanceof ExtendedUriInfo)) {
+            return "none";
+        }
+        ResourceMethod resourceMethod = ((ExtendedUriInfo) uriInfo).getMatchedResourceMethod();
+        return resourceMethod == null ? "none" : resourceMethod.getInvocable().getDefinitionMethod().getName();
+    }
+}
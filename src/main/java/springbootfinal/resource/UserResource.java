@@ -4,6 +4,7 @@ import java.util.*;
 
 import javax.ws.rs.QueryParam;
 
+import springbootfinal.dao.WriteOutcome;
 import springbootfinal.service.UserService;
 import springbootfinal.model.User;
 
@@ -70,7 +71,7 @@ public class UserResource {
     // the fields that are not being specified such as userUid will be inputted as
     // null
     public ResponseEntity<Integer> insertNewUser(@RequestBody User user) {
-        int result = userService.insertUser(user);
+        WriteOutcome result = userService.insertUser(user);
         return getIntegerResponseEntity(result);
     }
 
@@ -78,7 +79,7 @@ public class UserResource {
     @RequestMapping(method = RequestMethod.PUT, produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Integer> updateUser(@RequestBody User user) {
         // updates the user if user is present
-        int result = userService.updateUser(user);
+        WriteOutcome result = userService.updateUser(user);
         return getIntegerResponseEntity(result);
     }
 
@@ -86,12 +87,12 @@ public class UserResource {
     @RequestMapping(method = RequestMethod.DELETE, produces = MediaType.APPLICATION_JSON_VALUE, path = "{userUid}")
     public ResponseEntity<?> deleteUser(@PathVariable("userUid") UUID userUid) {
         // remove user only if the user is present
-        int result = userService.removeUser(userUid);
+        WriteOutcome result = userService.removeUser(userUid);
         return getIntegerResponseEntity(result);
     }
 
-    private ResponseEntity<Integer> getIntegerResponseEntity(int result) {
-        if (result == 1) {
+    private ResponseEntity<Integer> getIntegerResponseEntity(WriteOutcome result) {
+        if (result == WriteOutcome.APPLIED) {
             // .build() to convert it into an integer response code
             return ResponseEntity.ok().build();
         }
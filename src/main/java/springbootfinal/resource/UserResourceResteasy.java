@@ -1,24 +1,56 @@
 package springbootfinal.resource;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 
+import javax.ws.rs.BadRequestException;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.core.Variant;
 import javax.ws.rs.core.Response.Status;
 
+import org.glassfish.jersey.server.ChunkedOutput;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import springbootfinal.dao.UserChangeLog;
+import springbootfinal.dao.UserChangePage;
+import springbootfinal.dao.UserQuery;
+import springbootfinal.dao.WriteOutcome;
+import springbootfinal.replication.ReplicationStatus;
+import springbootfinal.replication.UserReplication;
+import springbootfinal.service.ReactiveUserService;
 import springbootfinal.service.UserService;
 import springbootfinal.model.User;
 
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
@@ -30,29 +62,284 @@ import org.springframework.web.bind.annotation.RequestBody;
 @Path("/api/v1/users")
 public class UserResourceResteasy {
 
+    // largest page a client can ask for with the limit parameter
+    static final int MAX_PAGE_SIZE = 1000;
+    // search results per page unless the limit parameter says otherwise
+    static final int DEFAULT_SEARCH_LIMIT = 20;
+    // every skipped result is still looked at, so how deep a search can page is bounded
+    static final int MAX_SEARCH_OFFSET = 10_000;
+    // years per age group in the stats unless ageBucket says otherwise
+    static final int DEFAULT_AGE_BUCKET = 10;
+    // longest a request for changes can wait for one
+    static final int MAX_CHANGES_WAIT_SECONDS = 60;
+    // largest number of items accepted by one batch request
+    static final int MAX_BATCH_SIZE = 10_000;
+    // query parameters of fetchUsers that are not conditions on a user field
+    private static final Set<String> RESERVED_PARAMETERS = Set.of("limit", "cursor", "stream", "sort", "explain");
+    // what stream=true can be written as, json first so it wins a tie
+    private static final List<Variant> STREAM_VARIANTS = Variant
+            .mediaTypes(javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE, UserBinaryProvider.APPLICATION_USER_BINARY_TYPE)
+            .build();
+
     private UserService userService;
+    private ReactiveUserService reactiveUserService;
+    private ObjectMapper objectMapper;
+    // every method that calls the service hands that call to the executor, see
+    // UserRequestExecutor for where it runs
+    private UserRequestExecutor executor;
+    private UserChangeLog changeLog;
+    private UserReplication replication;
+    private UserEntityTags entityTags;
 
     @Autowired
-    public UserResourceResteasy(UserService userService) {
+    public UserResourceResteasy(UserService userService, ReactiveUserService reactiveUserService,
+            ObjectMapper objectMapper, UserRequestExecutor executor, UserChangeLog changeLog,
+            UserReplication replication) {
         this.userService = userService;
+        this.reactiveUserService = reactiveUserService;
+        this.objectMapper = objectMapper;
+        this.executor = executor;
+        this.changeLog = changeLog;
+        this.replication = replication;
+        this.entityTags = new UserEntityTags(replication::versionEpoch);
     }
 
+    // without limit or cursor this returns every user like before. with either of
+    // them it returns one page ordered by id and a Link header (rel="next") holding
+    // the cursor for the following page. stream=true writes the full list one user
+    // at a time instead of building it in memory first. every variant can also be
+    // had in the binary form of UserBinaryProvider, json stays the default.
+    // the query string can also filter and sort, age>=18&age<30&gender=female&sort=lastName
+    // (sort=-age for descending), see UserQuery. explain=true returns how the
+    // dao would find the users instead of the users
     @GET
+    @Produces({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY + ";qs=0.5" })
+    public void fetchUsers(@QueryParam("gender") String gender, @QueryParam("limit") Integer limit,
+            @QueryParam("cursor") String cursor, @QueryParam("stream") boolean stream, @QueryParam("sort") String sort,
+            @QueryParam("explain") boolean explain, @Context UriInfo uriInfo, @Context Request request,
+            @Suspended AsyncResponse asyncResponse) throws IllegalArgumentException {
+        List<String> filter = filterExpressions(uriInfo.getRequestUri().getRawQuery());
+        if (!filter.isEmpty() || sort != null || explain) {
+            if (stream) {
+                throw new BadRequestException("stream only supports the gender parameter");
+            }
+            fetchUsers(query(filter, gender, sort, limit, cursor), explain, limit != null || cursor != null,
+                    uriInfo.getRequestUri().getRawQuery(), uriInfo.getAbsolutePathBuilder(), asyncResponse);
+            return;
+        }
+        if (stream) {
+            // a StreamingOutput writes its own bytes, so the format is picked here
+            Variant variant = request.selectVariant(STREAM_VARIANTS);
+            UserStreamingOutput.Format format = variant != null
+                    && variant.getMediaType().equals(UserBinaryProvider.APPLICATION_USER_BINARY_TYPE)
+                            ? UserStreamingOutput.Format.BINARY
+                            : UserStreamingOutput.Format.JSON_ARRAY;
+            // the users are read while the response is written, so there is nothing to hand off
+            asyncResponse.resume(Response.ok(new UserStreamingOutput(
+                    reactiveUserService.getAllUsers(Optional.ofNullable(gender)), objectMapper, format),
+                    format == UserStreamingOutput.Format.BINARY ? UserBinaryProvider.APPLICATION_USER_BINARY_TYPE
+                            : javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE)
+                    .build());
+            return;
+        }
+        if (limit == null && cursor == null) {
+            executor.resume(asyncResponse,
+                    () -> Response.ok(usersEntity(userService.getAllUsers(Optional.ofNullable(gender)))).build());
+            return;
+        }
+        int pageSize = limit == null ? MAX_PAGE_SIZE : limit;
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        Optional<UUID> after = parseCursor(cursor);
+        // read on the request thread, the UriInfo of a request is not meant to be used from others
+        UriBuilder nextUri = uriInfo.getRequestUriBuilder();
+        executor.resume(asyncResponse, () -> {
+            List<User> page = userService.getUsersPage(Optional.ofNullable(gender), after, pageSize);
+            Response.ResponseBuilder response = Response.ok(usersEntity(page));
+            if (page.size() == pageSize) {
+                // a full page means there may be more users after the last one
+                String next = page.get(page.size() - 1).getUserUid().toString();
+                response.link(nextUri.replaceQueryParam("cursor", next).replaceQueryParam("limit", pageSize).build(),
+                        "next");
+            }
+            return response.build();
+        });
+    }
+
+    private void fetchUsers(UserQuery query, boolean explain, boolean paged, String rawQuery, UriBuilder nextUri,
+            AsyncResponse asyncResponse) {
+        if (explain) {
+            executor.resume(asyncResponse, () -> Response.ok(userService.explainUsers(query))
+                    .type(javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE).build());
+            return;
+        }
+        executor.resume(asyncResponse, () -> {
+            List<User> users = userService.findUsers(query);
+            Response.ResponseBuilder response = Response.ok(usersEntity(users));
+            if (paged && query.isOrderedByUserUid() && users.size() == query.getLimit()) {
+                String next = users.get(users.size() - 1).getUserUid().toString();
+                response.link(nextUri.replaceQuery(nextPageQuery(rawQuery, next, query.getLimit())).build(), "next");
+            }
+            return response.build();
+        });
+    }
+
+    // newline delimited json, picked with Accept: application/x-ndjson. every user
+    // is written as soon as it is read so the heap stays flat for any number of users
+    @GET
+    // the low qs keeps plain json the default for clients that accept anything
+    @Produces(UserStreamingOutput.APPLICATION_NDJSON + ";qs=0.5")
+    public Response streamUsers(@QueryParam("gender") String gender) {
+        return Response.ok(new UserStreamingOutput(reactiveUserService.getAllUsers(Optional.ofNullable(gender)),
+                objectMapper, UserStreamingOutput.Format.NDJSON)).build();
+    }
+
+    // the writes to the store since sequence from, for clients that keep a copy
+    // of the users in step instead of polling the whole list. a client reads
+    // next without from, then all users, then follows from that next: changes
+    // made in between come again and are simply applied once more. each
+    // response holds the next sequence to ask for. with wait the request is
+    // held up to wait seconds until there is a change. 410 means from is no
+    // longer in the log and the client has to read all users again
+    @GET
+    @Path("changes")
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    public List<User> fetchUsers(@QueryParam("gender") Optional<String> gender) throws IllegalArgumentException {
-        return userService.getAllUsers(gender);
+    public void fetchChanges(@QueryParam("from") Long from, @QueryParam("limit") Integer limit,
+            @QueryParam("wait") Integer wait, @Suspended AsyncResponse asyncResponse) {
+        int pageSize = limit == null ? MAX_PAGE_SIZE : limit;
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        int waitSeconds = wait == null ? 0 : wait;
+        if (waitSeconds < 0 || waitSeconds > MAX_CHANGES_WAIT_SECONDS) {
+            throw new BadRequestException("wait must be between 0 and " + MAX_CHANGES_WAIT_SECONDS);
+        }
+        long start = from == null ? changeLog.nextSequence() : from;
+        UserChangePage page = readChanges(start, pageSize);
+        if (!page.getChanges().isEmpty() || waitSeconds == 0) {
+            asyncResponse.resume(page);
+            return;
+        }
+        // resumed on one of the change log's threads, or with the empty page on timeout
+        CompletableFuture<Void> changed = changeLog.whenAvailable(start);
+        asyncResponse.setTimeoutHandler(response -> {
+            changed.cancel(false);
+            response.resume(page);
+        });
+        asyncResponse.setTimeout(waitSeconds, TimeUnit.SECONDS);
+        changed.thenRun(() -> {
+            try {
+                asyncResponse.resume(readChanges(start, pageSize));
+            } catch (WebApplicationException e) {
+                asyncResponse.resume(e);
+            }
+        });
+    }
+
+    // the same changes as server-sent events, see UserChangeEvents. an
+    // EventSource reconnecting with Last-Event-ID picks up after that event
+    @GET
+    @Path("changes")
+    @Produces(javax.ws.rs.core.MediaType.SERVER_SENT_EVENTS)
+    public ChunkedOutput<String> followChanges(@QueryParam("from") Long from,
+            @HeaderParam("Last-Event-ID") String lastEventId) {
+        long start;
+        if (from != null) {
+            start = from;
+        } else if (lastEventId != null) {
+            try {
+                start = Long.parseLong(lastEventId.trim()) + 1;
+            } catch (NumberFormatException e) {
+                throw new BadRequestException("invalid Last-Event-ID " + lastEventId, e);
+            }
+        } else {
+            start = changeLog.nextSequence();
+        }
+        return UserChangeEvents.follow(changeLog, objectMapper, start);
+    }
+
+    // prefix search for support tools: users with a word of their first or last
+    // name, or their email, starting with every word of q, ignoring case. so
+    // q=ann finds Anna and Joanne Annable, q=anna.m finds anna.montana@gmail.com
+    // and q=ann mon needs both. results are ordered by the matching word and
+    // paged with limit and offset
+    @GET
+    @Path("search")
+    @Produces({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY + ";qs=0.5" })
+    public void searchUsers(@QueryParam("q") String query, @QueryParam("limit") Integer limit,
+            @QueryParam("offset") Integer offset, @Suspended AsyncResponse asyncResponse) {
+        if (query == null || query.trim().isEmpty()) {
+            throw new BadRequestException("q must not be empty");
+        }
+        int pageSize = limit == null ? DEFAULT_SEARCH_LIMIT : limit;
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        int skip = offset == null ? 0 : offset;
+        if (skip < 0 || skip > MAX_SEARCH_OFFSET) {
+            throw new BadRequestException("offset must be between 0 and " + MAX_SEARCH_OFFSET);
+        }
+        executor.resume(asyncResponse,
+                () -> Response.ok(usersEntity(userService.searchUsers(query, skip, pageSize))).build());
     }
 
+    // the role of this instance in replication and how far it got, see
+    // UserReplication. on a leader it lists the followers and their lag
     @GET
+    @Path("replication")
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    @Path("{userUid}")
-    public Response fetchUser(@PathVariable("userUid") UUID userUid) {
-        Optional<User> userOptional = userService.getUser(userUid);
-        if (userOptional.isPresent()) {
-            return Response.ok(userOptional.get()).build();
+    public ReplicationStatus fetchReplicationStatus() {
+        return replication.status();
+    }
+
+    // counts for dashboards instead of the users themselves: the total plus one
+    // count per group. groupBy takes gender, age or both (comma separated or
+    // repeated, gender when missing), ageBucket is the width of the age groups
+    // in years. see UserService.getStats for how each grouping is counted
+    @GET
+    @Path("stats")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    public void fetchStats(@QueryParam("groupBy") List<String> groupBy, @QueryParam("ageBucket") Integer ageBucket,
+            @Suspended AsyncResponse asyncResponse) {
+        Set<String> groupings = new HashSet<>();
+        for (String value : groupBy.isEmpty() ? Collections.singletonList("gender") : groupBy) {
+            for (String grouping : value.split(",")) {
+                grouping = grouping.trim().toLowerCase(Locale.ROOT);
+                if (!grouping.equals("gender") && !grouping.equals("age") && !grouping.isEmpty()) {
+                    throw new BadRequestException("groupBy must be gender, age or both but was " + grouping);
+                }
+                groupings.add(grouping);
+            }
+        }
+        int width = ageBucket == null ? DEFAULT_AGE_BUCKET : ageBucket;
+        if (width <= 0) {
+            throw new BadRequestException("ageBucket must be positive");
         }
-        return Response.status(Status.NOT_FOUND).entity(new ErrorMessage("user " + userUid + " was not found."))
-                .build();
+        executor.resume(asyncResponse, () -> Response
+                .ok(userService.getStats(groupings.contains("gender"), groupings.contains("age"), width)).build());
+    }
+
+    // the user comes with its version as an ETag. a client that sends that tag
+    // back in If-None-Match gets a 304 without a body while the user is unchanged
+    @GET
+    @Produces({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY + ";qs=0.5" })
+    @Path("{userUid}")
+    public void fetchUser(@PathParam("userUid") UUID userUid, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+            @Suspended AsyncResponse asyncResponse) {
+        executor.resume(asyncResponse, () -> {
+            Optional<User> userOptional = userService.getUser(userUid);
+            if (userOptional.isPresent()) {
+                User user = userOptional.get();
+                if (entityTags.matchesAny(ifNoneMatch, user)) {
+                    return Response.notModified(entityTags.of(user)).build();
+                }
+                return Response.ok(user).tag(entityTags.of(user)).build();
+            }
+            // the error is json whatever the user would have been sent as
+            return Response.status(Status.NOT_FOUND).type(javax.ws.rs.core.MediaType.APPLICATION_JSON_TYPE)
+                    .entity(new ErrorMessage("user " + userUid + " was not found.")).build();
+        });
     }
 
     class ErrorMessage {
@@ -73,34 +360,281 @@ public class UserResourceResteasy {
 
     @POST
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    @Consumes(MediaType.APPLICATION_JSON_VALUE)
-    public Response insertNewUser(@RequestBody User user) {
-        int result = userService.insertUser(user);
-        return getIntegerResponseEntity(result);
+    @Consumes({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY })
+    public void insertNewUser(@RequestBody User user, @Suspended AsyncResponse asyncResponse) {
+        executor.resume(asyncResponse, () -> getOutcomeResponse(userService.insertUser(user), user));
     }
 
-    // Put method allows us to modify what we already have in our database
+    // Put method allows us to modify what we already have in our database.
+    // with If-Match it only updates while the user is still at the version of
+    // one of the given tags and answers 412 otherwise
     @PUT
     @Produces(MediaType.APPLICATION_JSON_VALUE)
-    @Consumes(MediaType.APPLICATION_JSON_VALUE)
-    public Response updateUser(@RequestBody User user) {
-        // updates the user if user is present
-        int result = userService.updateUser(user);
-        return getIntegerResponseEntity(result);
+    @Consumes({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY })
+    public void updateUser(@RequestBody User user, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+            @Suspended AsyncResponse asyncResponse) {
+        if (ifMatch == null) {
+            // updates the user if user is present
+            executor.resume(asyncResponse, () -> getOutcomeResponse(userService.updateUser(user), user));
+            return;
+        }
+        executor.resume(asyncResponse, () -> getConditionalResponse(ifMatch(ifMatch,
+                () -> userService.updateUser(user), version -> userService.updateUser(user, version)), user));
     }
 
     // All the methods may produce an application_json_value
     @DELETE
     @Produces(MediaType.APPLICATION_JSON_VALUE)
     @Path("{userUid}")
-    public Response deleteUser(@PathVariable("userUid") UUID userUid) {
-        // remove user only if the user is present
-        int result = userService.removeUser(userUid);
-        return getIntegerResponseEntity(result);
+    public void deleteUser(@PathParam("userUid") UUID userUid, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+            @Suspended AsyncResponse asyncResponse) {
+        if (ifMatch == null) {
+            // remove user only if the user is present
+            executor.resume(asyncResponse, () -> getOutcomeResponse(userService.removeUser(userUid)));
+            return;
+        }
+        executor.resume(asyncResponse, () -> getConditionalResponse(ifMatch(ifMatch,
+                () -> userService.removeUser(userUid), version -> userService.removeUser(userUid, version)), null));
+    }
+
+    // batch endpoints take a json array, newline delimited json or (for users)
+    // the binary form and answer with one BatchResult per item, in the same
+    // order as the request
+
+    @POST
+    @Path("batch")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY })
+    public void insertNewUsers(List<User> users, @Suspended AsyncResponse asyncResponse) {
+        checkBatchSize(users.size());
+        // a rejected insert never got stored so there is no id to hand back
+        executor.resume(asyncResponse, () -> toBatchResults(users, userService.insertUsers(users), false));
+    }
+
+    @POST
+    @Path("batch")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes(UserStreamingOutput.APPLICATION_NDJSON)
+    public void insertNewUsersNdjson(InputStream body, @Suspended AsyncResponse asyncResponse) throws IOException {
+        insertNewUsers(readNdjson(body, User.class), asyncResponse);
+    }
+
+    @PUT
+    @Path("batch")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes({ MediaType.APPLICATION_JSON_VALUE, UserBinaryProvider.APPLICATION_USER_BINARY })
+    public void updateUsers(List<User> users, @Suspended AsyncResponse asyncResponse) {
+        checkBatchSize(users.size());
+        executor.resume(asyncResponse, () -> toBatchResults(users, userService.updateUsers(users), true));
+    }
+
+    @PUT
+    @Path("batch")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes(UserStreamingOutput.APPLICATION_NDJSON)
+    public void updateUsersNdjson(InputStream body, @Suspended AsyncResponse asyncResponse) throws IOException {
+        updateUsers(readNdjson(body, User.class), asyncResponse);
+    }
+
+    // a DELETE with a body is not reliably passed on by proxies, so deleting a
+    // batch is a POST of the ids to delete
+    @POST
+    @Path("batch/delete")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes(MediaType.APPLICATION_JSON_VALUE)
+    public void deleteUsers(List<UUID> userUids, @Suspended AsyncResponse asyncResponse) {
+        checkBatchSize(userUids.size());
+        executor.resume(asyncResponse, () -> {
+            WriteOutcome[] outcomes = userService.removeUsers(userUids);
+            List<BatchResult> batchResults = new ArrayList<>(outcomes.length);
+            for (int i = 0; i < outcomes.length; i++) {
+                batchResults.add(new BatchResult(i, userUids.get(i), toItemStatus(outcomes[i])));
+            }
+            return batchResults;
+        });
+    }
+
+    @POST
+    @Path("batch/delete")
+    @Produces(MediaType.APPLICATION_JSON_VALUE)
+    @Consumes(UserStreamingOutput.APPLICATION_NDJSON)
+    public void deleteUsersNdjson(InputStream body, @Suspended AsyncResponse asyncResponse) throws IOException {
+        deleteUsers(readNdjson(body, UUID.class), asyncResponse);
+    }
+
+    // keeps the element type of the list, which PrecomputedUserJsonWriter needs to
+    // pick up a list of users
+    private GenericEntity<List<User>> usersEntity(List<User> users) {
+        return new GenericEntity<List<User>>(users) {
+        };
+    }
+
+    private <T> List<T> readNdjson(InputStream body, Class<T> type) throws IOException {
+        List<T> items = new ArrayList<>();
+        try (MappingIterator<T> iterator = objectMapper.readerFor(type).readValues(body)) {
+            while (iterator.hasNextValue()) {
+                // checked while reading so an oversized body is never fully held in memory
+                checkBatchSize(items.size() + 1);
+                items.add(iterator.nextValue());
+            }
+        }
+        return items;
+    }
+
+    private void checkBatchSize(int size) {
+        if (size > MAX_BATCH_SIZE) {
+            throw new BadRequestException("a batch can hold at most " + MAX_BATCH_SIZE + " items");
+        }
+    }
+
+    private List<BatchResult> toBatchResults(List<User> users, WriteOutcome[] outcomes, boolean includeRejectedIds) {
+        List<BatchResult> batchResults = new ArrayList<>(outcomes.length);
+        for (int i = 0; i < outcomes.length; i++) {
+            User user = users.get(i);
+            UUID id = user != null && (outcomes[i] == WriteOutcome.APPLIED || includeRejectedIds)
+                    ? user.getUserUid() : null;
+            batchResults.add(new BatchResult(i, id, toItemStatus(outcomes[i])));
+        }
+        return batchResults;
+    }
+
+    // applied is 200, a missing user 404 and any other refusal 400
+    private int toItemStatus(WriteOutcome outcome) {
+        if (outcome == WriteOutcome.APPLIED) {
+            return Status.OK.getStatusCode();
+        }
+        if (outcome == WriteOutcome.NOT_FOUND) {
+            return Status.NOT_FOUND.getStatusCode();
+        }
+        return Status.BAD_REQUEST.getStatusCode();
+    }
+
+    // the parameters of the raw query string that are conditions on a user
+    // field. jersey would split age>=18 into a parameter named age> so they are
+    // decoded here one at a time. gender=... on its own is the old gender
+    // parameter. parameters that are neither are ignored like
+    // they always were, but a comparison on them is an error
+    static List<String> filterExpressions(String rawQuery) {
+        List<String> expressions = new ArrayList<>();
+        if (rawQuery == null) {
+            return expressions;
+        }
+        for (String part : rawQuery.split("&")) {
+            String expression;
+            try {
+                expression = URLDecoder.decode(part, StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new BadRequestException("invalid query parameter " + part, e);
+            }
+            int at = 0;
+            while (at < expression.length() && "<>=!".indexOf(expression.charAt(at)) < 0) {
+                at++;
+            }
+            String name = expression.substring(0, at);
+            boolean equals = at == expression.length() || expression.startsWith("=", at);
+            if (RESERVED_PARAMETERS.contains(name) || equals && (name.equals("gender") || !isField(name))) {
+                continue;
+            }
+            expressions.add(expression);
+        }
+        return expressions;
+    }
+
+    // the query string with cursor and limit replaced. built from the raw parts
+    // because replaceQueryParam would turn age>40 into a parameter named age>40
+    static String nextPageQuery(String rawQuery, String cursor, int limit) {
+        StringJoiner query = new StringJoiner("&");
+        for (String part : rawQuery.split("&")) {
+            if (!part.isEmpty() && !part.startsWith("cursor=") && !part.startsWith("limit=")) {
+                query.add(part);
+            }
+        }
+        return query.add("cursor=" + cursor).add("limit=" + limit).toString();
+    }
+
+    private static boolean isField(String name) {
+        for (UserQuery.Field field : UserQuery.Field.values()) {
+            if (field.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // without limit the query returns every match like the plain list does, a
+    // cursor alone pages by MAX_PAGE_SIZE
+    private UserQuery query(List<String> filter, String gender, String sort, Integer limit, String cursor) {
+        int pageSize = limit != null ? limit : cursor != null ? MAX_PAGE_SIZE : Integer.MAX_VALUE;
+        if (limit != null && (pageSize <= 0 || pageSize > MAX_PAGE_SIZE)) {
+            throw new BadRequestException("limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+        Optional<UUID> after = parseCursor(cursor);
+        try {
+            List<String> expressions = new ArrayList<>(filter);
+            if (gender != null) {
+                expressions.add("gender=" + gender);
+            }
+            boolean descending = sort != null && sort.startsWith("-");
+            UserQuery.Field sortField = sort == null ? null : UserQuery.Field.named(sort.substring(descending ? 1 : 0));
+            return new UserQuery(UserQuery.parseConditions(expressions), sortField, descending, after.orElse(null),
+                    pageSize);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage(), e);
+        }
+    }
+
+    private UserChangePage readChanges(long from, int limit) {
+        return changeLog.read(from, limit).orElseThrow(() -> new WebApplicationException(
+                "sequence " + from + " is no longer in the change log", Status.GONE));
+    }
+
+    private Optional<UUID> parseCursor(String cursor) {
+        if (cursor == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(UuidParamConverterProvider.parse(cursor));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("invalid cursor " + cursor, e);
+        }
+    }
+
+    // * matches any current version. otherwise every tag is tried as its own
+    // compare and set: at most one of them can be the current version, and the
+    // write only ever happens at a version the client has seen
+    private WriteOutcome ifMatch(String ifMatch, Supplier<WriteOutcome> anyVersion,
+            LongFunction<WriteOutcome> atVersion) {
+        if (UserEntityTags.isWildcard(ifMatch)) {
+            return anyVersion.get();
+        }
+        WriteOutcome outcome = WriteOutcome.VERSION_CONFLICT;
+        for (long version : entityTags.versions(ifMatch)) {
+            outcome = atVersion.apply(version);
+            if (outcome != WriteOutcome.VERSION_CONFLICT) {
+                break;
+            }
+        }
+        return outcome;
+    }
+
+    // a failed If-Match is 412 whether the user changed or is gone
+    private Response getConditionalResponse(WriteOutcome outcome, User written) {
+        if (outcome == WriteOutcome.VERSION_CONFLICT || outcome == WriteOutcome.NOT_FOUND) {
+            return Response.status(Status.PRECONDITION_FAILED).build();
+        }
+        return getOutcomeResponse(outcome, written);
+    }
+
+    // an applied write hands back the ETag of the new version
+    private Response getOutcomeResponse(WriteOutcome outcome, User written) {
+        if (outcome == WriteOutcome.APPLIED && written != null) {
+            return Response.ok().tag(entityTags.of(written)).build();
+        }
+        return getOutcomeResponse(outcome);
     }
 
-    private Response getIntegerResponseEntity(int result) {
-        if (result == 1) {
+    private Response getOutcomeResponse(WriteOutcome outcome) {
+        if (outcome == WriteOutcome.APPLIED) {
             // .build() to convert it into an integer response code
             return Response.ok().build();
         }
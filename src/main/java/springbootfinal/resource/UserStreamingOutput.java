@@ -0,0 +1,82 @@
+package springbootfinal.resource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import reactor.core.publisher.Flux;
+import springbootfinal.model.User;
+
+// Writes users to the response one at a time as they come out of the Flux,
+// so the heap used by a response does not grow with the number of users.
+// JSON_ARRAY produces exactly the same bytes as serializing a List<User>,
+// BINARY the same bytes as UserBinaryProvider writing one.
+//
+// The Flux is only subscribed once the response is written, and never more
+// than DEMAND users are requested ahead of what has been written. A slow
+// client blocks the write, which stops the requests, which stops the dao from
+// reading further. A client that goes away cancels the Flux.
+class UserStreamingOutput implements StreamingOutput {
+
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+    static final int DEMAND = 256;
+
+    enum Format {
+        NDJSON, JSON_ARRAY, BINARY
+    }
+
+    private final Flux<User> users;
+    private final ObjectWriter writer;
+    private final Format format;
+
+    UserStreamingOutput(Flux<User> users, ObjectMapper objectMapper, Format format) {
+        this.users = users;
+        // the container buffers and chunks the output, flushing after every user
+        // would send a tiny chunk per user
+        this.writer = objectMapper.writerFor(User.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n");
+        this.format = format;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        if (format == Format.BINARY) {
+            writeBinary(output);
+            return;
+        }
+        // closing the stream cancels the subscription
+        try (Stream<User> toWrite = users.toStream(DEMAND);
+                SequenceWriter sequence = format == Format.JSON_ARRAY ? writer.writeValuesAsArray(output)
+                        : writer.writeValues(output)) {
+            Iterator<User> iterator = toWrite.iterator();
+            boolean empty = !iterator.hasNext();
+            while (iterator.hasNext()) {
+                sequence.write(iterator.next());
+            }
+            if (format == Format.NDJSON && !empty) {
+                // every line ends with a newline, including the last one
+                sequence.flush();
+                output.write('\n');
+            }
+        }
+    }
+
+    private void writeBinary(OutputStream output) throws IOException {
+        UserBinaryProvider.Encoder encoder = new UserBinaryProvider.Encoder(output);
+        try (Stream<User> toWrite = users.toStream(DEMAND)) {
+            Iterator<User> iterator = toWrite.iterator();
+            while (iterator.hasNext()) {
+                encoder.writeUser(iterator.next());
+            }
+        }
+        encoder.flush();
+    }
+}
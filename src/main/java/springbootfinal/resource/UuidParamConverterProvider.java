@@ -0,0 +1,122 @@
+package springbootfinal.resource;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.*;
+
+import javax.ws.rs.CookieParam;
+import javax.ws.rs.FormParam;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.ext.ParamConverter;
+import javax.ws.rs.ext.ParamConverterProvider;
+import javax.ws.rs.ext.Provider;
+
+// Converts UUID parameters like {userUid}. without it jersey finds
+// UUID.fromString by reflection and calls it through a Method for every
+// request. the canonical 36 character form is decoded straight into the two
+// longs, so the UUID is the only allocation whatever UUID.fromString does on
+// the running jdk. anything else goes to UUID.fromString, which keeps
+// accepting whatever it accepted before.
+//
+// jersey turns an IllegalArgumentException from a ParamConverter into the
+// parameter's default value, null, so a bad uuid is answered here instead:
+// 404 like jersey's own conversion for path, query and matrix parameters, 400
+// for the others
+@Provider
+public class UuidParamConverterProvider implements ParamConverterProvider {
+
+    private static final ParamConverter<UUID> NOT_FOUND_CONVERTER = new UuidParamConverter(Status.NOT_FOUND);
+    private static final ParamConverter<UUID> BAD_REQUEST_CONVERTER = new UuidParamConverter(Status.BAD_REQUEST);
+
+    // value of every hex digit by its char, -1 for every other char below 256
+    private static final byte[] HEX = new byte[256];
+
+    static {
+        Arrays.fill(HEX, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX['a' + i] = (byte) (10 + i);
+            HEX['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> ParamConverter<T> getConverter(Class<T> rawType, Type genericType, Annotation[] annotations) {
+        if (!UUID.class.equals(rawType)) {
+            return null;
+        }
+        for (Annotation annotation : annotations == null ? new Annotation[0] : annotations) {
+            if (annotation instanceof HeaderParam || annotation instanceof CookieParam
+                    || annotation instanceof FormParam) {
+                return (ParamConverter<T>) BAD_REQUEST_CONVERTER;
+            }
+        }
+        return (ParamConverter<T>) NOT_FOUND_CONVERTER;
+    }
+
+    // xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx
+    static UUID parse(String value) {
+        if (value.length() != 36 || value.charAt(8) != '-' || value.charAt(13) != '-' || value.charAt(18) != '-'
+                || value.charAt(23) != '-') {
+            return UUID.fromString(value);
+        }
+        long group1 = hex4(value, 0);
+        long group2 = hex4(value, 4);
+        long group3 = hex4(value, 9);
+        long group4 = hex4(value, 14);
+        long group5 = hex4(value, 19);
+        long group6 = hex4(value, 24);
+        long group7 = hex4(value, 28);
+        long group8 = hex4(value, 32);
+        // an invalid group is negative, checked once for all of them
+        if ((group1 | group2 | group3 | group4 | group5 | group6 | group7 | group8) < 0) {
+            throw new IllegalArgumentException("invalid uuid " + value);
+        }
+        return new UUID(group1 << 48 | group2 << 32 | group3 << 16 | group4,
+                group5 << 48 | group6 << 32 | group7 << 16 | group8);
+    }
+
+    // the four hex digits from offset on as 16 bits, negative if one is not a
+    // hex digit
+    private static long hex4(String value, int offset) {
+        char c1 = value.charAt(offset);
+        char c2 = value.charAt(offset + 1);
+        char c3 = value.charAt(offset + 2);
+        char c4 = value.charAt(offset + 3);
+        if ((c1 | c2 | c3 | c4) > 0xff) {
+            return -1;
+        }
+        return HEX[c1] << 12 | HEX[c2] << 8 | HEX[c3] << 4 | HEX[c4];
+    }
+
+    private static final class UuidParamConverter implements ParamConverter<UUID> {
+
+        private final Status status;
+
+        UuidParamConverter(Status status) {
+            this.status = status;
+        }
+
+        @Override
+        public UUID fromString(String value) {
+            if (value == null) {
+                throw new IllegalArgumentException("uuid must not be null");
+            }
+            try {
+                return parse(value);
+            } catch (IllegalArgumentException e) {
+                throw new WebApplicationException(e, status);
+            }
+        }
+
+        @Override
+        public String toString(UUID value) {
+            return value.toString();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package springbootfinal.service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.model.User;
+
+// Bounded UserCache on top of Caffeine, which evicts with W-TinyLFU so the few
+// hot users stay cached even when a scan touches many cold ones.
+// A load and an invalidate of the same userUid are serialized by Caffeine, so
+// an invalidate can never be overtaken by a load that read the old user.
+@Component
+@ConditionalOnProperty(name = "user.cache.type", havingValue = "caffeine", matchIfMissing = true)
+public class CaffeineUserCache implements UserCache {
+
+    private final Cache<UUID, User> cache;
+
+    @Autowired
+    public CaffeineUserCache(@Value("${user.cache.maximum-size:100000}") long maximumSize,
+            @Value("${user.cache.expire-after-write-seconds:0}") long expireAfterWriteSeconds) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maximumSize).recordStats();
+        // 0 means users stay cached until they are written or evicted
+        if (expireAfterWriteSeconds > 0) {
+            builder.expireAfterWrite(Duration.ofSeconds(expireAfterWriteSeconds));
+        }
+        cache = builder.build();
+    }
+
+    @Override
+    public Optional<User> get(UUID userUid, Function<UUID, Optional<User>> loader) {
+        // returning null from the mapping function caches nothing
+        return Optional.ofNullable(cache.get(userUid, key -> loader.apply(key).orElse(null)));
+    }
+
+    @Override
+    public void invalidate(UUID userUid) {
+        cache.invalidate(userUid);
+    }
+
+    @Override
+    public UserCacheStats stats() {
+        CacheStats stats = cache.stats();
+        return new UserCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                cache.estimatedSize());
+    }
+}
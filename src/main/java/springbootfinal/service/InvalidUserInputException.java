@@ -0,0 +1,10 @@
+package springbootfinal.service;
+
+// input from a client that the service cannot use, like an unknown gender.
+// the api answers it with 400, unlike the exceptions of a failing store
+public class InvalidUserInputException extends IllegalArgumentException {
+
+    public InvalidUserInputException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,33 @@
+package springbootfinal.service;
+
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import springbootfinal.model.User;
+
+// UserCache that caches nothing, every get is a miss that goes to the loader
+@Component
+@ConditionalOnProperty(name = "user.cache.type", havingValue = "none")
+public class NoUserCache implements UserCache {
+
+    private final LongAdder misses = new LongAdder();
+
+    @Override
+    public Optional<User> get(UUID userUid, Function<UUID, Optional<User>> loader) {
+        misses.increment();
+        return loader.apply(userUid);
+    }
+
+    @Override
+    public void invalidate(UUID userUid) {
+    }
+
+    @Override
+    public UserCacheStats stats() {
+        return new UserCacheStats(0, misses.sum(), 0, 0);
+    }
+}
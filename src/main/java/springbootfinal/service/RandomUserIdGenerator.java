@@ -0,0 +1,18 @@
+package springbootfinal.service;
+
+import java.util.*;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// UUID.randomUUID(), a version 4 uuid from SecureRandom. unguessable, but every
+// inserting thread goes through the one shared SecureRandom
+@Component
+@ConditionalOnProperty(name = "user.id.generator", havingValue = "random")
+public class RandomUserIdGenerator implements UserIdGenerator {
+
+    @Override
+    public UUID next() {
+        return UUID.randomUUID();
+    }
+}
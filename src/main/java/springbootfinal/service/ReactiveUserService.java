@@ -0,0 +1,39 @@
+package springbootfinal.service;
+
+import java.util.*;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import springbootfinal.dao.ReactiveUserDao;
+import springbootfinal.model.User;
+
+// Reactive counterpart of the reads in UserService, for consumers that want to
+// process users while they are still being read and to set the pace of the
+// read themselves.
+@Service
+public class ReactiveUserService {
+
+    private final ReactiveUserDao reactiveUserDao;
+
+    @Autowired
+    public ReactiveUserService(ReactiveUserDao reactiveUserDao) {
+        this.reactiveUserDao = reactiveUserDao;
+    }
+
+    // an invalid gender is thrown right away instead of as an error signal, so a
+    // caller can still reject the request before it starts writing users
+    public Flux<User> getAllUsers(Optional<String> gender) {
+        if (!gender.isPresent()) {
+            return reactiveUserDao.selectAllUsers();
+        }
+        return reactiveUserDao.selectUsersByGender(UserService.parseGender(gender.get()));
+    }
+
+    // reads the dao directly, UserService.getUser is the one that goes through the cache
+    public Mono<User> getUser(UUID userUid) {
+        return reactiveUserDao.selectUserByUserUid(userUid);
+    }
+}
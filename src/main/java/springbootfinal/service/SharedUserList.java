@@ -0,0 +1,29 @@
+package springbootfinal.service;
+
+import java.util.*;
+
+import springbootfinal.model.User;
+
+// The users of one getAllUsers call that UserService handed to several callers
+// at once. It cannot be changed (no list getAllUsers returns can), and since
+// every one of those callers holds this very object, whatever is worked out
+// from it once (like the json that PrecomputedUserJsonWriter renders) can be
+// kept against it for the others.
+public final class SharedUserList extends AbstractList<User> implements RandomAccess {
+
+    private final List<User> users;
+
+    SharedUserList(List<User> users) {
+        this.users = users;
+    }
+
+    @Override
+    public User get(int index) {
+        return users.get(index);
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+}
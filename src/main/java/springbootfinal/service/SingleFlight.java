@@ -0,0 +1,142 @@
+package springbootfinal.service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+// Collapses concurrent calls for equal keys into one: the first caller runs the
+// work, callers that come while it runs wait for it and get the same result, or
+// the same exception, instead of running it again. Nothing is kept once the
+// work finished, the next call runs it again.
+//
+// Every call takes the generation first and only joins work that started at
+// the same generation. UserService moves the generation on every write, so a
+// caller never gets a result that was read before a write it had already seen
+// complete.
+//
+// A result that went to more than one caller is passed through share first,
+// only then is it handed out, so a caller that gets a result nobody else got
+// gets it as the work returned it. Whatever the work returns has to be safe to
+// hand out to several callers either way.
+public class SingleFlight<K, V> {
+
+    private final LongSupplier generation;
+    private final UnaryOperator<V> share;
+    private final ConcurrentHashMap<Key<K>, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+
+    public SingleFlight(LongSupplier generation, UnaryOperator<V> share) {
+        this.generation = generation;
+        this.share = share;
+    }
+
+    public V run(K key, Supplier<V> work) {
+        Key<K> flightKey = new Key<>(key, generation.getAsLong());
+        Flight<V> flight = new Flight<>();
+        while (true) {
+            Flight<V> running = flights.putIfAbsent(flightKey, flight);
+            if (running == null) {
+                return lead(flightKey, flight, work);
+            }
+            if (running.join()) {
+                calls.increment();
+                return running.await();
+            }
+            // it finished after we found it and is leaving the map, go again
+        }
+    }
+
+    public SingleFlightStats stats() {
+        return new SingleFlightStats(calls.sum(), executions.sum());
+    }
+
+    private V lead(Key<K> flightKey, Flight<V> flight, Supplier<V> work) {
+        calls.increment();
+        executions.increment();
+        V value;
+        try {
+            value = work.get();
+        } catch (RuntimeException | Error e) {
+            flights.remove(flightKey, flight);
+            flight.close();
+            flight.result.completeExceptionally(e);
+            throw e;
+        }
+        // out of the map first, so every caller is either counted by close or
+        // runs the work itself
+        flights.remove(flightKey, flight);
+        if (flight.close() > 1) {
+            value = share.apply(value);
+        }
+        flight.result.complete(value);
+        return value;
+    }
+
+    private static final class Key<K> {
+        final K key;
+        final long generation;
+
+        Key(K key, long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key<?> that = (Key<?>) other;
+            return generation == that.generation && Objects.equals(key, that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hashCode(key) + Long.hashCode(generation);
+        }
+    }
+
+    private static final class Flight<V> {
+        final CompletableFuture<V> result = new CompletableFuture<>();
+        // the callers waiting for result, the one running it included, or -1
+        // once the result is decided and nobody can join any more
+        final AtomicInteger callers = new AtomicInteger(1);
+
+        boolean join() {
+            int current;
+            do {
+                current = callers.get();
+                if (current < 0) {
+                    return false;
+                }
+            } while (!callers.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        // returns how many callers get the result
+        int close() {
+            return callers.getAndSet(-1);
+        }
+
+        V await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package springbootfinal.service;
+
+// counters of a SingleFlight since it was created
+public class SingleFlightStats {
+
+    private final long calls;
+    private final long executions;
+
+    public SingleFlightStats(long calls, long executions) {
+        this.calls = calls;
+        this.executions = executions;
+    }
+
+    public long getCalls() {
+        return calls;
+    }
+
+    public long getExecutions() {
+        return executions;
+    }
+
+    // calls that waited for work another call was already running. the two
+    // counters are read one after the other, a call can be in one only
+    public long getCoalesced() {
+        return Math.max(0, calls - executions);
+    }
+
+    public double getCoalescingRatio() {
+        return calls == 0 ? 0 : (double) getCoalesced() / calls;
+    }
+}
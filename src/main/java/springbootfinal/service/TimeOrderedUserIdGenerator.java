@@ -0,0 +1,35 @@
+package springbootfinal.service;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Version 7 uuids (RFC 9562): the first 48 bits are the unix time in
+// milliseconds and the other 74 bits not taken by version and variant are
+// random. The random bits come from ThreadLocalRandom, so inserting threads
+// share nothing. Ids from different milliseconds sort in insert order, which
+// keeps new users at the end of the ordered index and close together in logs.
+//
+// ThreadLocalRandom is not a secure random, with user.id.generator=random the
+// ids are v4 uuids from SecureRandom for anyone relying on them being
+// unguessable
+@Component
+@ConditionalOnProperty(name = "user.id.generator", havingValue = "time-ordered", matchIfMissing = true)
+public class TimeOrderedUserIdGenerator implements UserIdGenerator {
+
+    private static final long VERSION_7 = 0x7000L;
+    private static final long VARIANT_RFC = 0x8000_0000_0000_0000L;
+
+    @Override
+    public UUID next() {
+        return next(System.currentTimeMillis(), ThreadLocalRandom.current());
+    }
+
+    static UUID next(long unixMillis, Random random) {
+        long mostSigBits = (unixMillis << 16) | VERSION_7 | (random.nextInt() & 0x0fff);
+        long leastSigBits = VARIANT_RFC | (random.nextLong() >>> 2);
+        return new UUID(mostSigBits, leastSigBits);
+    }
+}
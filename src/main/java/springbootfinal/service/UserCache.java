@@ -0,0 +1,18 @@
+package springbootfinal.service;
+
+import java.util.*;
+import java.util.function.Function;
+
+import springbootfinal.model.User;
+
+// Read-through cache in front of UserService.getUser. Only users that exist
+// are cached, a miss for an unknown userUid always goes back to the loader.
+public interface UserCache {
+
+    Optional<User> get(UUID userUid, Function<UUID, Optional<User>> loader);
+
+    // must be called after every write to the user so the next get reloads it
+    void invalidate(UUID userUid);
+
+    UserCacheStats stats();
+}
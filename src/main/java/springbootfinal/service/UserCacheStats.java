@@ -0,0 +1,38 @@
+package springbootfinal.service;
+
+// counters of a UserCache since it was created
+public class UserCacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long size;
+
+    public UserCacheStats(long hits, long misses, long evictions, long size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,9 @@
+package springbootfinal.service;
+
+import java.util.*;
+
+// Picks the userUid of every user UserService inserts
+public interface UserIdGenerator {
+
+    UUID next();
+}
@@ -1,11 +1,16 @@
 package springbootfinal.service;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
 import springbootfinal.model.User.Gender;
-import java.util.stream.Collectors;
 
 import org.springframework.stereotype.Service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 
 import springbootfinal.model.*;
 import springbootfinal.dao.*;
@@ -13,64 +18,353 @@ import springbootfinal.dao.*;
 @Service
 public class UserService {
 
+    private static final Gender[] GENDERS = Gender.values();
+    // longest firstName, lastName or email a write takes, in chars. keeps every
+    // user well inside what the write-ahead log and replication frames carry
+    static final int MAX_STRING_LENGTH = 1024;
+
     private UserDao userDao;
+    private UserCache userCache;
+    private UserIdGenerator userIdGenerator;
+    // concurrent identical reads share one dao read when
+    // user.single-flight.<operation> is on, see SingleFlight. null when off
+    private final SingleFlight<Optional<Gender>, List<User>> allUsersFlight;
+    private final SingleFlight<UUID, Optional<User>> userFlight;
+    // moved on by every write the dao applies, a read only joins another that
+    // started after the same writes
+    private final AtomicLong writes = new AtomicLong();
 
-    @Autowired
     public UserService(UserDao userDao) {
+        this(userDao, new NoUserCache());
+    }
+
+    public UserService(UserDao userDao, UserCache userCache) {
+        this(userDao, userCache, new TimeOrderedUserIdGenerator());
+    }
+
+    public UserService(UserDao userDao, UserCache userCache, UserIdGenerator userIdGenerator) {
+        this(userDao, userCache, userIdGenerator, false, false);
+    }
+
+    @Autowired
+    public UserService(UserDao userDao, UserCache userCache, UserIdGenerator userIdGenerator,
+            @Value("${user.single-flight.get-all-users:true}") boolean coalesceAllUsers,
+            @Value("${user.single-flight.get-user:true}") boolean coalesceUser) {
         this.userDao = userDao;
+        this.userCache = userCache;
+        this.userIdGenerator = userIdGenerator;
+        // every caller of a shared list holds the same object, which lets
+        // PrecomputedUserJsonWriter render its json once for all of them
+        this.allUsersFlight = coalesceAllUsers ? new SingleFlight<>(writes::get, SharedUserList::new) : null;
+        this.userFlight = coalesceUser ? new SingleFlight<>(writes::get, UnaryOperator.identity()) : null;
+        if (coalesceAllUsers || coalesceUser) {
+            userDao.addChangeListener((userUid, previous, current) -> writes.incrementAndGet());
+        }
     }
 
+    // the list cannot be changed, whether or not it was shared with concurrent
+    // callers (then it is a SharedUserList)
     public List<User> getAllUsers(Optional<String> gender) throws IllegalArgumentException {
-        // we will select all the users and then check if the users fulfil
-        // a certain gender
-        List<User> users = userDao.selectAllUsers();
+        Optional<Gender> theGender = gender.map(UserService::parseGender);
+        if (allUsersFlight == null) {
+            return selectAllUsers(theGender);
+        }
+        return allUsersFlight.run(theGender, () -> selectAllUsers(theGender));
+    }
 
+    private List<User> selectAllUsers(Optional<Gender> gender) {
         // that there is something in the Optional type
         if (!gender.isPresent()) {
-            return users;
+            return Collections.unmodifiableList(userDao.selectAllUsers());
+        }
+        // the dao answers this from its gender index instead of copying every user
+        return Collections.unmodifiableList(userDao.selectUsersByGender(gender.get()));
+    }
+
+    // one page of users ordered by userUid, starting after the cursor (the last
+    // userUid of the previous page) or from the beginning if there is no cursor
+    public List<User> getUsersPage(Optional<String> gender, Optional<UUID> cursor, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive but was " + limit);
+        }
+        if (!gender.isPresent()) {
+            return userDao.selectUsersAfter(cursor.orElse(null), limit, user -> true);
         }
-        // or else I will filter from the lists of Users
+        Gender theGender = parseGender(gender.get());
+        return userDao.selectUsersAfter(cursor.orElse(null), limit, user -> theGender.equals(user.getGender()));
+    }
+
+    // the users matching a filter like age>=18&gender=female, answered by the
+    // dao from whichever of its indexes narrows it down most
+    public List<User> findUsers(UserQuery query) {
+        return userDao.selectUsers(query);
+    }
+
+    // how findUsers would answer the query, without running it
+    public UserQueryPlan explainUsers(UserQuery query) {
+        return userDao.explain(query);
+    }
+
+    // users with words starting with every word of query, see UserDao.searchUsers
+    public List<User> searchUsers(String query, int offset, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive but was " + limit);
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must not be negative but was " + offset);
+        }
+        return userDao.searchUsers(query, offset, limit);
+    }
+
+    // counts users, grouped by gender, by age in buckets of ageBucketWidth years,
+    // by both or not at all. counts by gender or age alone come from the dao,
+    // which keeps them up to date on every write. anything else is counted by
+    // a parallel scan over all users on the common fork join pool
+    public UserStats getStats(boolean byGender, boolean byAge, int ageBucketWidth) {
+        if (ageBucketWidth <= 0) {
+            throw new IllegalArgumentException("ageBucketWidth must be positive but was " + ageBucketWidth);
+        }
+        List<String> groupBy = new ArrayList<>();
+        if (byGender) {
+            groupBy.add("gender");
+        }
+        if (byAge) {
+            groupBy.add("age");
+        }
+        Integer width = byAge ? ageBucketWidth : null;
+        long total = userDao.countUsers();
+        List<UserStats.Group> groups = new ArrayList<>();
+        if (byGender && byAge) {
+            // every fork counts into its own buckets and they are added up at the end
+            GenderCountsByAge counts = userDao.streamUsers().parallel().collect(Collector.of(
+                    () -> new GenderCountsByAge(ageBucketWidth), GenderCountsByAge::add, GenderCountsByAge::addAll));
+            counts.buckets.forEach((ageFrom, genderCounts) -> {
+                for (int i = 0; i < genderCounts.length; i++) {
+                    if (genderCounts[i] > 0) {
+                        groups.add(ageGroup(i < GENDERS.length ? GENDERS[i] : null, ageFrom, ageBucketWidth,
+                                genderCounts[i]));
+                    }
+                }
+            });
+        } else if (byGender) {
+            long withGender = 0;
+            for (Map.Entry<Gender, Long> count : userDao.countUsersByGender().entrySet()) {
+                withGender += count.getValue();
+                if (count.getValue() > 0) {
+                    groups.add(new UserStats.Group(count.getKey(), null, null, count.getValue()));
+                }
+            }
+            // the counts are taken one after the other, so they can disagree by a write
+            if (total > withGender) {
+                groups.add(new UserStats.Group(null, null, null, total - withGender));
+            }
+        } else if (byAge) {
+            SortedMap<Integer, Long> buckets = new TreeMap<>();
+            long withAge = 0;
+            for (Map.Entry<Integer, Long> count : userDao.countUsersByAge().entrySet()) {
+                withAge += count.getValue();
+                buckets.merge(ageBucket(count.getKey(), ageBucketWidth), count.getValue(), Long::sum);
+            }
+            buckets.forEach((from, count) -> groups.add(ageGroup(null, from, ageBucketWidth, count)));
+            if (total > withAge) {
+                groups.add(new UserStats.Group(null, null, null, total - withAge));
+            }
+        }
+        groups.sort(UserStats.Group.ORDER);
+        return new UserStats(total, groupBy, width, groups);
+    }
+
+    // users per gender in each age bucket, the counts of a bucket are indexed by
+    // gender ordinal with the users without a gender last. small ages box to
+    // cached Integers, so counting a user allocates nothing
+    private static final class GenderCountsByAge {
+
+        final int width;
+        final Map<Integer, long[]> buckets = new HashMap<>();
+
+        GenderCountsByAge(int width) {
+            this.width = width;
+        }
+
+        void add(User user) {
+            long[] byGender = buckets.computeIfAbsent(ageBucket(user.getAge(), width),
+                    ageFrom -> new long[GENDERS.length + 1]);
+            byGender[user.getGender() == null ? GENDERS.length : user.getGender().ordinal()]++;
+        }
+
+        GenderCountsByAge addAll(GenderCountsByAge other) {
+            other.buckets.forEach((ageFrom, counts) -> {
+                long[] byGender = buckets.computeIfAbsent(ageFrom, key -> new long[GENDERS.length + 1]);
+                for (int i = 0; i < counts.length; i++) {
+                    byGender[i] += counts[i];
+                }
+            });
+            return this;
+        }
+    }
+
+    private static Integer ageBucket(Integer age, int width) {
+        return age == null ? null : Math.floorDiv(age, width) * width;
+    }
+
+    private static UserStats.Group ageGroup(Gender gender, Integer ageFrom, int width, long count) {
+        return new UserStats.Group(gender, ageFrom, ageFrom == null ? null : ageFrom + width, count);
+    }
+
+    // also used by ReactiveUserService
+    static Gender parseGender(String gender) {
         try {
             // the string might not be a Gender type of which an exception will be passed
-            Gender theGender = Gender.valueOf(gender.get().toUpperCase());
-            return users.stream().filter(user -> user.getGender().equals(theGender)).collect(Collectors.toList());
+            return Gender.valueOf(gender.toUpperCase());
         } catch (Exception e) {
-            // IllegalStateException is for when the argument passed in is not the same type
-            // as the one wanted
-            throw new IllegalStateException("Invalid gender", e);
+            // the client sent something that is not a gender, the api answers 400
+            throw new InvalidUserInputException("Invalid gender", e);
         }
-
     }
 
     public Optional<User> getUser(UUID userUid) {
-        return userDao.selectUserByUserUid(userUid);
+        if (userFlight == null) {
+            return userCache.get(userUid, userDao::selectUserByUserUid);
+        }
+        // caffeine already loads a missing user once for everyone asking, this
+        // also covers user.cache.type=none and users that are not cached
+        return userFlight.run(userUid, () -> userCache.get(userUid, userDao::selectUserByUserUid));
+    }
+
+    public UserCacheStats getCacheStats() {
+        return userCache.stats();
+    }
+
+    // counters of each operation that coalesces reads, by the name of its
+    // user.single-flight property
+    public Map<String, SingleFlightStats> getSingleFlightStats() {
+        Map<String, SingleFlightStats> stats = new LinkedHashMap<>();
+        if (allUsersFlight != null) {
+            stats.put("get-all-users", allUsersFlight.stats());
+        }
+        if (userFlight != null) {
+            stats.put("get-user", userFlight.stats());
+        }
+        return stats;
+    }
+
+    // the writes below go straight to the conditional dao writes, which check
+    // and write in one atomic step, so there is no separate lookup that a
+    // concurrent write could invalidate in between. a user to update or delete
+    // without a userUid (a body without an id) is INVALID and never gets there,
+    // the daos lock by userUid, and so is a user with a string longer than
+    // MAX_STRING_LENGTH
+
+    public WriteOutcome updateUser(User user) {
+        if (!isValidUpdate(user)) {
+            return WriteOutcome.INVALID;
+        }
+        // the dao refuses the update when the new email belongs to another user
+        return invalidateIfApplied(user.getUserUid(), userDao.updateIfPresent(user));
+    }
+
+    // only updates when the stored user is still at expectedVersion
+    public WriteOutcome updateUser(User user, long expectedVersion) {
+        if (!isValidUpdate(user)) {
+            return WriteOutcome.INVALID;
+        }
+        return invalidateIfApplied(user.getUserUid(), userDao.compareAndSet(user, expectedVersion));
+    }
+
+    public WriteOutcome removeUser(UUID userUid) {
+        if (userUid == null) {
+            return WriteOutcome.INVALID;
+        }
+        return invalidateIfApplied(userUid, userDao.deleteIfPresent(userUid));
     }
 
-    public int updateUser(User user) {
-        // so user must know of userUUID and then create a new user object
-        // witht he same same UUid and the details to update
-        Optional<User> optionalUser = getUser(user.getUserUid());
-        if (optionalUser.isPresent()) {
-            userDao.updateUser(user);
-            return 1;
-        } else {
-            return -1;
+    // only removes when the stored user is still at expectedVersion
+    public WriteOutcome removeUser(UUID userUid, long expectedVersion) {
+        if (userUid == null) {
+            return WriteOutcome.INVALID;
         }
+        return invalidateIfApplied(userUid, userDao.compareAndDelete(userUid, expectedVersion));
     }
 
-    public int removeUser(UUID userUid) {
-        Optional<User> optionalUser = getUser(userUid);
-        if (optionalUser.isPresent()) {
-            userDao.deleteUserByUserUid(userUid);
-            return 1;
+    public WriteOutcome insertUser(User user) {
+        if (!isValidInsert(user)) {
+            return WriteOutcome.INVALID;
         }
-        return -1;
+        user.setUserUid(userIdGenerator.next());
+        return userDao.insertIfAbsent(user);
     }
 
-    public int insertUser(User user) {
-        UUID randUid = UUID.randomUUID();
-        user.setUserUid(randUid);
-        userDao.insertUser(randUid, user);
-        return 1;
+    // the batch versions below return one outcome per user, in the same order.
+    // each batch goes to the dao as one call so it is applied under a single
+    // lock acquisition per stripe. an item that cannot be written (null, or
+    // without a userUid to update or delete) is INVALID and left out of that
+    // call, the others are still written
+
+    public WriteOutcome[] insertUsers(List<User> users) {
+        return writeValid(users, UserService::isValidInsert, valid -> {
+            for (User user : valid) {
+                user.setUserUid(userIdGenerator.next());
+            }
+            return userDao.insertUsersIfAbsent(valid);
+        });
+    }
+
+    public WriteOutcome[] updateUsers(List<User> users) {
+        WriteOutcome[] outcomes = writeValid(users, UserService::isValidUpdate, userDao::updateUsersIfPresent);
+        for (int i = 0; i < outcomes.length; i++) {
+            if (outcomes[i] == WriteOutcome.APPLIED) {
+                userCache.invalidate(users.get(i).getUserUid());
+            }
+        }
+        return outcomes;
+    }
+
+    public WriteOutcome[] removeUsers(List<UUID> userUids) {
+        WriteOutcome[] outcomes = writeValid(userUids, Objects::nonNull, userDao::deleteUsersIfPresent);
+        for (int i = 0; i < outcomes.length; i++) {
+            invalidateIfApplied(userUids.get(i), outcomes[i]);
+        }
+        return outcomes;
+    }
+
+    // runs write on the items that pass valid and puts its outcomes back in
+    // their places, the other items are INVALID
+    private static <T> WriteOutcome[] writeValid(List<T> items, Predicate<T> valid,
+            Function<List<T>, WriteOutcome[]> write) {
+        List<T> validItems = new ArrayList<>(items.size());
+        for (T item : items) {
+            if (valid.test(item)) {
+                validItems.add(item);
+            }
+        }
+        if (validItems.size() == items.size()) {
+            return write.apply(items);
+        }
+        WriteOutcome[] written = validItems.isEmpty() ? new WriteOutcome[0] : write.apply(validItems);
+        WriteOutcome[] outcomes = new WriteOutcome[items.size()];
+        int next = 0;
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = valid.test(items.get(i)) ? written[next++] : WriteOutcome.INVALID;
+        }
+        return outcomes;
+    }
+
+    private static boolean isValidInsert(User user) {
+        return user != null && fits(user.getFirstName()) && fits(user.getLastName()) && fits(user.getEmail());
+    }
+
+    private static boolean isValidUpdate(User user) {
+        return isValidInsert(user) && user.getUserUid() != null;
+    }
+
+    private static boolean fits(String value) {
+        return value == null || value.length() <= MAX_STRING_LENGTH;
+    }
+
+    private WriteOutcome invalidateIfApplied(UUID userUid, WriteOutcome outcome) {
+        if (outcome == WriteOutcome.APPLIED) {
+            userCache.invalidate(userUid);
+        }
+        return outcome;
     }
 }
@@ -0,0 +1,81 @@
+package springbootfinal.service;
+
+import java.util.*;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import springbootfinal.model.User.Gender;
+
+// what UserService.getStats counts: every user, and the users in each group of
+// the requested grouping. groups are ordered by gender and then age, the users
+// without the value grouped on come last
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserStats {
+
+    private final long total;
+    private final List<String> groupBy;
+    private final Integer ageBucketWidth;
+    private final List<Group> groups;
+
+    public UserStats(long total, List<String> groupBy, Integer ageBucketWidth, List<Group> groups) {
+        this.total = total;
+        this.groupBy = groupBy;
+        this.ageBucketWidth = ageBucketWidth;
+        this.groups = groups;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public List<String> getGroupBy() {
+        return groupBy;
+    }
+
+    public Integer getAgeBucketWidth() {
+        return ageBucketWidth;
+    }
+
+    public List<Group> getGroups() {
+        return groups;
+    }
+
+    // a gender or age bucket (ageFrom inclusive, ageTo exclusive) the users of
+    // the group share. a field that is grouped on but missing from a group holds
+    // the users without it
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Group {
+
+        static final Comparator<Group> ORDER = Comparator
+                .comparing(Group::getGender, Comparator.nullsLast(Comparator.<Gender>naturalOrder()))
+                .thenComparing(Group::getAgeFrom, Comparator.nullsLast(Comparator.<Integer>naturalOrder()));
+
+        private final Gender gender;
+        private final Integer ageFrom;
+        private final Integer ageTo;
+        private final long count;
+
+        public Group(Gender gender, Integer ageFrom, Integer ageTo, long count) {
+            this.gender = gender;
+            this.ageFrom = ageFrom;
+            this.ageTo = ageTo;
+            this.count = count;
+        }
+
+        public Gender getGender() {
+            return gender;
+        }
+
+        public Integer getAgeFrom() {
+            return ageFrom;
+        }
+
+        public Integer getAgeTo() {
+            return ageTo;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
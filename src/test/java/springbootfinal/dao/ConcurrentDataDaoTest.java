@@ -0,0 +1,464 @@
+package springbootfinal.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Test;
+import org.junit.Before;
+
+public class ConcurrentDataDaoTest {
+
+    private static final int THREADS = 8;
+    private static final int USERS_PER_THREAD = 5_000;
+    private static final int SNAPSHOT_USERS_PER_THREAD = 1_000;
+
+    private ConcurrentDataDao concurrentDataDao;
+
+    @Before
+    public void setUp() throws Exception {
+        concurrentDataDao = new ConcurrentDataDao(16);
+    }
+
+    @Test
+    public void shouldSeedJoeLikeFakeDataDao() throws Exception {
+        List<User> users = new ConcurrentDataDao().selectAllUsers();
+        assertThat(users).hasSize(1);
+        assertThat(users.get(0).getFirstName()).isEqualTo("Joe");
+        assertThat(users.get(0).getUserUid()).isNotNull();
+    }
+
+    @Test
+    public void shouldInsertUpdateAndDeleteUser() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        User anna = new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "anna@gmail.com");
+        concurrentDataDao.insertUser(annaUserUid, anna);
+        assertThat(concurrentDataDao.selectUserByUserUid(annaUserUid).get()).usingRecursiveComparison()
+                .isEqualTo(anna);
+
+        User newAnna = new User(annaUserUid, "anna", "jones", Gender.FEMALE, 31, "anna@gmail.com");
+        concurrentDataDao.updateUser(newAnna);
+        assertThat(concurrentDataDao.selectUserByUserUid(annaUserUid).get()).usingRecursiveComparison()
+                .isEqualTo(newAnna);
+
+        concurrentDataDao.deleteUserByUserUid(annaUserUid);
+        assertThat(concurrentDataDao.selectUserByUserUid(annaUserUid).isPresent()).isFalse();
+        assertThat(concurrentDataDao.selectAllUsers()).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepIndexesInSyncOnInsertUpdateAndDelete() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        UUID joeUserUid = UUID.randomUUID();
+        concurrentDataDao.insertUser(annaUserUid,
+                new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "Anna@gmail.com"));
+        concurrentDataDao.insertUser(joeUserUid, new User(joeUserUid, "joe", "jones", Gender.MALE, 20, "joe@gmail.com"));
+
+        assertThat(concurrentDataDao.selectUsersByGender(Gender.FEMALE)).extracting(User::getUserUid)
+                .containsExactly(annaUserUid);
+        assertThat(concurrentDataDao.selectUsersByAgeRange(18, 30)).extracting(User::getUserUid)
+                .containsExactly(joeUserUid);
+        assertThat(concurrentDataDao.selectUserByEmail("anna@GMAIL.com").get().getUserUid()).isEqualTo(annaUserUid);
+
+        // anna changes gender, age and email, the old entries must disappear
+        concurrentDataDao.updateUser(new User(annaUserUid, "anna", "montana", Gender.MALE, 19, "anna@yahoo.com"));
+        assertThat(concurrentDataDao.selectUsersByGender(Gender.FEMALE)).isEmpty();
+        assertThat(concurrentDataDao.selectUsersByGender(Gender.MALE)).hasSize(2);
+        assertThat(concurrentDataDao.selectUsersByAgeRange(30, 31)).isEmpty();
+        assertThat(concurrentDataDao.selectUsersByAgeRange(18, 30)).hasSize(2);
+        assertThat(concurrentDataDao.selectUserByEmail("anna@gmail.com").isPresent()).isFalse();
+        assertThat(concurrentDataDao.selectUserByEmail("anna@yahoo.com").isPresent()).isTrue();
+
+        concurrentDataDao.deleteUserByUserUid(annaUserUid);
+        assertThat(concurrentDataDao.selectUsersByGender(Gender.MALE)).extracting(User::getUserUid)
+                .containsExactly(joeUserUid);
+        assertThat(concurrentDataDao.selectUserByEmail("anna@yahoo.com").isPresent()).isFalse();
+
+        assertThat(concurrentDataDao.countUsers()).isEqualTo(1);
+        // age buckets stay behind once created, so 20, 30 and 19 are all still there
+        assertThat(concurrentDataDao.indexSizes()).containsEntry("gender.male", 1).containsEntry("gender.female", 0)
+                .containsEntry("age", 3).containsEntry("email", 1);
+        // but the counts only hold ages somebody has
+        assertThat(concurrentDataDao.countUsersByGender()).containsEntry(Gender.MALE, 1L)
+                .containsEntry(Gender.FEMALE, 0L);
+        assertThat(concurrentDataDao.countUsersByAge()).containsExactly(entry(20, 1L));
+    }
+
+    @Test
+    public void shouldSearchByPrefixAndFollowWrites() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        UUID joanneUserUid = UUID.randomUUID();
+        UUID joeUserUid = UUID.randomUUID();
+        User anna = new User(annaUserUid, "Anna Maria", "Montana", Gender.FEMALE, 30, "anna.montana@gmail.com");
+        concurrentDataDao.insertUser(annaUserUid, anna);
+        concurrentDataDao.insertUser(joanneUserUid,
+                new User(joanneUserUid, "Joanne", "Annable", Gender.FEMALE, 40, "jo@annable.org"));
+        concurrentDataDao.insertUser(joeUserUid, new User(joeUserUid, "Joe", "Jones", Gender.MALE, 20, null));
+
+        // ordered by the matching word: anna before annable
+        assertThat(userUids(concurrentDataDao.searchUsers("ANN", 0, 10))).containsExactly(annaUserUid, joanneUserUid);
+        assertThat(userUids(concurrentDataDao.searchUsers("ann", 1, 10))).containsExactly(joanneUserUid);
+        assertThat(userUids(concurrentDataDao.searchUsers("ann", 0, 1))).containsExactly(annaUserUid);
+        assertThat(userUids(concurrentDataDao.searchUsers("anna.m", 0, 10))).containsExactly(annaUserUid);
+        assertThat(userUids(concurrentDataDao.searchUsers(" mar  mon ", 0, 10))).containsExactly(annaUserUid);
+        assertThat(concurrentDataDao.searchUsers("ann jones", 0, 10)).isEmpty();
+        assertThat(concurrentDataDao.searchUsers("  ", 0, 10)).isEmpty();
+
+        concurrentDataDao.updateUser(new User(annaUserUid, "Anna", "Jones", Gender.FEMALE, 31, "anna@gmail.com"));
+        concurrentDataDao.deleteUserByUserUid(joanneUserUid);
+
+        assertThat(concurrentDataDao.searchUsers("mon", 0, 10)).isEmpty();
+        assertThat(userUids(concurrentDataDao.searchUsers("ann", 0, 10))).containsExactly(annaUserUid);
+        assertThat(userUids(concurrentDataDao.searchUsers("jones", 0, 10))).containsExactlyInAnyOrder(annaUserUid,
+                joeUserUid);
+        // anna, jones and anna@gmail.com for anna, joe and jones for joe
+        assertThat(concurrentDataDao.indexSizes()).containsEntry("search", 5);
+    }
+
+    @Test
+    public void shouldSearchInTheSameOrderAsTheDefaultScan() throws Exception {
+        FakeDataDao fakeDataDao = new FakeDataDao();
+        fakeDataDao.deleteUserByUserUid(fakeDataDao.selectAllUsers().get(0).getUserUid());
+        String[] names = { "ann", "anne", "annabel", "bob", "annie", "joanne" };
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            UUID userUid = UUID.randomUUID();
+            User user = new User(userUid, names[random.nextInt(names.length)], names[random.nextInt(names.length)],
+                    Gender.FEMALE, 30, names[random.nextInt(names.length)] + i + "@gmail.com");
+            concurrentDataDao.insertUser(userUid, user);
+            fakeDataDao.insertUser(userUid, user);
+        }
+
+        for (String query : Arrays.asList("ann", "anne", "an bo", "bob annie", "joanne5", "x")) {
+            assertThat(userUids(concurrentDataDao.searchUsers(query, 7, 100)))
+                    .isEqualTo(userUids(fakeDataDao.searchUsers(query, 7, 100)));
+        }
+    }
+
+    @Test
+    public void shouldPickTheNarrowestIndexAndAnswerLikeTheDefaultScan() throws Exception {
+        FakeDataDao fakeDataDao = new FakeDataDao();
+        fakeDataDao.deleteUserByUserUid(fakeDataDao.selectAllUsers().get(0).getUserUid());
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            UUID userUid = new UUID(0, random.nextLong());
+            Gender gender = random.nextInt(10) == 0 ? null : Gender.values()[random.nextInt(Gender.values().length)];
+            User user = new User(userUid, "user" + random.nextInt(50), "name" + random.nextInt(50), gender,
+                    random.nextInt(10) == 0 ? null : random.nextInt(100), "user" + i + "@gmail.com");
+            concurrentDataDao.insertUser(userUid, user);
+            fakeDataDao.insertUser(userUid, user);
+        }
+
+        Map<List<String>, String> accessByFilter = new LinkedHashMap<>();
+        accessByFilter.put(Arrays.asList("email=USER7@gmail.com", "age>=0"), ConcurrentDataDao.EMAIL_INDEX);
+        accessByFilter.put(Arrays.asList("age>=18", "age<20", "gender=female"), ConcurrentDataDao.AGE_INDEX);
+        accessByFilter.put(Arrays.asList("age>=18", "gender=female"), ConcurrentDataDao.GENDER_INDEX);
+        accessByFilter.put(Arrays.asList("firstName=user3"), ConcurrentDataDao.FULL_SCAN);
+        accessByFilter.put(Arrays.asList("age>50", "age<20"), ConcurrentDataDao.AGE_INDEX);
+        for (Map.Entry<List<String>, String> filter : accessByFilter.entrySet()) {
+            UserQuery query = new UserQuery(UserQuery.parseConditions(filter.getKey()), UserQuery.Field.LAST_NAME,
+                    false, null, Integer.MAX_VALUE);
+            assertThat(concurrentDataDao.explain(query).getAccess()).as(query.toString()).isEqualTo(filter.getValue());
+            assertThat(userUids(concurrentDataDao.selectUsers(query))).as(query.toString())
+                    .isEqualTo(userUids(fakeDataDao.selectUsers(query)));
+        }
+
+        // a short page ordered by userUid stops early instead of reading a whole index
+        UUID after = null;
+        List<UUID> paged = new ArrayList<>();
+        List<UUID> expected = userUids(fakeDataDao.selectUsers(new UserQuery(
+                UserQuery.parseConditions(Arrays.asList("gender=male")), null, false, null, Integer.MAX_VALUE)));
+        while (true) {
+            UserQuery query = new UserQuery(UserQuery.parseConditions(Arrays.asList("gender=male")), null, false,
+                    after, 50);
+            assertThat(concurrentDataDao.explain(query).getAccess()).isEqualTo(ConcurrentDataDao.ORDERED_SCAN);
+            List<User> page = concurrentDataDao.selectUsers(query);
+            paged.addAll(userUids(page));
+            if (page.size() < 50) {
+                break;
+            }
+            after = page.get(page.size() - 1).getUserUid();
+        }
+        assertThat(paged).isEqualTo(expected);
+    }
+
+    private static List<UUID> userUids(List<User> users) {
+        List<UUID> userUids = new ArrayList<>();
+        for (User user : users) {
+            userUids.add(user.getUserUid());
+        }
+        return userUids;
+    }
+
+    @Test
+    public void shouldRejectDuplicateEmail() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        UUID otherUserUid = UUID.randomUUID();
+        concurrentDataDao.insertUser(annaUserUid,
+                new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "anna@gmail.com"));
+
+        int result = concurrentDataDao.insertUser(otherUserUid,
+                new User(otherUserUid, "other", "anna", Gender.FEMALE, 40, "ANNA@gmail.com"));
+
+        assertThat(result).isEqualTo(0);
+        assertThat(concurrentDataDao.selectUserByUserUid(otherUserUid).isPresent()).isFalse();
+        assertThat(concurrentDataDao.selectUsersByAgeRange(40, 41)).isEmpty();
+        // keeping the same email on an update is not a conflict
+        assertThat(concurrentDataDao
+                .updateUser(new User(annaUserUid, "anna", "jones", Gender.FEMALE, 31, "anna@gmail.com")))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void shouldPageThroughUsersInUserUidOrder() throws Exception {
+        List<UUID> userUids = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            User user = newUser(UUID.randomUUID(), i);
+            concurrentDataDao.insertUser(user.getUserUid(), user);
+            userUids.add(user.getUserUid());
+        }
+        Collections.sort(userUids);
+
+        List<UUID> paged = new ArrayList<>();
+        UUID cursor = null;
+        List<User> page;
+        do {
+            page = concurrentDataDao.selectUsersAfter(cursor, 10, user -> true);
+            page.forEach(user -> paged.add(user.getUserUid()));
+            cursor = page.isEmpty() ? cursor : page.get(page.size() - 1).getUserUid();
+        } while (page.size() == 10);
+
+        assertThat(paged).containsExactlyElementsOf(userUids);
+        // the filter is applied before the limit so a page is still full
+        assertThat(concurrentDataDao.selectUsersAfter(null, 5, user -> user.getAge() % 2 == 0))
+                .hasSize(5).allMatch(user -> user.getAge() % 2 == 0);
+        assertThat(concurrentDataDao.streamUsers().count()).isEqualTo(25);
+    }
+
+    @Test
+    public void shouldApplyBatchesWithPerItemResults() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            users.add(newUser(UUID.randomUUID(), i));
+        }
+        // same email as the first user of the batch
+        users.add(new User(UUID.randomUUID(), "dup", "licate", Gender.MALE, 1, users.get(0).getEmail()));
+
+        WriteOutcome[] inserted = concurrentDataDao.insertUsersIfAbsent(users);
+
+        assertThat(inserted).hasSize(101);
+        assertThat(Arrays.copyOf(inserted, 100)).containsOnly(WriteOutcome.APPLIED);
+        assertThat(inserted[100]).isEqualTo(WriteOutcome.EMAIL_TAKEN);
+        assertThat(concurrentDataDao.selectAllUsers()).hasSize(100);
+
+        List<User> updates = new ArrayList<>();
+        for (User user : users.subList(0, 100)) {
+            updates.add(newUser(user.getUserUid(), 77));
+        }
+        assertThat(concurrentDataDao.updateUsersIfPresent(updates)).containsOnly(WriteOutcome.APPLIED);
+        assertThat(concurrentDataDao.selectUsersByAgeRange(77, 78)).hasSize(100);
+
+        List<UUID> toDelete = new ArrayList<>();
+        for (User user : users.subList(0, 50)) {
+            toDelete.add(user.getUserUid());
+        }
+        assertThat(concurrentDataDao.deleteUsersIfPresent(toDelete)).containsOnly(WriteOutcome.APPLIED);
+        assertThat(concurrentDataDao.selectAllUsers()).hasSize(50);
+        // the second time round none of them are there any more
+        assertThat(concurrentDataDao.deleteUsersIfPresent(toDelete)).containsOnly(WriteOutcome.NOT_FOUND);
+    }
+
+    @Test
+    public void shouldReportConditionalWriteOutcomesAndCountVersions() throws Exception {
+        UUID annaUid = UUID.randomUUID();
+        User anna = newUser(annaUid, 30);
+
+        assertThat(concurrentDataDao.updateIfPresent(newUser(annaUid, 31))).isEqualTo(WriteOutcome.NOT_FOUND);
+        assertThat(concurrentDataDao.insertIfAbsent(anna)).isEqualTo(WriteOutcome.APPLIED);
+        assertThat(concurrentDataDao.insertIfAbsent(newUser(annaUid, 31))).isEqualTo(WriteOutcome.ALREADY_EXISTS);
+        assertThat(concurrentDataDao.selectUserByUserUid(annaUid).get().getVersion()).isEqualTo(1);
+
+        assertThat(concurrentDataDao.updateIfPresent(newUser(annaUid, 32))).isEqualTo(WriteOutcome.APPLIED);
+        assertThat(concurrentDataDao.selectUserByUserUid(annaUid).get().getVersion()).isEqualTo(2);
+
+        // a compare and set against a stale version leaves the user alone
+        assertThat(concurrentDataDao.compareAndSet(newUser(annaUid, 40), 1)).isEqualTo(WriteOutcome.VERSION_CONFLICT);
+        assertThat(concurrentDataDao.compareAndSet(newUser(annaUid, 41), 2)).isEqualTo(WriteOutcome.APPLIED);
+        User stored = concurrentDataDao.selectUserByUserUid(annaUid).get();
+        assertThat(stored.getAge()).isEqualTo(41);
+        assertThat(stored.getVersion()).isEqualTo(3);
+
+        User joe = new User(UUID.randomUUID(), "joe", "jones", Gender.MALE, 20, anna.getEmail());
+        assertThat(concurrentDataDao.insertIfAbsent(joe)).isEqualTo(WriteOutcome.EMAIL_TAKEN);
+
+        assertThat(concurrentDataDao.compareAndDelete(annaUid, 2)).isEqualTo(WriteOutcome.VERSION_CONFLICT);
+        assertThat(concurrentDataDao.compareAndDelete(annaUid, 3)).isEqualTo(WriteOutcome.APPLIED);
+        assertThat(concurrentDataDao.deleteIfPresent(annaUid)).isEqualTo(WriteOutcome.NOT_FOUND);
+        assertThat(concurrentDataDao.compareAndSet(newUser(annaUid, 50), 3)).isEqualTo(WriteOutcome.NOT_FOUND);
+    }
+
+    @Test
+    public void shouldNotResurrectUsersWhenUpdatesRaceDeletes() throws Exception {
+        List<UUID> userUids = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            User user = newUser(UUID.randomUUID(), i);
+            concurrentDataDao.insertIfAbsent(user);
+            userUids.add(user.getUserUid());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch start = new CountDownLatch(1);
+        Future<?> deleter = executor.submit(() -> {
+            start.await();
+            for (UUID userUid : userUids) {
+                assertThat(concurrentDataDao.deleteIfPresent(userUid)).isEqualTo(WriteOutcome.APPLIED);
+            }
+            return null;
+        });
+        Future<?> updater = executor.submit(() -> {
+            start.await();
+            for (int round = 0; round < 5; round++) {
+                for (UUID userUid : userUids) {
+                    concurrentDataDao.updateIfPresent(newUser(userUid, round));
+                }
+            }
+            return null;
+        });
+        start.countDown();
+        deleter.get(60, TimeUnit.SECONDS);
+        updater.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        // an update that lost the race must not have put a deleted user back
+        assertThat(concurrentDataDao.selectAllUsers()).isEmpty();
+        assertThat(concurrentDataDao.countUsers()).isZero();
+    }
+
+    @Test
+    public void shouldNotDeadlockBatchesAgainstScansAndSingleWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int worker = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    List<User> batch = new ArrayList<>();
+                    for (int j = 0; j < 20; j++) {
+                        batch.add(newUser(UUID.randomUUID(), j));
+                    }
+                    concurrentDataDao.insertUsersIfAbsent(batch);
+                    if (worker % 2 == 0) {
+                        concurrentDataDao.selectAllUsers();
+                    } else {
+                        User single = newUser(UUID.randomUUID(), i);
+                        concurrentDataDao.insertUser(single.getUserUid(), single);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertThat(concurrentDataDao.selectAllUsers()).hasSize(THREADS * 200 * 20 + THREADS / 2 * 200);
+    }
+
+    @Test
+    public void shouldRejectStripeCountThatIsNotAPowerOfTwo() throws Exception {
+        assertThatThrownBy(() -> new ConcurrentDataDao(12)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldNotLoseWritesUnderConcurrentInsertsAndUpdates() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<UUID>>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                List<UUID> inserted = new ArrayList<>();
+                for (int i = 0; i < USERS_PER_THREAD; i++) {
+                    UUID userUid = UUID.randomUUID();
+                    concurrentDataDao.insertUser(userUid, newUser(userUid, 0));
+                    inserted.add(userUid);
+                    // every thread also rewrites its own older users so that updates race with
+                    // inserts from the other threads on the same stripes
+                    UUID older = inserted.get(i / 2);
+                    concurrentDataDao.updateUser(newUser(older, i));
+                }
+                // the last write for each user is an update to the highest age it was given
+                for (UUID userUid : inserted) {
+                    concurrentDataDao.updateUser(newUser(userUid, 999));
+                }
+                return inserted;
+            }));
+        }
+        start.countDown();
+
+        Set<UUID> expected = new HashSet<>();
+        for (Future<List<UUID>> future : futures) {
+            expected.addAll(future.get(60, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        List<User> users = concurrentDataDao.selectAllUsers();
+        assertThat(users).hasSize(THREADS * USERS_PER_THREAD);
+        assertThat(users).extracting(User::getUserUid).containsExactlyInAnyOrderElementsOf(expected);
+        assertThat(users).allMatch(user -> user.getAge() == 999);
+    }
+
+    @Test
+    public void shouldReturnSnapshotConsistentScansWhileWriting() throws Exception {
+        // each writer inserts its users strictly one after another, so any consistent
+        // snapshot must hold an unbroken prefix of every writer's sequence
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int writer = t;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < SNAPSHOT_USERS_PER_THREAD; i++) {
+                    UUID userUid = UUID.randomUUID();
+                    concurrentDataDao.insertUser(userUid,
+                            new User(userUid, "writer" + writer, "user", Gender.MALE, i, userUid + "@test.com"));
+                }
+            }));
+        }
+        Future<Integer> scanner = executor.submit(() -> {
+            int scans = 0;
+            while (!done.get()) {
+                Map<String, Integer> countByWriter = new HashMap<>();
+                Map<String, Integer> maxAgeByWriter = new HashMap<>();
+                for (User user : concurrentDataDao.selectAllUsers()) {
+                    countByWriter.merge(user.getFirstName(), 1, Integer::sum);
+                    maxAgeByWriter.merge(user.getFirstName(), user.getAge(), Math::max);
+                }
+                // ages are unique per writer so a prefix is exactly when the highest age
+                // seen is one less than the number of users seen
+                for (String writer : countByWriter.keySet()) {
+                    assertThat(maxAgeByWriter.get(writer)).isEqualTo(countByWriter.get(writer) - 1);
+                }
+                scans++;
+            }
+            return scans;
+        });
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        done.set(true);
+        assertThat(scanner.get(60, TimeUnit.SECONDS)).isPositive();
+        executor.shutdown();
+
+        assertThat(concurrentDataDao.selectAllUsers()).hasSize(THREADS * SNAPSHOT_USERS_PER_THREAD);
+    }
+
+    private User newUser(UUID userUid, int age) {
+        return new User(userUid, "anna", "montana", Gender.FEMALE, age, userUid + "@gmail.com");
+    }
+}
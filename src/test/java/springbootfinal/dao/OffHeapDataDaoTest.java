@@ -0,0 +1,167 @@
+package springbootfinal.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapDataDaoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String directory;
+    private OffHeapDataDao offHeapDataDao;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("offheap").toString();
+        offHeapDataDao = new OffHeapDataDao(directory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        offHeapDataDao.close();
+    }
+
+    @Test
+    public void shouldInsertUpdateAndDeleteUser() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        User anna = new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "anna@gmail.com");
+        assertThat(offHeapDataDao.insertUser(annaUserUid, anna)).isEqualTo(1);
+        assertThat(offHeapDataDao.selectUserByUserUid(annaUserUid).get()).usingRecursiveComparison().isEqualTo(anna);
+
+        User newAnna = new User(annaUserUid, "änna", null, null, null, "anna@yahoo.com");
+        offHeapDataDao.updateUser(newAnna);
+        assertThat(offHeapDataDao.selectUserByUserUid(annaUserUid).get()).usingRecursiveComparison()
+                .isEqualTo(newAnna);
+        assertThat(offHeapDataDao.selectUserByEmail("anna@gmail.com").isPresent()).isFalse();
+        assertThat(offHeapDataDao.selectUserByEmail("ANNA@yahoo.com").isPresent()).isTrue();
+
+        offHeapDataDao.deleteUserByUserUid(annaUserUid);
+        assertThat(offHeapDataDao.selectUserByUserUid(annaUserUid).isPresent()).isFalse();
+        assertThat(offHeapDataDao.selectAllUsers()).isEmpty();
+
+        // a deleted user can come back
+        offHeapDataDao.insertUser(annaUserUid, anna);
+        assertThat(offHeapDataDao.selectAllUsers()).hasSize(1);
+    }
+
+    @Test
+    public void shouldRejectDuplicateEmail() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        UUID otherUserUid = UUID.randomUUID();
+        offHeapDataDao.insertUser(annaUserUid,
+                new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "anna@gmail.com"));
+
+        assertThat(offHeapDataDao.insertUser(otherUserUid,
+                new User(otherUserUid, "other", "anna", Gender.FEMALE, 40, "Anna@Gmail.com"))).isEqualTo(0);
+        assertThat(offHeapDataDao.selectUserByUserUid(otherUserUid).isPresent()).isFalse();
+    }
+
+    @Test
+    public void shouldGrowColumnsAndKeepEverythingAfterReopening() throws Exception {
+        Map<UUID, User> users = new HashMap<>();
+        for (int i = 0; i < 5_000; i++) {
+            UUID userUid = UUID.randomUUID();
+            User user = new User(userUid, "first" + i, "last" + i, i % 2 == 0 ? Gender.MALE : Gender.FEMALE, i % 100,
+                    "user" + i + "@gmail.com");
+            offHeapDataDao.insertUser(userUid, user);
+            users.put(userUid, user);
+        }
+        List<UUID> deleted = users.keySet().stream().limit(100).collect(Collectors.toList());
+        deleted.forEach(userUid -> offHeapDataDao.deleteUserByUserUid(userUid));
+        deleted.forEach(users::remove);
+        offHeapDataDao.close();
+
+        offHeapDataDao = new OffHeapDataDao(directory);
+
+        assertThat(offHeapDataDao.selectAllUsers()).hasSize(4_900);
+        for (User user : users.values()) {
+            assertThat(offHeapDataDao.selectUserByUserUid(user.getUserUid()).get()).usingRecursiveComparison()
+                    .isEqualTo(user);
+        }
+        assertThat(offHeapDataDao.selectUserByUserUid(deleted.get(0)).isPresent()).isFalse();
+        assertThat(offHeapDataDao.streamUsers().count()).isEqualTo(4_900);
+        assertThat(offHeapDataDao.selectUsersByGender(Gender.MALE))
+                .hasSize((int) users.values().stream().filter(user -> user.getGender() == Gender.MALE).count());
+        assertThat(offHeapDataDao.selectUsersByAgeRange(10, 20))
+                .hasSize((int) users.values().stream().filter(user -> user.getAge() >= 10 && user.getAge() < 20)
+                        .count());
+        assertThat(offHeapDataDao.selectUserByEmail("user4999@gmail.com").isPresent())
+                .isEqualTo(users.values().stream().anyMatch(user -> user.getEmail().equals("user4999@gmail.com")));
+    }
+
+    @Test
+    public void shouldReuseDeletedRowsAndArenaGarbage() throws Exception {
+        List<User> kept = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            UUID userUid = UUID.randomUUID();
+            User user = new User(userUid, "kept" + i, "last" + i, Gender.FEMALE, i, "kept" + i + "@gmail.com");
+            offHeapDataDao.insertUser(userUid, user);
+            kept.add(user);
+        }
+        // a few megabytes of strings through a 64k arena and 1024 rows
+        UUID joeUserUid = UUID.randomUUID();
+        User joe = null;
+        for (int i = 0; i < 20_000; i++) {
+            joe = new User(joeUserUid, "joe" + i, "jones-with-a-rather-long-last-name-" + i, Gender.MALE, 40,
+                    "joe" + i + "@gmail.com");
+            offHeapDataDao.updateUser(joe);
+            UUID otherUserUid = UUID.randomUUID();
+            offHeapDataDao.insertUser(otherUserUid,
+                    new User(otherUserUid, "other", "other" + i, null, null, "other" + i + "@gmail.com"));
+            offHeapDataDao.deleteUserByUserUid(otherUserUid);
+        }
+
+        assertThat(Files.size(Paths.get(directory, "strings.arena"))).isEqualTo(64 * 1024);
+        assertThat(Files.size(Paths.get(directory, "ids.col"))).isEqualTo(1024 * 16);
+        assertThat(offHeapDataDao.selectUserByUserUid(joeUserUid).get().getVersion()).isEqualTo(20_000);
+        assertThat(offHeapDataDao.selectUserByEmail("joe19998@gmail.com").isPresent()).isFalse();
+        offHeapDataDao.close();
+
+        offHeapDataDao = new OffHeapDataDao(directory);
+
+        assertThat(offHeapDataDao.selectAllUsers()).hasSize(101);
+        assertThat(offHeapDataDao.selectUserByEmail("JOE19999@gmail.com").get()).usingRecursiveComparison()
+                .isEqualTo(joe);
+        for (User user : kept) {
+            assertThat(offHeapDataDao.selectUserByUserUid(user.getUserUid()).get()).usingRecursiveComparison()
+                    .isEqualTo(user);
+        }
+    }
+
+    @Test
+    public void shouldFilterOnColumnsBeforeReadingRows() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            UUID userUid = UUID.randomUUID();
+            User user = new User(userUid, "first" + i % 7, "last" + i, i % 3 == 0 ? null : Gender.values()[i % 2],
+                    i % 11 == 0 ? null : i % 60, "user" + i + "@gmail.com");
+            offHeapDataDao.insertUser(userUid, user);
+            users.add(user);
+        }
+        offHeapDataDao.deleteUserByUserUid(users.remove(1).getUserUid());
+
+        for (List<String> filter : Arrays.asList(Arrays.asList("age>=18", "age<30", "gender=female"),
+                Arrays.asList("gender!=male", "firstName=FIRST3"), Arrays.asList("email=User12@gmail.com", "age=12"),
+                Arrays.asList("email=user1@gmail.com"))) {
+            UserQuery query = new UserQuery(UserQuery.parseConditions(filter), UserQuery.Field.AGE, true, null, 100);
+            assertThat(offHeapDataDao.selectUsers(query)).as(query.toString()).usingRecursiveFieldByFieldElementComparator()
+                    .isEqualTo(query.finish(users.stream().filter(query::matches)));
+        }
+        UserQuery query = new UserQuery(UserQuery.parseConditions(Arrays.asList("age>=18", "gender=female")), null,
+                false, null, 10);
+        assertThat(offHeapDataDao.explain(query).getIndexCondition()).isEqualTo("gender=female&age>=18&age<2147483647");
+    }
+}
@@ -0,0 +1,184 @@
+package springbootfinal.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedDataDaoTest {
+
+    private ShardedDataDao shardedDataDao;
+    private ConcurrentDataDao concurrentDataDao;
+
+    @Before
+    public void setUp() throws Exception {
+        shardedDataDao = new ShardedDataDao(4, 16);
+        concurrentDataDao = new ConcurrentDataDao(16);
+    }
+
+    @Test
+    public void shouldSeedJoeOnceAcrossAllShards() throws Exception {
+        List<User> users = new ShardedDataDao(8).selectAllUsers();
+        assertThat(users).hasSize(1);
+        assertThat(users.get(0).getFirstName()).isEqualTo("Joe");
+        assertThatThrownBy(() -> new ShardedDataDao(0, 16)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldSpreadUsersOverEveryShard() throws Exception {
+        int[] perShard = new int[shardedDataDao.shardCount()];
+        Random random = new Random(42);
+        for (int i = 0; i < 4000; i++) {
+            perShard[shardedDataDao.shardIndex(new UUID(random.nextLong(), random.nextLong()))]++;
+        }
+        for (int count : perShard) {
+            assertThat(count).isBetween(800, 1200);
+        }
+        // time ordered ids only differ in a few bits, they are spread all the same
+        Arrays.fill(perShard, 0);
+        for (int i = 0; i < 4000; i++) {
+            perShard[shardedDataDao.shardIndex(new UUID(0x0190_0000_0000_7000L + ((long) i << 16), 0x8000_0000_0000_0000L + i))]++;
+        }
+        for (int count : perShard) {
+            assertThat(count).isBetween(800, 1200);
+        }
+    }
+
+    @Test
+    public void shouldUseEveryStripeOfEveryShardEvenly() throws Exception {
+        int[][] perStripe = new int[shardedDataDao.shardCount()][16];
+        Random random = new Random(42);
+        for (int i = 0; i < 32_000; i++) {
+            UUID userUid = new UUID(random.nextLong(), random.nextLong());
+            perStripe[shardedDataDao.shardIndex(userUid)][concurrentDataDao.stripeIndex(userUid)]++;
+        }
+        assertEvenly(perStripe, 500);
+        for (int[] stripes : perStripe) {
+            Arrays.fill(stripes, 0);
+        }
+        // ids that only differ in their low bits pick the stripe from those bits,
+        // so the shard must not depend on them as well
+        for (int i = 0; i < 32_000; i++) {
+            UUID userUid = new UUID(0x0190_0000_0000_7000L, 0x8000_0000_0000_0000L + i);
+            perStripe[shardedDataDao.shardIndex(userUid)][concurrentDataDao.stripeIndex(userUid)]++;
+        }
+        assertEvenly(perStripe, 500);
+    }
+
+    @Test
+    public void shouldKeepEmailsUniqueAcrossShards() throws Exception {
+        UUID annaUserUid = UUID.randomUUID();
+        UUID otherUserUid;
+        do {
+            otherUserUid = UUID.randomUUID();
+        } while (shardedDataDao.shardIndex(otherUserUid) == shardedDataDao.shardIndex(annaUserUid));
+
+        assertThat(shardedDataDao.insertIfAbsent(
+                new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "anna@gmail.com")))
+                .isEqualTo(WriteOutcome.APPLIED);
+        assertThat(shardedDataDao.insertIfAbsent(
+                new User(otherUserUid, "anna", "jones", Gender.FEMALE, 30, "ANNA@gmail.com")))
+                .isEqualTo(WriteOutcome.EMAIL_TAKEN);
+        assertThat(shardedDataDao.selectUserByEmail("Anna@Gmail.com").get().getUserUid()).isEqualTo(annaUserUid);
+
+        // the batch is split over the shards but every user keeps its outcome
+        WriteOutcome[] outcomes = shardedDataDao.insertUsersIfAbsent(Arrays.asList(
+                new User(otherUserUid, "other", "jones", Gender.MALE, 40, "other@gmail.com"),
+                new User(annaUserUid, "anna", "again", Gender.FEMALE, 30, null),
+                new User(UUID.randomUUID(), "third", "jones", Gender.MALE, 40, "anna@gmail.com")));
+        assertThat(outcomes).containsExactly(WriteOutcome.APPLIED, WriteOutcome.ALREADY_EXISTS,
+                WriteOutcome.EMAIL_TAKEN);
+
+        assertThat(shardedDataDao.deleteUsersIfPresent(Arrays.asList(annaUserUid, UUID.randomUUID(), otherUserUid)))
+                .containsExactly(WriteOutcome.APPLIED, WriteOutcome.NOT_FOUND, WriteOutcome.APPLIED);
+        assertThat(shardedDataDao.selectUserByEmail("anna@gmail.com")).isEmpty();
+        assertThat(shardedDataDao.countUsers()).isZero();
+        assertThat(shardedDataDao.indexSizes().get("email")).isZero();
+    }
+
+    @Test
+    public void shouldAnswerScansLikeASingleStore() throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < 3000; i++) {
+            UUID userUid = new UUID(random.nextLong(), random.nextLong());
+            Gender gender = random.nextInt(10) == 0 ? null : Gender.values()[random.nextInt(Gender.values().length)];
+            User user = new User(userUid, "user" + random.nextInt(50), "name" + random.nextInt(50), gender,
+                    random.nextInt(10) == 0 ? null : random.nextInt(100), "user" + i + "@gmail.com");
+            shardedDataDao.insertUser(userUid, user);
+            concurrentDataDao.insertUser(userUid, user);
+        }
+
+        assertThat(sorted(shardedDataDao.selectAllUsers())).isEqualTo(sorted(concurrentDataDao.selectAllUsers()));
+        assertThat(sorted(shardedDataDao.selectUsersByGender(Gender.FEMALE)))
+                .isEqualTo(sorted(concurrentDataDao.selectUsersByGender(Gender.FEMALE)));
+        assertThat(sorted(shardedDataDao.selectUsersByAgeRange(20, 30)))
+                .isEqualTo(sorted(concurrentDataDao.selectUsersByAgeRange(20, 30)));
+        assertThat(shardedDataDao.countUsers()).isEqualTo(concurrentDataDao.countUsers());
+        assertThat(shardedDataDao.countUsersByGender()).isEqualTo(concurrentDataDao.countUsersByGender());
+        assertThat(shardedDataDao.countUsersByAge()).isEqualTo(concurrentDataDao.countUsersByAge());
+        // every shard has its own key for each age it holds, the other indexes have an entry per user
+        Map<String, Integer> indexSizes = new HashMap<>(shardedDataDao.indexSizes());
+        Map<String, Integer> singleIndexSizes = new HashMap<>(concurrentDataDao.indexSizes());
+        assertThat(indexSizes.remove("age")).isGreaterThan(singleIndexSizes.remove("age"));
+        assertThat(indexSizes).isEqualTo(singleIndexSizes);
+        assertThat(shardedDataDao.streamUsers().parallel().count()).isEqualTo(3000);
+
+        // pages merged from every shard are the pages of the single store
+        UUID after = null;
+        List<UUID> paged = new ArrayList<>();
+        while (true) {
+            List<User> page = shardedDataDao.selectUsersAfter(after, 70, user -> user.getGender() == Gender.MALE);
+            assertThat(userUids(page)).isEqualTo(userUids(
+                    concurrentDataDao.selectUsersAfter(after, 70, user -> user.getGender() == Gender.MALE)));
+            paged.addAll(userUids(page));
+            if (page.size() < 70) {
+                break;
+            }
+            after = page.get(page.size() - 1).getUserUid();
+        }
+        assertThat(paged).hasSize(concurrentDataDao.selectUsersByGender(Gender.MALE).size());
+
+        for (String search : Arrays.asList("user1", "name2 user", "USER4@", "nobody")) {
+            assertThat(userUids(shardedDataDao.searchUsers(search, 15, 40))).as(search)
+                    .isEqualTo(userUids(concurrentDataDao.searchUsers(search, 15, 40)));
+        }
+
+        for (List<String> filter : Arrays.asList(Arrays.asList("email=USER7@gmail.com"),
+                Arrays.asList("age>=18", "age<20", "gender=female"), Arrays.asList("firstName=user3"))) {
+            UserQuery query = new UserQuery(UserQuery.parseConditions(filter), UserQuery.Field.LAST_NAME, true,
+                    null, 25);
+            assertThat(userUids(shardedDataDao.selectUsers(query))).as(query.toString())
+                    .isEqualTo(userUids(concurrentDataDao.selectUsers(query)));
+            assertThat(shardedDataDao.explain(query).getAccess()).as(query.toString())
+                    .isEqualTo(concurrentDataDao.explain(query).getAccess());
+            assertThat(shardedDataDao.explain(query).getTotalRows()).isEqualTo(3000);
+        }
+    }
+
+    private static List<UUID> sorted(List<User> users) {
+        return userUids(users).stream().sorted().collect(Collectors.toList());
+    }
+
+    private static List<UUID> userUids(List<User> users) {
+        List<UUID> userUids = new ArrayList<>();
+        for (User user : users) {
+            userUids.add(user.getUserUid());
+        }
+        return userUids;
+    }
+
+    private static void assertEvenly(int[][] perStripe, int expected) {
+        for (int shard = 0; shard < perStripe.length; shard++) {
+            for (int stripe = 0; stripe < perStripe[shard].length; stripe++) {
+                assertThat(perStripe[shard][stripe]).as("shard %d stripe %d", shard, stripe)
+                        .isBetween(expected * 3 / 4, expected * 5 / 4);
+            }
+        }
+    }
+}
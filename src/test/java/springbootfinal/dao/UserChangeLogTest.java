@@ -0,0 +1,131 @@
+package springbootfinal.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserChangeLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UserChangeLog changeLog = new UserChangeLog(8);
+
+    @After
+    public void tearDown() throws Exception {
+        changeLog.close();
+    }
+
+    @Test
+    public void shouldPublishEveryWriteOfEachDaoInOrder() throws Exception {
+        ConcurrentDataDao concurrentDataDao = new ConcurrentDataDao(16);
+        OffHeapDataDao offHeapDataDao = new OffHeapDataDao(folder.newFolder("offheap").toString());
+        FakeDataDao fakeDataDao = new FakeDataDao();
+        try {
+            for (UserDao userDao : Arrays.<UserDao>asList(concurrentDataDao, offHeapDataDao, fakeDataDao)) {
+                UserChangeLog log = new UserChangeLog(16);
+                userDao.addChangeListener(log);
+                UUID annaUserUid = UUID.randomUUID();
+                userDao.insertUser(annaUserUid, new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, null));
+                userDao.updateUser(new User(annaUserUid, "anna", "jones", Gender.FEMALE, 31, null));
+                userDao.deleteUserByUserUid(annaUserUid);
+                // nothing to delete, nothing published
+                userDao.deleteUserByUserUid(annaUserUid);
+
+                UserChangePage page = log.read(0, 10).get();
+                assertThat(page.getNext()).isEqualTo(3);
+                assertThat(page.getChanges().stream().map(UserChange::getType).collect(Collectors.toList()))
+                        .as(userDao.getClass().getSimpleName())
+                        .containsExactly(UserChange.Type.INSERT, UserChange.Type.UPDATE, UserChange.Type.DELETE);
+                assertThat(page.getChanges().get(1).getUser().getLastName()).isEqualTo("jones");
+                assertThat(page.getChanges().get(2).getUser()).isNull();
+                assertThat(page.getChanges().get(2).getUserUid()).isEqualTo(annaUserUid);
+                log.close();
+            }
+        } finally {
+            offHeapDataDao.close();
+        }
+    }
+
+    @Test
+    public void shouldPageThroughChangesAndForgetTheOldestOnes() throws Exception {
+        assertThat(changeLog.read(0, 10).get().getChanges()).isEmpty();
+        for (int i = 0; i < 20; i++) {
+            changeLog.onChange(new UUID(0, i), null, user(i));
+        }
+
+        // only the last 8 of the 20 are kept
+        assertThat(changeLog.read(11, 10)).isEmpty();
+        UserChangePage page = changeLog.read(12, 5).get();
+        assertThat(page.getChanges().stream().map(UserChange::getSequence).collect(Collectors.toList()))
+                .containsExactly(12L, 13L, 14L, 15L, 16L);
+        assertThat(page.getNext()).isEqualTo(17);
+        assertThat(changeLog.read(17, 100).get().getChanges()).hasSize(3);
+        assertThat(changeLog.read(20, 100).get().getChanges()).isEmpty();
+        // a sequence the log never handed out, it was restarted since
+        assertThat(changeLog.read(21, 100)).isEmpty();
+        assertThatThrownBy(() -> new UserChangeLog(6)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldWakeWaitersOffTheWritingThread() throws Exception {
+        assertThat(changeLog.whenAvailable(0).isDone()).isFalse();
+        CompletableFuture<Thread> wokenOn = changeLog.whenAvailable(0).thenApply(ignored -> Thread.currentThread());
+        CompletableFuture<Void> gaveUp = changeLog.whenAvailable(0);
+        gaveUp.cancel(false);
+
+        changeLog.onChange(new UUID(0, 1), null, user(1));
+
+        assertThat(wokenOn.get(10, TimeUnit.SECONDS)).isNotSameAs(Thread.currentThread());
+        assertThat(wokenOn.get().getName()).startsWith("user-changes-");
+        assertThat(changeLog.whenAvailable(0).isDone()).isTrue();
+        assertThat(changeLog.whenAvailable(1).isDone()).isFalse();
+    }
+
+    @Test
+    public void shouldKeepOneOrderAcrossConcurrentWriters() throws Exception {
+        UserChangeLog log = new UserChangeLog(1 << 16);
+        ConcurrentDataDao concurrentDataDao = new ConcurrentDataDao(16);
+        concurrentDataDao.addChangeListener(log);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            writers.add(executor.submit(() -> {
+                UUID userUid = UUID.randomUUID();
+                for (int i = 0; i < 1000; i++) {
+                    concurrentDataDao.updateUser(new User(userUid, "anna", "montana", Gender.FEMALE, i, null));
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        List<UserChange> changes = log.read(0, 10_000).get().getChanges();
+        assertThat(changes).hasSize(4000);
+        Map<UUID, Integer> lastAge = new HashMap<>();
+        for (int i = 0; i < changes.size(); i++) {
+            UserChange change = changes.get(i);
+            assertThat(change.getSequence()).isEqualTo(i);
+            // every user's writes come out in the order they were made
+            assertThat(change.getUser().getAge()).isEqualTo(lastAge.getOrDefault(change.getUserUid(), -1) + 1);
+            lastAge.put(change.getUserUid(), change.getUser().getAge());
+        }
+        log.close();
+    }
+
+    private static User user(int i) {
+        return new User(new UUID(0, i), "user" + i, "last" + i, Gender.MALE, i, null);
+    }
+}
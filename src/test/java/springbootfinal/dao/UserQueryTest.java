@@ -0,0 +1,81 @@
+package springbootfinal.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Test;
+
+public class UserQueryTest {
+
+    private final User anna = new User(new UUID(0, 1), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+    private final User joe = new User(new UUID(0, 2), "Joe", "jones", Gender.MALE, 20, "joe@gmail.com");
+    private final User nobody = new User(new UUID(0, 3), "Nobody", null, null, null, null);
+
+    @Test
+    public void shouldParseConditions() throws Exception {
+        UserQuery query = query(Arrays.asList("age>=18", "age<30", "gender=FEMALE", "lastName!=jones"), null);
+
+        assertThat(query.toString()).isEqualTo("age>=18&age<30&gender=female&lastName!=jones");
+        assertThat(query.genderEquals()).contains(Gender.FEMALE);
+        assertThat(query.emailEquals()).isEmpty();
+        assertThat(query.ageRange().get()).containsExactly(18, 30);
+        assertThat(query(Arrays.asList("email=a=b@x.com"), null).emailEquals()).contains("a=b@x.com");
+    }
+
+    @Test
+    public void shouldRejectConditionsItCannotEvaluate() throws Exception {
+        for (String expression : Arrays.asList("age", "=18", "height>3", "age>=old", "gender=robot", "firstName>a",
+                "email=", "age=>3")) {
+            assertThatThrownBy(() -> UserQuery.parseConditions(Collections.singletonList(expression)))
+                    .as(expression).isInstanceOf(IllegalArgumentException.class);
+        }
+        assertThatThrownBy(() -> UserQuery.Field.named("height")).hasMessageContaining("firstName, lastName");
+        assertThatThrownBy(() -> new UserQuery(Collections.emptyList(), UserQuery.Field.AGE, false, new UUID(0, 1), 10))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new UserQuery(Collections.emptyList(), null, false, null, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldMatchIgnoringCaseAndTreatMissingFieldsAsNotEqual() throws Exception {
+        assertThat(query(Arrays.asList("lastName=MONTANA"), null).matches(anna)).isTrue();
+        assertThat(query(Arrays.asList("age>20", "age<=30"), null).matches(anna)).isTrue();
+        assertThat(query(Arrays.asList("age>20"), null).matches(joe)).isFalse();
+        assertThat(query(Arrays.asList("age>20"), null).matches(nobody)).isFalse();
+        assertThat(query(Arrays.asList("age!=20", "gender!=male"), null).matches(nobody)).isTrue();
+    }
+
+    @Test
+    public void shouldNarrowAgeRange() throws Exception {
+        assertThat(query(Arrays.asList("age>17", "age<=29", "age>=10"), null).ageRange().get()).containsExactly(18, 30);
+        assertThat(query(Arrays.asList("age=25", "age!=26"), null).ageRange().get()).containsExactly(25, 26);
+        // nothing can match, the range is empty rather than backwards
+        assertThat(query(Arrays.asList("age>40", "age<20"), null).ageRange().get()).containsExactly(41, 41);
+        assertThat(query(Arrays.asList("age>2147483647"), null).ageRange().get())
+                .containsExactly(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        assertThat(query(Arrays.asList("age!=26"), null).ageRange()).isEmpty();
+    }
+
+    @Test
+    public void shouldSortWithMissingValuesLastAndLimit() throws Exception {
+        UserQuery byLastName = new UserQuery(Collections.emptyList(), UserQuery.Field.LAST_NAME, false, null, 10);
+        assertThat(byLastName.finish(Stream.of(nobody, anna, joe))).containsExactly(joe, anna, nobody);
+
+        UserQuery byAgeDescending = new UserQuery(Collections.emptyList(), UserQuery.Field.AGE, true, null, 2);
+        assertThat(byAgeDescending.finish(Stream.of(joe, nobody, anna))).containsExactly(anna, joe);
+
+        UserQuery afterAnna = new UserQuery(Collections.emptyList(), null, false, anna.getUserUid(), 10);
+        assertThat(afterAnna.finish(Stream.of(nobody, anna, joe)).stream().map(User::getUserUid)
+                .collect(Collectors.toList())).containsExactly(joe.getUserUid(), nobody.getUserUid());
+    }
+
+    private static UserQuery query(List<String> expressions, UserQuery.Field sortField) {
+        return new UserQuery(UserQuery.parseConditions(expressions), sortField, false, null, Integer.MAX_VALUE);
+    }
+}
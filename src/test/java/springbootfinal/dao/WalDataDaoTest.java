@@ -0,0 +1,175 @@
+package springbootfinal.dao;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WalDataDaoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private WalDataDao walDataDao;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("wal").toPath();
+        walDataDao = open("interval");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        walDataDao.close();
+    }
+
+    @Test
+    public void shouldRecoverInsertsUpdatesAndDeletesAfterRestart() throws Exception {
+        User anna = newUser("anna", 30);
+        User joe = newUser("joe", 20);
+        walDataDao.insertUser(anna.getUserUid(), anna);
+        walDataDao.insertUser(joe.getUserUid(), joe);
+        User olderAnna = new User(anna.getUserUid(), "anna", "jones", Gender.FEMALE, 31, "anna@gmail.com");
+        walDataDao.updateUser(olderAnna);
+        walDataDao.deleteUserByUserUid(joe.getUserUid());
+        walDataDao.close();
+
+        walDataDao = open("interval");
+
+        assertThat(walDataDao.selectAllUsers()).hasSize(1);
+        assertThat(walDataDao.selectUserByUserUid(anna.getUserUid()).get()).usingRecursiveComparison()
+                .isEqualTo(olderAnna);
+        // the indexes are rebuilt while replaying
+        assertThat(walDataDao.selectUserByEmail("anna@gmail.com").isPresent()).isTrue();
+        assertThat(walDataDao.selectUsersByAgeRange(31, 32)).hasSize(1);
+    }
+
+    @Test
+    public void shouldHaveEveryWriteOnDiskWhenItReturnsWithFsyncAlways() throws Exception {
+        walDataDao.close();
+        walDataDao = open("always");
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            users.add(newUser("user" + i, i));
+        }
+        users.forEach(user -> walDataDao.insertUser(user.getUserUid(), user));
+
+        // copying the files of a dao that was never closed is what a crash leaves behind
+        Path crashed = folder.newFolder("crashed").toPath();
+        copyDirectory(directory, crashed);
+        WalDataDao recovered = new WalDataDao(crashed.toString(), "always", 1000, 1 << 20);
+        try {
+            assertThat(recovered.selectAllUsers()).hasSize(50);
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    public void shouldRecoverFromSnapshotPlusNewerLog() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            User user = newUser("user" + i, i);
+            walDataDao.insertUser(user.getUserUid(), user);
+        }
+        walDataDao.snapshot();
+        User afterSnapshot = newUser("late", 99);
+        walDataDao.insertUser(afterSnapshot.getUserUid(), afterSnapshot);
+        walDataDao.close();
+
+        // only the snapshot and the generation written after it are kept
+        assertThat(fileNames()).filteredOn(name -> name.endsWith(".snap")).hasSize(1);
+        assertThat(fileNames()).filteredOn(name -> name.endsWith(".log")).hasSize(1);
+
+        walDataDao = open("interval");
+        assertThat(walDataDao.selectAllUsers()).hasSize(21);
+        assertThat(walDataDao.selectUserByUserUid(afterSnapshot.getUserUid()).isPresent()).isTrue();
+    }
+
+    @Test
+    public void shouldIgnoreATornRecordAtTheEndOfTheLog() throws Exception {
+        User anna = newUser("anna", 30);
+        walDataDao.insertUser(anna.getUserUid(), anna);
+        walDataDao.close();
+        Path lastLog = directory.resolve(fileNames().stream().filter(name -> name.endsWith(".log")).sorted()
+                .reduce((first, second) -> second).get());
+        // a length and crc with only part of the payload behind them
+        Files.write(lastLog, new byte[] { 0, 0, 0, 40, 1, 2, 3, 4, 1, 9 }, StandardOpenOption.APPEND);
+
+        walDataDao = open("interval");
+
+        assertThat(walDataDao.selectAllUsers()).extracting(User::getUserUid).containsExactly(anna.getUserUid());
+    }
+
+    @Test
+    public void shouldRefuseAUserTheLogCannotTakeWithoutApplyingIt() throws Exception {
+        List<UUID> heard = new ArrayList<>();
+        walDataDao.addChangeListener((userUid, previous, current) -> heard.add(userUid));
+        User anna = newUser("anna", 30);
+        walDataDao.insertUser(anna.getUserUid(), anna);
+        // two bytes a char, past the longest record the log replays
+        User huge = new User(anna.getUserUid(), String.join("", Collections.nCopies(600_000, "\u00e9")), "montana",
+                Gender.FEMALE, 31, "huge@gmail.com");
+
+        assertThatThrownBy(() -> walDataDao.updateUser(huge)).isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> walDataDao.updateIfPresent(huge)).isInstanceOf(RuntimeException.class);
+
+        assertThat(walDataDao.selectUserByUserUid(anna.getUserUid()).get().getFirstName()).isEqualTo("anna");
+        assertThat(walDataDao.selectUserByEmail("huge@gmail.com").isPresent()).isFalse();
+        assertThat(heard).containsExactly(anna.getUserUid());
+        User joe = newUser("joe", 20);
+        walDataDao.insertUser(joe.getUserUid(), joe);
+        walDataDao.close();
+
+        walDataDao = open("interval");
+        assertThat(walDataDao.selectAllUsers()).extracting(User::getFirstName).containsExactlyInAnyOrder("anna", "joe");
+    }
+
+    @Test
+    public void shouldTakeNoMoreWritesOnceALogFailedForGood() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(folder.newFolder("failing").toPath(), 1);
+        log.appendPut(newUser("anna", 30));
+        // a closed channel fails the write and cutting the batch off again alike
+        log.close();
+        log.appendPut(newUser("joe", 20));
+
+        assertThatThrownBy(log::flush).isInstanceOf(IOException.class);
+        assertThatThrownBy(log::checkUsable).isInstanceOf(IOException.class).hasMessageContaining("failed");
+        assertThatThrownBy(log::flush).isInstanceOf(IOException.class).hasMessageContaining("failed");
+    }
+
+    private WalDataDao open(String fsync) throws Exception {
+        return new WalDataDao(directory.toString(), fsync, 5, 1 << 20);
+    }
+
+    private List<String> fileNames() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    private void copyDirectory(Path from, Path to) throws Exception {
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private User newUser(String firstName, int age) {
+        UUID userUid = UUID.randomUUID();
+        return new User(userUid, firstName, "montana", Gender.FEMALE, age, firstName + "@gmail.com");
+    }
+}
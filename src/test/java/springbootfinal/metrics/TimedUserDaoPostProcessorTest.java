@@ -0,0 +1,70 @@
+package springbootfinal.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.io.Closeable;
+import java.nio.file.Files;
+import java.util.*;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import springbootfinal.dao.ConcurrentDataDao;
+import springbootfinal.dao.UserDao;
+import springbootfinal.dao.WalDataDao;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Test;
+import org.junit.Before;
+
+public class TimedUserDaoPostProcessorTest {
+
+    private MeterRegistry meterRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    public void shouldTimeEveryDaoCallByMethod() throws Exception {
+        UserDao userDao = TimedUserDaoPostProcessor.timed(new ConcurrentDataDao(), meterRegistry);
+        UUID annaUid = UUID.randomUUID();
+
+        userDao.insertUser(annaUid, new User(annaUid, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com"));
+        userDao.selectUserByUserUid(annaUid);
+        userDao.selectUserByUserUid(UUID.randomUUID());
+        // a default method of the interface is timed like any other
+        userDao.selectUsersAfter(null, 10, user -> true);
+
+        assertThat(timerCount("insertUser")).isEqualTo(1);
+        assertThat(timerCount("selectUserByUserUid")).isEqualTo(2);
+        assertThat(timerCount("selectUsersAfter")).isEqualTo(1);
+        assertThat(timerCount("deleteUserByUserUid")).isZero();
+    }
+
+    @Test
+    public void shouldRethrowDaoExceptionsUnwrapped() throws Exception {
+        UserDao userDao = TimedUserDaoPostProcessor.timed(new ConcurrentDataDao(), meterRegistry);
+
+        Throwable thrown = catchThrowable(() -> userDao.selectUserByEmail(null));
+
+        assertThat(thrown).isInstanceOf(NullPointerException.class);
+        assertThat(timerCount("selectUserByEmail")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepTheOtherInterfacesOfTheDao() throws Exception {
+        UserDao userDao = TimedUserDaoPostProcessor.timed(
+                new WalDataDao(Files.createTempDirectory("wal").toString(), "interval", 5, 1 << 20), meterRegistry);
+
+        // spring closes the wal on shutdown through Closeable
+        assertThat(userDao).isInstanceOf(Closeable.class);
+        ((Closeable) userDao).close();
+    }
+
+    private long timerCount(String method) {
+        return meterRegistry.get(TimedUserDaoPostProcessor.TIMER_NAME).tag("method", method).timer().count();
+    }
+}
@@ -0,0 +1,165 @@
+package springbootfinal.replication;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import springbootfinal.dao.ConcurrentDataDao;
+import springbootfinal.dao.UserChangeLog;
+import springbootfinal.dao.UserDao;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import springbootfinal.service.NoUserCache;
+import org.junit.After;
+import org.junit.Test;
+
+public class UserReplicationTest {
+
+    private final List<AutoCloseable> closeables = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        Collections.reverse(closeables);
+        for (AutoCloseable closeable : closeables) {
+            closeable.close();
+        }
+    }
+
+    @Test
+    public void shouldCopyTheLeaderAndFollowEveryWrite() throws Exception {
+        // both seed a Joe with the same email, the follower's has to go
+        ConcurrentDataDao leaderDao = new ConcurrentDataDao();
+        ConcurrentDataDao followerDao = new ConcurrentDataDao();
+        // holds every change below, however far the follower lags behind
+        ReplicationLeader leader = leader(leaderDao, 4096, "async");
+        UUID annaUserUid = UUID.randomUUID();
+        leaderDao.insertUser(annaUserUid, new User(annaUserUid, "anna", "montana", Gender.FEMALE, 30, "anna@gmail.com"));
+
+        ReplicationFollower follower = follower(followerDao, leader, 50);
+        awaitSameUsers(leaderDao, followerDao);
+        assertThat(follower.acceptsWrites()).isFalse();
+        // same users at the same versions, so the ETags of one work on the other
+        assertThat(follower.versionEpoch()).isEqualTo(leader.versionEpoch());
+
+        UUID joeUserUid = leaderDao.selectUserByEmail("JoeJones2021@gmail.com").get().getUserUid();
+        leaderDao.updateUser(new User(annaUserUid, "anna", "jones", Gender.FEMALE, 31, "anna.jones@gmail.com"));
+        leaderDao.deleteUserByUserUid(joeUserUid);
+        for (int i = 0; i < 2000; i++) {
+            leaderDao.insertIfAbsent(new User(UUID.randomUUID(), "user" + i, "last" + i, Gender.MALE, i % 90,
+                    "user" + i + "@gmail.com"));
+        }
+        awaitSameUsers(leaderDao, followerDao);
+        assertThat(followerDao.selectUserByEmail("anna.jones@gmail.com").get().getAge()).isEqualTo(31);
+        assertThat(followerDao.selectUserByUserUid(joeUserUid)).isEmpty();
+
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (leader.status().getFollowers().get(0).getLag() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        ReplicationStatus status = leader.status();
+        assertThat(status.getFollowers()).hasSize(1);
+        assertThat(status.getFollowers().get(0).getLag()).isZero();
+        assertThat(follower.status().getSequence()).isEqualTo(status.getSequence());
+        assertThat(follower.status().getSnapshots()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCatchUpFromItsSequenceAfterReconnecting() throws Exception {
+        ConcurrentDataDao leaderDao = new ConcurrentDataDao();
+        ConcurrentDataDao followerDao = new ConcurrentDataDao();
+        ReplicationLeader leader = leader(leaderDao, 64, "async");
+        ReplicationFollower follower = follower(followerDao, leader, 500);
+        insertUsers(leaderDao, 10);
+        awaitSameUsers(leaderDao, followerDao);
+
+        follower.disconnect();
+        insertUsers(leaderDao, 50);
+        awaitSameUsers(leaderDao, followerDao);
+        // the missed changes came from the change log, not from another copy
+        assertThat(follower.status().getSnapshots()).isEqualTo(1);
+
+        // further behind than the change log reaches, everything is sent again
+        follower.disconnect();
+        insertUsers(leaderDao, 200);
+        awaitSameUsers(leaderDao, followerDao);
+        assertThat(follower.status().getSnapshots()).isEqualTo(2);
+        assertThat(follower.versionEpoch()).isEqualTo(leader.versionEpoch());
+    }
+
+    @Test
+    public void shouldReplicateUsersWithStringsLongerThan64k() throws Exception {
+        ConcurrentDataDao leaderDao = new ConcurrentDataDao();
+        ConcurrentDataDao followerDao = new ConcurrentDataDao();
+        ReplicationLeader leader = leader(leaderDao, 1024, "async");
+        UUID annaUserUid = UUID.randomUUID();
+        String longName = String.join("", Collections.nCopies(100_000, "a"));
+        leaderDao.insertUser(annaUserUid, new User(annaUserUid, longName, "montana", Gender.FEMALE, 30, null));
+
+        // once from the copy of all users, once as a change
+        follower(followerDao, leader, 50);
+        awaitSameUsers(leaderDao, followerDao);
+        leaderDao.updateUser(new User(annaUserUid, longName + "b", "montana", Gender.FEMALE, 31, null));
+        insertUsers(leaderDao, 10);
+        awaitSameUsers(leaderDao, followerDao);
+        assertThat(followerDao.selectUserByUserUid(annaUserUid).get().getFirstName()).hasSize(100_001);
+    }
+
+    @Test
+    public void shouldHoldSyncWritesUntilAFollowerAppliedThem() throws Exception {
+        ConcurrentDataDao leaderDao = new ConcurrentDataDao();
+        ConcurrentDataDao followerDao = new ConcurrentDataDao();
+        ReplicationLeader leader = leader(leaderDao, 1024, "sync");
+        // nobody to wait for
+        insertUsers(leaderDao, 1);
+        leader.awaitReplicated();
+        assertThat(leader.status().getAckTimeouts()).isZero();
+
+        follower(followerDao, leader, 50);
+        awaitSameUsers(leaderDao, followerDao);
+        for (int i = 0; i < 50; i++) {
+            UUID userUid = UUID.randomUUID();
+            leaderDao.insertUser(userUid, new User(userUid, "anna", "montana", Gender.FEMALE, i, null));
+            leader.awaitReplicated();
+            assertThat(followerDao.selectUserByUserUid(userUid)).isPresent();
+        }
+        assertThat(leader.status().getAckTimeouts()).isZero();
+    }
+
+    private ReplicationLeader leader(UserDao userDao, int changeLogCapacity, String ack) throws Exception {
+        UserChangeLog changeLog = new UserChangeLog(userDao, changeLogCapacity);
+        closeables.add(changeLog);
+        ReplicationLeader leader = new ReplicationLeader(userDao, changeLog, "127.0.0.1", 0, ack, 1, 10_000);
+        closeables.add(leader);
+        return leader;
+    }
+
+    private ReplicationFollower follower(UserDao userDao, ReplicationLeader leader, long reconnectMillis)
+            throws Exception {
+        ReplicationFollower follower = new ReplicationFollower(userDao, new NoUserCache(),
+                "127.0.0.1:" + leader.port(), "", reconnectMillis);
+        closeables.add(follower);
+        return follower;
+    }
+
+    private static void insertUsers(UserDao userDao, int count) {
+        for (int i = 0; i < count; i++) {
+            UUID userUid = UUID.randomUUID();
+            userDao.insertUser(userUid, new User(userUid, "user", "last", Gender.MALE, i, userUid + "@gmail.com"));
+        }
+    }
+
+    private static void awaitSameUsers(UserDao leaderDao, UserDao followerDao) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!contents(leaderDao).equals(contents(followerDao)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(contents(followerDao)).isEqualTo(contents(leaderDao));
+    }
+
+    private static Map<UUID, List<Object>> contents(UserDao userDao) {
+        return userDao.selectAllUsers().stream().collect(Collectors.toMap(User::getUserUid, user -> Arrays.asList(
+                user.getFirstName(), user.getLastName(), user.getGender(), user.getAge(), user.getEmail(),
+                user.getVersion())));
+    }
+}
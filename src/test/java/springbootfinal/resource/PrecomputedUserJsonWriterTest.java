@@ -0,0 +1,161 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.MediaType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import springbootfinal.dao.UserDao;
+import springbootfinal.service.NoUserCache;
+import springbootfinal.service.SharedUserList;
+import springbootfinal.service.TimeOrderedUserIdGenerator;
+import springbootfinal.service.UserService;
+
+public class PrecomputedUserJsonWriterTest {
+
+    private ObjectMapper objectMapper;
+    private PrecomputedUserJsonWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        writer = new PrecomputedUserJsonWriter(objectMapper);
+    }
+
+    @Test
+    public void shouldWriteTheSameBytesAsJackson() throws Exception {
+        User anna = new User(UUID.randomUUID(), "Anna", "Mont\"ana", Gender.FEMALE, 30, "anna@gmail.com");
+        User joe = new User(UUID.randomUUID(), "Jöe", null, null, 20, null);
+        List<User> users = Arrays.asList(anna, joe);
+        GenericEntity<List<User>> entity = new GenericEntity<List<User>>(users) {
+        };
+
+        assertThat(write(anna, User.class, User.class)).isEqualTo(objectMapper.writeValueAsBytes(anna));
+        assertThat(write(users, entity.getRawType(), entity.getType())).isEqualTo(objectMapper.writeValueAsBytes(users));
+        assertThat(write(Collections.emptyList(), entity.getRawType(), entity.getType()))
+                .isEqualTo(objectMapper.writeValueAsBytes(Collections.emptyList()));
+    }
+
+    @Test
+    public void shouldOnlyPickUpUsersAndListsKnownToHoldUsers() throws Exception {
+        GenericEntity<List<User>> users = new GenericEntity<List<User>>(new ArrayList<>()) {
+        };
+
+        assertThat(writer.isWriteable(User.class, User.class, null, MediaType.APPLICATION_JSON_TYPE)).isTrue();
+        assertThat(writer.isWriteable(users.getRawType(), users.getType(), null, MediaType.APPLICATION_JSON_TYPE))
+                .isTrue();
+        assertThat(writer.isWriteable(ArrayList.class, ArrayList.class, null, MediaType.APPLICATION_JSON_TYPE))
+                .isFalse();
+        assertThat(writer.isWriteable(String.class, String.class, null, MediaType.APPLICATION_JSON_TYPE)).isFalse();
+    }
+
+    @Test
+    public void shouldRenderEachUserOnceUntilItsVersionChanges() throws Exception {
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        anna.setVersion(1);
+        LocalDate today = LocalDate.now();
+
+        byte[] first = writer.toJson(anna, today);
+        assertThat(writer.toJson(anna, today)).isSameAs(first);
+
+        anna.setVersion(2);
+        assertThat(writer.toJson(anna, today)).isNotSameAs(first).isEqualTo(first);
+        // an equal user that is another object is rendered on its own
+        User copy = new User(anna.getUserUid(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        copy.setVersion(2);
+        assertThat(writer.toJson(copy, today)).isNotSameAs(writer.toJson(anna, today));
+        // and a new day renders again, dateOfBirth depends on it
+        assertThat(writer.toJson(anna, today.plusDays(1))).isNotSameAs(writer.toJson(anna, today));
+    }
+
+    @Test
+    public void shouldNotKeepUsersOfADaoThatBuildsThemOnEveryRead() throws Exception {
+        PrecomputedUserJsonWriter uncached = new PrecomputedUserJsonWriter(objectMapper, false);
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        anna.setVersion(1);
+        LocalDate today = LocalDate.now();
+
+        byte[] first = uncached.toJson(anna, today);
+        assertThat(first).isEqualTo(objectMapper.writeValueAsBytes(anna));
+        assertThat(uncached.toJson(anna, today)).isNotSameAs(first).isEqualTo(first);
+        // a shared list is the same object for every request holding it either way
+        List<User> users = sharedUsers(Arrays.asList(anna));
+        assertThat(uncached.toJson((SharedUserList) users, today)).isSameAs(uncached.toJson((SharedUserList) users, today));
+    }
+
+    @Test
+    public void shouldRenderASharedListOnceForEveryRequestHoldingIt() throws Exception {
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        User joe = new User(UUID.randomUUID(), "Joe", "Jones", Gender.MALE, 20, "joe@gmail.com");
+        List<User> users = sharedUsers(Arrays.asList(anna, joe));
+        LocalDate today = LocalDate.now();
+
+        byte[] first = writer.toJson((SharedUserList) users, today);
+        assertThat(first).isEqualTo(objectMapper.writeValueAsBytes(Arrays.asList(anna, joe)));
+        assertThat(writer.toJson((SharedUserList) users, today)).isSameAs(first);
+        GenericEntity<List<User>> entity = new GenericEntity<List<User>>(users) {
+        };
+        assertThat(write(users, entity.getRawType(), entity.getType())).isEqualTo(first);
+    }
+
+    @Test
+    public void shouldRefuseIndentedJson() throws Exception {
+        assertThatThrownBy(() -> new PrecomputedUserJsonWriter(new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    // UserService hands out a SharedUserList to the callers of reads it coalesced
+    private static List<User> sharedUsers(List<User> users) throws Exception {
+        UserDao userDao = mock(UserDao.class);
+        UserService userService = new UserService(userDao, new NoUserCache(), new TimeOrderedUserIdGenerator(),
+                true, false);
+        CountDownLatch release = new CountDownLatch(1);
+        given(userDao.selectAllUsers()).willAnswer(invocation -> {
+            release.await(10, TimeUnit.SECONDS);
+            return users;
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<User>> first = executor.submit(() -> userService.getAllUsers(Optional.empty()));
+            Future<List<User>> second = executor.submit(() -> userService.getAllUsers(Optional.empty()));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (userService.getSingleFlightStats().get("get-all-users").getCalls() < 2
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            assertThat(second.get(10, TimeUnit.SECONDS)).isSameAs(first.get(10, TimeUnit.SECONDS));
+            return first.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private byte[] write(Object entity, Class<?> type, java.lang.reflect.Type genericType) throws Exception {
+        assertThat(writer.isWriteable(type, genericType, null, MediaType.APPLICATION_JSON_TYPE)).isTrue();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.writeTo(entity, type, genericType, null, MediaType.APPLICATION_JSON_TYPE, null, output);
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,210 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotSupportedException;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.ReaderInterceptorContext;
+import javax.ws.rs.ext.WriterInterceptorContext;
+
+import org.junit.Test;
+
+public class UserApiCompressionTest {
+
+    private final UserApiCompression compression = new UserApiCompression(true, 2048, 6, 1 << 20);
+
+    @Test
+    public void shouldOnlyCompressForClientsThatAcceptGzip() throws Exception {
+        assertThat(UserApiCompression.acceptsGzip(null)).isFalse();
+        assertThat(UserApiCompression.acceptsGzip("gzip, deflate, br")).isTrue();
+        assertThat(UserApiCompression.acceptsGzip("br;q=1.0, GZIP;q=0.5")).isTrue();
+        assertThat(UserApiCompression.acceptsGzip("x-gzip")).isTrue();
+        assertThat(UserApiCompression.acceptsGzip("*")).isTrue();
+        assertThat(UserApiCompression.acceptsGzip("gzip;q=0, *")).isFalse();
+        assertThat(UserApiCompression.acceptsGzip("identity")).isFalse();
+
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        ContainerResponseContext response = mock(ContainerResponseContext.class);
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        when(response.hasEntity()).thenReturn(true);
+        when(response.getHeaders()).thenReturn(headers);
+        when(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING)).thenReturn("deflate");
+
+        compression.filter(request, response);
+
+        assertThat(headers.getFirst(HttpHeaders.VARY)).isEqualTo(HttpHeaders.ACCEPT_ENCODING);
+        assertThat(written(new ByteArrayOutputStream(), headers, false, output -> output.write(new byte[4096])))
+                .hasSize(4096);
+        assertThat(headers).doesNotContainKey(HttpHeaders.CONTENT_ENCODING);
+    }
+
+    @Test
+    public void shouldSendSmallBodiesAsTheyAre() throws Exception {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        byte[] body = "{\"firstName\":\"Anna\"}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] sent = written(new ByteArrayOutputStream(), headers, true, output -> output.write(body));
+
+        assertThat(sent).isEqualTo(body);
+        assertThat(headers).doesNotContainKey(HttpHeaders.CONTENT_ENCODING);
+    }
+
+    @Test
+    public void shouldGzipLargeBodiesWrittenInPieces() throws Exception {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        headers.putSingle(HttpHeaders.CONTENT_LENGTH, 12345);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++) {
+            body.write(("{\"firstName\":\"user" + i + "\"},").getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] sent = written(new ByteArrayOutputStream(), headers, true, output -> {
+            // single bytes and small writes that cross the threshold on their own
+            output.write(body.toByteArray()[0]);
+            output.write(body.toByteArray(), 1, body.size() - 1);
+            output.close();
+        });
+
+        assertThat(headers.getFirst(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(headers).doesNotContainKey(HttpHeaders.CONTENT_LENGTH);
+        assertThat(sent.length).isLessThan(body.size() / 4);
+        assertThat(gunzip(sent)).isEqualTo(body.toByteArray());
+    }
+
+    @Test
+    public void shouldStreamCompressedBodiesWithoutHoldingThem() throws Exception {
+        CountingOutputStream sink = new CountingOutputStream();
+        byte[] chunk = new byte[64 * 1024];
+        new Random(42).nextBytes(chunk);
+        long[] sentWhileWriting = new long[1];
+
+        written(sink, new MultivaluedHashMap<>(), true, output -> {
+            // 64 MB through the stream, far more than it could reasonably keep
+            for (int i = 0; i < 1024; i++) {
+                output.write(chunk);
+            }
+            sentWhileWriting[0] = sink.count;
+        });
+
+        // all but the deflater's own buffers reached the container before the end
+        assertThat(sentWhileWriting[0]).isGreaterThan(64L * 1024 * 1024 - 64 * 1024);
+        assertThat(sink.count).isGreaterThan(64L * 1024 * 1024);
+    }
+
+    @Test
+    public void shouldInflateGzipRequestBodies() throws Exception {
+        byte[] body = "[{\"firstName\":\"Anna\"}]".getBytes(StandardCharsets.UTF_8);
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        headers.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+        headers.putSingle(HttpHeaders.CONTENT_LENGTH, "42");
+
+        assertThat(read(gzip(body), headers)).isEqualTo(body);
+        assertThat(headers).doesNotContainKeys(HttpHeaders.CONTENT_ENCODING, HttpHeaders.CONTENT_LENGTH);
+        assertThat(read(body, new MultivaluedHashMap<>())).isEqualTo(body);
+    }
+
+    @Test
+    public void shouldRejectBadOrUnboundedRequestBodies() throws Exception {
+        MultivaluedMap<String, String> gzipHeaders = new MultivaluedHashMap<>();
+        gzipHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+        assertThatThrownBy(() -> read("not gzip".getBytes(StandardCharsets.UTF_8), gzipHeaders))
+                .isInstanceOf(BadRequestException.class);
+
+        MultivaluedMap<String, String> bombHeaders = new MultivaluedHashMap<>();
+        bombHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, "gzip");
+        // about 2 kB of gzip that inflates past the 1 MB limit
+        assertThatThrownBy(() -> read(gzip(new byte[2 << 20]), bombHeaders))
+                .isInstanceOfSatisfying(WebApplicationException.class,
+                        e -> assertThat(e.getResponse().getStatus()).isEqualTo(413));
+
+        MultivaluedMap<String, String> brotliHeaders = new MultivaluedHashMap<>();
+        brotliHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, "br");
+        assertThatThrownBy(() -> read(new byte[1], brotliHeaders)).isInstanceOf(NotSupportedException.class);
+    }
+
+    @Test
+    public void shouldRefuseUnknownCompressionLevels() throws Exception {
+        assertThatThrownBy(() -> new UserApiCompression(true, 2048, 10, 1 << 20))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private interface Body {
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    // runs the writer interceptor around body the way jersey does
+    private byte[] written(OutputStream sink, MultivaluedMap<String, Object> headers, boolean compress, Body body)
+            throws Exception {
+        WriterInterceptorContext context = mock(WriterInterceptorContext.class);
+        OutputStream[] stream = { sink };
+        when(context.getProperty(any())).thenReturn(compress ? Boolean.TRUE : null);
+        when(context.getHeaders()).thenReturn(headers);
+        when(context.getOutputStream()).thenAnswer(invocation -> stream[0]);
+        doAnswer(invocation -> stream[0] = invocation.getArgument(0)).when(context).setOutputStream(any());
+        doAnswer(invocation -> {
+            body.writeTo(stream[0]);
+            return null;
+        }).when(context).proceed();
+
+        compression.aroundWriteTo(context);
+
+        return sink instanceof ByteArrayOutputStream ? ((ByteArrayOutputStream) sink).toByteArray() : null;
+    }
+
+    private byte[] read(byte[] body, MultivaluedMap<String, String> headers) throws Exception {
+        ReaderInterceptorContext context = mock(ReaderInterceptorContext.class);
+        InputStream[] stream = { new ByteArrayInputStream(body) };
+        when(context.getHeaders()).thenReturn(headers);
+        when(context.getInputStream()).thenAnswer(invocation -> stream[0]);
+        doAnswer(invocation -> stream[0] = invocation.getArgument(0)).when(context).setInputStream(any());
+        when(context.proceed()).thenAnswer(invocation -> stream[0].readAllBytes());
+
+        return (byte[]) compression.aroundReadFrom(context);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return gzip.readAllBytes();
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+}
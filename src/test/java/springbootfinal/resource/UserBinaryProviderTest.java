@@ -0,0 +1,96 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.util.*;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.GenericEntity;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+public class UserBinaryProviderTest {
+
+    private final UserBinaryProvider provider = new UserBinaryProvider();
+    private final GenericEntity<List<User>> listType = new GenericEntity<List<User>>(new ArrayList<>()) {
+    };
+
+    @Test
+    public void shouldRoundTripUsersAndListsOfUsers() throws Exception {
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        // no id like a user about to be inserted, and a name longer than the buffers
+        User joe = new User(null, "Jöe", String.join("", Collections.nCopies(10_000, "long")), null, -1, null);
+
+        User read = (User) read(write(anna, User.class, User.class), User.class, User.class);
+        assertThat(read).isEqualToComparingFieldByField(anna);
+
+        @SuppressWarnings("unchecked")
+        List<User> users = (List<User>) read(write(Arrays.asList(anna, joe), listType.getRawType(), listType.getType()),
+                listType.getRawType(), listType.getType());
+        assertThat(users).hasSize(2);
+        assertThat(users.get(0)).isEqualToComparingFieldByField(anna);
+        assertThat(users.get(1)).isEqualToComparingFieldByField(joe);
+        assertThat(read(new byte[0], listType.getRawType(), listType.getType())).isEqualTo(Collections.emptyList());
+    }
+
+    @Test
+    public void shouldBeAtLeastThreeTimesSmallerThanJson() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            users.add(new User(UUID.randomUUID(), "first" + i, "last" + i, Gender.values()[i % 2], 20 + i % 50,
+                    "user" + i + "@gmail.com"));
+        }
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+        byte[] binary = write(users, listType.getRawType(), listType.getType());
+
+        assertThat(binary.length * 3).isLessThanOrEqualTo(objectMapper.writeValueAsBytes(users).length);
+    }
+
+    @Test
+    public void shouldRejectTruncatedBodies() throws Exception {
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        byte[] bytes = write(anna, User.class, User.class);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+
+        assertThatThrownBy(() -> read(truncated, User.class, User.class)).isInstanceOf(BadRequestException.class);
+        assertThatThrownBy(() -> read(truncated, listType.getRawType(), listType.getType()))
+                .isInstanceOf(BadRequestException.class);
+    }
+
+    @Test
+    public void shouldOnlyHandleUsersAndListsKnownToHoldUsers() throws Exception {
+        assertThat(provider.isReadable(User.class, User.class, null, UserBinaryProvider.APPLICATION_USER_BINARY_TYPE))
+                .isTrue();
+        assertThat(provider.isWriteable(listType.getRawType(), listType.getType(), null,
+                UserBinaryProvider.APPLICATION_USER_BINARY_TYPE)).isTrue();
+        assertThat(provider.isWriteable(ArrayList.class, ArrayList.class, null,
+                UserBinaryProvider.APPLICATION_USER_BINARY_TYPE)).isFalse();
+        assertThat(provider.isReadable(String.class, String.class, null,
+                UserBinaryProvider.APPLICATION_USER_BINARY_TYPE)).isFalse();
+    }
+
+    private byte[] write(Object entity, Class<?> type, Type genericType) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        provider.writeTo(entity, type, genericType, null, UserBinaryProvider.APPLICATION_USER_BINARY_TYPE, null,
+                output);
+        return output.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object read(byte[] bytes, Class<?> type, Type genericType) throws Exception {
+        return provider.readFrom((Class<Object>) type, genericType, null,
+                UserBinaryProvider.APPLICATION_USER_BINARY_TYPE, null, new ByteArrayInputStream(bytes));
+    }
+}
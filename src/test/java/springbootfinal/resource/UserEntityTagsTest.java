@@ -0,0 +1,49 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+
+public class UserEntityTagsTest {
+
+    private final UserEntityTags entityTags = new UserEntityTags(() -> "k3x1");
+
+    @Test
+    public void shouldMatchIfNoneMatchOnlyForTheCurrentVersion() throws Exception {
+        User anna = anna(3);
+        String tag = entityTags.of(anna).toString();
+
+        assertThat(entityTags.matchesAny(tag, anna)).isTrue();
+        assertThat(entityTags.matchesAny("W/" + tag + ", \"other\"", anna)).isTrue();
+        assertThat(entityTags.matchesAny("*", anna)).isTrue();
+        assertThat(entityTags.matchesAny(null, anna)).isFalse();
+        assertThat(entityTags.matchesAny(tag, anna(4))).isFalse();
+        assertThat(entityTags.matchesAny("not a tag", anna)).isFalse();
+    }
+
+    @Test
+    public void shouldReadVersionsFromStrongIfMatchTagsOfTheSameEpoch() throws Exception {
+        String three = entityTags.of(anna(3)).toString();
+        String five = entityTags.of(anna(5)).toString();
+
+        assertThat(entityTags.versions(three + "," + five)).containsExactly(3L, 5L);
+        // weak tags never match If-Match and tags from before a restart carry another epoch
+        assertThat(entityTags.versions("W/" + three)).isEmpty();
+        assertThat(entityTags.versions("\"0-3\"")).isEmpty();
+        assertThat(UserEntityTags.isWildcard(" * ")).isTrue();
+        // another instance with the same epoch, like a follower of the same leader
+        assertThat(new UserEntityTags(() -> "k3x1").versions(three)).containsExactly(3L);
+        assertThat(new UserEntityTags(() -> "k3x2").versions(three)).isEmpty();
+    }
+
+    private User anna(long version) {
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "anna@gmail.com");
+        anna.setVersion(version);
+        return anna;
+    }
+}
@@ -0,0 +1,63 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class UserLoadShedderTest {
+
+    private final AtomicLong now = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final UserLoadShedder loadShedder = new UserLoadShedder(true, 4, 2, 50, now::get);
+
+    @Test
+    public void shouldShedBulkRequestsBeforePointRequests() throws Exception {
+        List<UserLoadShedder.Admission> admitted = new ArrayList<>();
+        admitted.add(loadShedder.admit(UserRequestKind.BULK));
+        admitted.add(loadShedder.admit(UserRequestKind.BULK));
+        assertThat(admitted).doesNotContainNull();
+        assertThat(loadShedder.admit(UserRequestKind.BULK)).isNull();
+
+        admitted.add(loadShedder.admit(UserRequestKind.POINT));
+        admitted.add(loadShedder.admit(UserRequestKind.POINT));
+        assertThat(admitted).doesNotContainNull();
+        assertThat(loadShedder.admit(UserRequestKind.POINT)).isNull();
+        assertThat(loadShedder.inFlight()).isEqualTo(4);
+
+        admitted.forEach(loadShedder::finish);
+        assertThat(loadShedder.inFlight()).isZero();
+        assertThat(loadShedder.admit(UserRequestKind.BULK)).isNotNull();
+    }
+
+    @Test
+    public void shouldShedBulkRequestsWhilePointRequestsAreSlow() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            UserLoadShedder.Admission admission = loadShedder.admit(UserRequestKind.POINT);
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+            loadShedder.finish(admission);
+        }
+        assertThat(loadShedder.admit(UserRequestKind.BULK)).isNull();
+        assertThat(loadShedder.admit(UserRequestKind.POINT)).isNotNull();
+
+        // fast again, after a few requests
+        for (int i = 0; i < 20; i++) {
+            loadShedder.finish(loadShedder.admit(UserRequestKind.POINT));
+        }
+        assertThat(loadShedder.admit(UserRequestKind.BULK)).isNotNull();
+    }
+
+    @Test
+    public void shouldForgetTheLatencyOnceNoPointRequestsFinish() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            UserLoadShedder.Admission admission = loadShedder.admit(UserRequestKind.POINT);
+            now.addAndGet(TimeUnit.MILLISECONDS.toNanos(200));
+            loadShedder.finish(admission);
+        }
+        assertThat(loadShedder.admit(UserRequestKind.BULK)).isNull();
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        assertThat(loadShedder.admit(UserRequestKind.BULK)).isNotNull();
+    }
+}
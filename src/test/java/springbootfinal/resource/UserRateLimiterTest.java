@@ -0,0 +1,107 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class UserRateLimiterTest {
+
+    private final AtomicLong now = new AtomicLong();
+    // 10 tokens a second, so one every 100ms, and room for 20
+    private final UserRateLimiter rateLimiter = new UserRateLimiter(true, 10, 20, 1, 5, "X-Client-Id", 1000,
+            now::get);
+
+    @Test
+    public void shouldRefillAtTheRateUpToTheBurst() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            assertThat(rateLimiter.take("anna fetchUser", 1)).isZero();
+        }
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+        // a rejected request takes nothing
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isZero();
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isZero();
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+
+        // idle for long enough it is full again, never fuller
+        now.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        assertThat(rateLimiter.take("anna fetchUser", 20)).isZero();
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isPositive();
+        assertThatThrownBy(() -> new UserRateLimiter(true, 10, 20, 1, 21, "", 1000, now::get))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldKeepABucketPerClientAndMethodAndChargeBulkRequestsMore() throws Exception {
+        assertThat(UserRequestKind.of("fetchUsers", false)).isEqualTo(UserRequestKind.BULK);
+        assertThat(UserRequestKind.of("fetchUsers", true)).isEqualTo(UserRequestKind.POINT);
+        assertThat(UserRequestKind.of("insertNewUsersNdjson", false)).isEqualTo(UserRequestKind.BULK);
+        assertThat(UserRequestKind.of("fetchUser", false)).isEqualTo(UserRequestKind.POINT);
+        assertThat(UserRequestKind.of("followChanges", false)).isEqualTo(UserRequestKind.WAIT);
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(filter("anna")).isNull();
+        }
+        Response rejected = filter("anna");
+        assertThat(rejected.getStatus()).isEqualTo(429);
+        assertThat(rejected.getHeaderString(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+        assertThat(filter("joe")).isNull();
+        // the other methods of the same client have buckets of their own
+        assertThat(rateLimiter.take("anna none", 1)).isPositive();
+        assertThat(rateLimiter.take("anna fetchUser", 1)).isZero();
+    }
+
+    @Test
+    public void shouldNeverHandOutMoreThanTheBucketHoldsUnderContention() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicInteger granted = new AtomicInteger();
+        List<Future<?>> clients = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            clients.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    if (rateLimiter.take("anna fetchUser", 1) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> client : clients) {
+            client.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        assertThat(granted.get()).isEqualTo(20);
+    }
+
+    // the response the request was aborted with, null when it went through.
+    // the request matched no resource method, so it costs point-cost
+    private Response filter(String client) {
+        ContainerRequestContext request = mock(ContainerRequestContext.class);
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getQueryParameters()).thenReturn(new MultivaluedHashMap<>());
+        when(request.getUriInfo()).thenReturn(uriInfo);
+        when(request.getHeaderString("X-Client-Id")).thenReturn(client);
+        rateLimiter.filter(request);
+        ArgumentCaptor<Response> response = ArgumentCaptor.forClass(Response.class);
+        verify(request, atMost(1)).abortWith(response.capture());
+        return response.getAllValues().isEmpty() ? null : response.getValue();
+    }
+}
@@ -0,0 +1,82 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.ArgumentMatchers.isA;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.container.AsyncResponse;
+
+import org.junit.Test;
+
+import springbootfinal.service.InvalidUserInputException;
+
+public class UserRequestExecutorTest {
+
+    @Test
+    public void shouldRunOnTheRequestThreadInSyncMode() throws Exception {
+        UserRequestExecutor executor = new UserRequestExecutor("sync", 1, 1);
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+
+        executor.resume(asyncResponse, () -> Thread.currentThread().getName());
+
+        verify(asyncResponse).resume(Thread.currentThread().getName());
+    }
+
+    @Test
+    public void shouldResumeFromThePoolInAsyncMode() throws Exception {
+        UserRequestExecutor executor = new UserRequestExecutor("async", 2, 100);
+        AsyncResponse asyncResponse = mock(AsyncResponse.class);
+        AsyncResponse failingResponse = mock(AsyncResponse.class);
+        InvalidUserInputException invalidGender = new InvalidUserInputException("Invalid gender", null);
+
+        executor.resume(asyncResponse, () -> Thread.currentThread().getName());
+        executor.resume(failingResponse, () -> {
+            throw invalidGender;
+        });
+
+        verify(asyncResponse, timeout(5_000)).resume("user-api-1");
+        // the exception itself, so the InvalidUserInputExceptionMapper still answers it
+        verify(failingResponse, timeout(5_000)).resume(invalidGender);
+        executor.close();
+    }
+
+    @Test
+    public void shouldAnswer503WhenTheQueueIsFull() throws Exception {
+        UserRequestExecutor executor = new UserRequestExecutor("async", 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<AsyncResponse> responses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            responses.add(mock(AsyncResponse.class));
+        }
+
+        // the first request holds the only thread, the second waits in the queue
+        executor.resume(responses.get(0), () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+        executor.resume(responses.get(1), () -> "queued");
+        executor.resume(responses.get(2), () -> "rejected");
+
+        verify(responses.get(2)).resume(isA(ServiceUnavailableException.class));
+        release.countDown();
+        verify(responses.get(0), timeout(5_000)).resume("done");
+        verify(responses.get(1), timeout(5_000)).resume("queued");
+        executor.close();
+    }
+
+    @Test
+    public void shouldRejectUnknownExecutionModes() throws Exception {
+        assertThatThrownBy(() -> new UserRequestExecutor("threads", 1, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,90 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.Flux;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Test;
+import org.junit.Before;
+
+public class UserStreamingOutputTest {
+
+    private ObjectMapper objectMapper;
+    private List<User> users;
+
+    @Before
+    public void setUp() throws Exception {
+        objectMapper = new ObjectMapper().findAndRegisterModules();
+        users = Arrays.asList(new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com"),
+                new User(UUID.randomUUID(), "Joe", "Jones", Gender.MALE, 20, "joeJones@gmail.com"));
+    }
+
+    @Test
+    public void shouldStreamTheSameBytesAsTheList() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UserStreamingOutput(Flux.fromIterable(users), objectMapper, UserStreamingOutput.Format.JSON_ARRAY).write(output);
+
+        assertThat(output.toByteArray()).isEqualTo(objectMapper.writeValueAsBytes(users));
+    }
+
+    @Test
+    public void shouldStreamOneUserPerLine() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UserStreamingOutput(Flux.fromIterable(users), objectMapper, UserStreamingOutput.Format.NDJSON).write(output);
+
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).isEqualTo(objectMapper.writeValueAsString(users.get(0)));
+        assertThat(lines[1]).isEqualTo(objectMapper.writeValueAsString(users.get(1)));
+        assertThat(output.toString(StandardCharsets.UTF_8.name())).endsWith("\n");
+    }
+
+    @Test
+    public void shouldWriteEmptyArrayForNoUsers() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new UserStreamingOutput(Flux.<User>empty(), objectMapper,
+                UserStreamingOutput.Format.JSON_ARRAY).write(output);
+
+        assertThat(output.toString(StandardCharsets.UTF_8.name())).isEqualTo("[]");
+    }
+
+    @Test
+    public void shouldOnlyReadUsersAsTheyAreWritten() throws Exception {
+        AtomicInteger produced = new AtomicInteger();
+        Flux<User> manyUsers = Flux.generate(sink -> {
+            int i = produced.incrementAndGet();
+            sink.next(new User(UUID.randomUUID(), "user" + i, "last", Gender.MALE, 30, "user" + i + "@gmail.com"));
+            if (i == 100_000) {
+                sink.complete();
+            }
+        });
+        int[] maxAhead = new int[1];
+        // stands in for a slow client, checks how far the producer got past what the client received
+        OutputStream client = new OutputStream() {
+            private int lines;
+
+            @Override
+            public void write(int b) {
+                if (b == '\n') {
+                    lines++;
+                }
+                maxAhead[0] = Math.max(maxAhead[0], produced.get() - lines);
+            }
+        };
+
+        new UserStreamingOutput(manyUsers, objectMapper, UserStreamingOutput.Format.NDJSON).write(client);
+
+        assertThat(produced.get()).isEqualTo(100_000);
+        // the demand plus the users still in jackson's buffer, nowhere near all of them
+        assertThat(maxAhead[0]).isLessThan(UserStreamingOutput.DEMAND * 4);
+    }
+}
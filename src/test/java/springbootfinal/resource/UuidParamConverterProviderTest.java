@@ -0,0 +1,55 @@
+package springbootfinal.resource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.annotation.Annotation;
+import java.util.*;
+
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.ext.ParamConverter;
+
+import org.junit.Test;
+
+public class UuidParamConverterProviderTest {
+
+    private final UuidParamConverterProvider provider = new UuidParamConverterProvider();
+
+    @Test
+    public void shouldParseLikeUuidFromString() throws Exception {
+        ParamConverter<UUID> converter = provider.getConverter(UUID.class, UUID.class, null);
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            UUID userUid = new UUID(random.nextLong(), random.nextLong());
+            assertThat(converter.fromString(userUid.toString())).isEqualTo(userUid);
+            assertThat(converter.fromString(userUid.toString().toUpperCase())).isEqualTo(userUid);
+        }
+        // non canonical forms still go through UUID.fromString
+        assertThat(converter.fromString("1-2-3-4-5")).isEqualTo(UUID.fromString("1-2-3-4-5"));
+        assertThat(provider.getConverter(String.class, String.class, null)).isNull();
+    }
+
+    @Test
+    public void shouldAnswerInvalidUuidsLikeJerseyWould() throws Exception {
+        ParamConverter<UUID> converter = provider.getConverter(UUID.class, UUID.class, new Annotation[0]);
+
+        for (String invalid : Arrays.asList("7d1db902-410e-4201-ba35-76ab1df4876g",
+                "7d1db902-410e-4201-ba35-76ab1df4876\u00e9", "7d1db902-410e-4201-ba35-76ab1df4876\u0130",
+                "7d1db902x410e-4201-ba35-76ab1df4876b", "not-a-uuid")) {
+            assertThatThrownBy(() -> converter.fromString(invalid)).isInstanceOfSatisfying(
+                    WebApplicationException.class, e -> assertThat(e.getResponse().getStatus()).isEqualTo(404));
+        }
+        assertThatThrownBy(() -> converter.fromString(null)).isInstanceOf(IllegalArgumentException.class);
+
+        Annotation header = Holder.class.getDeclaredField("header").getAnnotation(HeaderParam.class);
+        assertThatThrownBy(() -> provider.getConverter(UUID.class, UUID.class, new Annotation[] { header })
+                .fromString("not-a-uuid")).isInstanceOfSatisfying(WebApplicationException.class,
+                        e -> assertThat(e.getResponse().getStatus()).isEqualTo(400));
+    }
+
+    private static final class Holder {
+        @HeaderParam("X-User")
+        UUID header;
+    }
+}
@@ -0,0 +1,98 @@
+package springbootfinal.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Test;
+import org.junit.Before;
+
+public class CaffeineUserCacheTest {
+
+    private static final int USERS = 10_000;
+    private static final int LOOKUPS = 50_000;
+
+    private Map<UUID, User> users;
+    private AtomicInteger loads;
+    private Function<UUID, Optional<User>> loader;
+
+    @Before
+    public void setUp() throws Exception {
+        users = new LinkedHashMap<>();
+        for (int i = 0; i < USERS; i++) {
+            UUID userUid = UUID.randomUUID();
+            users.put(userUid, new User(userUid, "user" + i, "last", Gender.FEMALE, 30, "user" + i + "@gmail.com"));
+        }
+        loads = new AtomicInteger();
+        loader = userUid -> {
+            loads.incrementAndGet();
+            return Optional.ofNullable(users.get(userUid));
+        };
+    }
+
+    @Test
+    public void shouldCacheHotUsersUnderZipfianAccess() throws Exception {
+        List<UUID> keys = new ArrayList<>(users.keySet());
+        int[] accesses = zipfian(keys.size(), LOOKUPS, 1.0, new Random(42));
+
+        run(new NoUserCache(), keys, accesses);
+        int uncachedLoads = loads.getAndSet(0);
+        // a cache holding 2% of the users
+        CaffeineUserCache cache = new CaffeineUserCache(USERS / 50, 0);
+        run(cache, keys, accesses);
+
+        UserCacheStats stats = cache.stats();
+        assertThat(uncachedLoads).isEqualTo(LOOKUPS);
+        assertThat(stats.getHits() + stats.getMisses()).isEqualTo(LOOKUPS);
+        assertThat(stats.getHitRatio()).isGreaterThan(0.5);
+        assertThat(loads.get()).isEqualTo((int) stats.getMisses());
+        assertThat(stats.getEvictions()).isPositive();
+        // latency is measured by the jmh benchmarks, here the dao round trips stand in for it
+        assertThat(loads.get()).isLessThan(uncachedLoads / 2);
+    }
+
+    @Test
+    public void shouldReloadAfterInvalidateAndNotCacheUnknownUsers() throws Exception {
+        CaffeineUserCache cache = new CaffeineUserCache(100, 0);
+        UUID userUid = users.keySet().iterator().next();
+
+        cache.get(userUid, loader);
+        cache.get(userUid, loader);
+        assertThat(loads.get()).isEqualTo(1);
+
+        cache.invalidate(userUid);
+        cache.get(userUid, loader);
+        assertThat(loads.get()).isEqualTo(2);
+
+        UUID unknown = UUID.randomUUID();
+        assertThat(cache.get(unknown, loader).isPresent()).isFalse();
+        assertThat(cache.get(unknown, loader).isPresent()).isFalse();
+        assertThat(loads.get()).isEqualTo(4);
+    }
+
+    private void run(UserCache cache, List<UUID> keys, int[] accesses) {
+        for (int access : accesses) {
+            assertThat(cache.get(keys.get(access), loader).isPresent()).isTrue();
+        }
+    }
+
+    // indexes into n keys where key k is picked with probability proportional to 1 / (k + 1)^s
+    private static int[] zipfian(int n, int count, double s, Random random) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, s);
+            cumulative[k] = sum;
+        }
+        int[] samples = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            samples[i] = index >= 0 ? index : -index - 1;
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,70 @@
+package springbootfinal.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import reactor.test.StepVerifier;
+import springbootfinal.dao.ConcurrentDataDao;
+import springbootfinal.dao.StreamingReactiveUserDao;
+import springbootfinal.model.User;
+import springbootfinal.model.User.Gender;
+import org.junit.Test;
+import org.junit.Before;
+
+public class ReactiveUserServiceTest {
+
+    private ConcurrentDataDao concurrentDataDao;
+    private ReactiveUserService reactiveUserService;
+
+    @Before
+    public void setUp() throws Exception {
+        concurrentDataDao = new ConcurrentDataDao();
+        reactiveUserService = new ReactiveUserService(new StreamingReactiveUserDao(concurrentDataDao));
+    }
+
+    @Test
+    public void shouldStreamUsersFilteredByGender() throws Exception {
+        UUID annaUid = UUID.randomUUID();
+        concurrentDataDao.insertUser(annaUid, new User(annaUid, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com"));
+
+        StepVerifier.create(reactiveUserService.getAllUsers(Optional.of("female")))
+                .assertNext(user -> assertThat(user.getUserUid()).isEqualTo(annaUid)).verifyComplete();
+        // joe from the seed data and anna
+        StepVerifier.create(reactiveUserService.getAllUsers(Optional.empty())).expectNextCount(2).verifyComplete();
+        StepVerifier.create(reactiveUserService.getUser(annaUid)).expectNextCount(1).verifyComplete();
+        StepVerifier.create(reactiveUserService.getUser(UUID.randomUUID())).verifyComplete();
+    }
+
+    @Test
+    public void shouldRejectInvalidGenderBeforeSubscribing() throws Exception {
+        assertThatThrownBy(() -> reactiveUserService.getAllUsers(Optional.of("xyz")))
+                .isInstanceOf(InvalidUserInputException.class).hasMessage("Invalid gender");
+    }
+
+    @Test
+    public void shouldReadOnlyWhatIsRequestedAndCloseOnCancel() throws Exception {
+        AtomicInteger read = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        ConcurrentDataDao countingDao = new ConcurrentDataDao() {
+            @Override
+            public Stream<User> streamUsers() {
+                return Stream.generate(() -> new User(UUID.randomUUID(), "user", "last", Gender.MALE, 30, null))
+                        .peek(user -> read.incrementAndGet()).onClose(() -> closed.set(true));
+            }
+        };
+        ReactiveUserService service = new ReactiveUserService(new StreamingReactiveUserDao(countingDao));
+
+        // the dao would produce users forever, only the requested ones may be read
+        StepVerifier.create(service.getAllUsers(Optional.empty()), 0).thenRequest(3).expectNextCount(3)
+                .thenCancel().verify();
+
+        // reactor reads one user ahead to find out whether the stream has ended
+        assertThat(read.get()).isEqualTo(4);
+        assertThat(closed.get()).isTrue();
+    }
+}
@@ -0,0 +1,122 @@
+package springbootfinal.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private ExecutorService executor;
+    private AtomicLong generation;
+    private SingleFlight<String, List<String>> singleFlight;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        generation = new AtomicLong();
+        singleFlight = new SingleFlight<>(generation::get, Collections::unmodifiableList);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldRunConcurrentCallsForOneKeyOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> singleFlight.run("all", () -> {
+                runs.incrementAndGet();
+                await(release);
+                return new ArrayList<>(Arrays.asList("anna", "joe"));
+            })));
+        }
+        awaitCalls(CALLERS);
+        release.countDown();
+
+        List<String> first = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<List<String>> result : results) {
+            assertThat(result.get(10, TimeUnit.SECONDS)).isSameAs(first);
+        }
+        assertThat(first).containsExactly("anna", "joe");
+        assertThat(first).isNotInstanceOf(ArrayList.class);
+        assertThat(runs).hasValue(1);
+        assertThat(singleFlight.stats().getCoalesced()).isEqualTo(CALLERS - 1);
+
+        // nothing is kept, a call on its own runs again and gets the list as it was returned
+        assertThat(singleFlight.run("all", () -> new ArrayList<>(Arrays.asList("anna")))).isInstanceOf(ArrayList.class);
+        assertThat(singleFlight.stats().getExecutions()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotJoinACallThatStartedBeforeAWrite() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Future<List<String>> before = executor.submit(() -> singleFlight.run("all", () -> {
+            await(release);
+            return Arrays.asList("anna");
+        }));
+        awaitCalls(1);
+
+        generation.incrementAndGet();
+        assertThat(singleFlight.run("all", () -> Arrays.asList("anna", "joe"))).containsExactly("anna", "joe");
+        // another key never waits either
+        assertThat(singleFlight.run("female", () -> Arrays.asList("anna"))).containsExactly("anna");
+        release.countDown();
+        assertThat(before.get(10, TimeUnit.SECONDS)).containsExactly("anna");
+        assertThat(singleFlight.stats().getCoalesced()).isZero();
+    }
+
+    @Test
+    public void shouldGiveEveryWaitingCallerTheException() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<List<String>>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(executor.submit(() -> singleFlight.run("all", () -> {
+                await(release);
+                throw new IllegalStateException("store unavailable");
+            })));
+        }
+        awaitCalls(CALLERS);
+        release.countDown();
+
+        for (Future<List<String>> result : results) {
+            assertThatThrownBy(() -> result.get(10, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(IllegalStateException.class).hasMessageContaining("store unavailable");
+        }
+        assertThat(singleFlight.stats().getExecutions()).isEqualTo(1);
+        assertThat(singleFlight.run("all", () -> Arrays.asList("anna"))).containsExactly("anna");
+    }
+
+    private void awaitCalls(int calls) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (singleFlight.stats().getCalls() < calls && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(singleFlight.stats().getCalls()).isEqualTo(calls);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
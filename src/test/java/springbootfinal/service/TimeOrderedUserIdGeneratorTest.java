@@ -0,0 +1,39 @@
+package springbootfinal.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.*;
+
+import org.junit.Test;
+
+public class TimeOrderedUserIdGeneratorTest {
+
+    @Test
+    public void shouldMakeVersion7UuidsCarryingTheTime() throws Exception {
+        long now = System.currentTimeMillis();
+
+        UUID userUid = new TimeOrderedUserIdGenerator().next();
+
+        assertThat(userUid.version()).isEqualTo(7);
+        assertThat(userUid.variant()).isEqualTo(2);
+        assertThat(userUid.getMostSignificantBits() >>> 16).isBetween(now, System.currentTimeMillis());
+        // and the canonical string starts with the time as well
+        assertThat(userUid.toString().replace("-", "").substring(0, 12))
+                .isEqualTo(String.format("%012x", userUid.getMostSignificantBits() >>> 16));
+    }
+
+    @Test
+    public void shouldSortByTimeAndStayUniqueWithinAMillisecond() throws Exception {
+        Random random = new Random(42);
+        Set<UUID> sameMillisecond = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            sameMillisecond.add(TimeOrderedUserIdGenerator.next(1_700_000_000_000L, random));
+        }
+
+        assertThat(sameMillisecond).hasSize(100_000);
+        UUID earlier = TimeOrderedUserIdGenerator.next(1_700_000_000_000L, new Random(1));
+        UUID later = TimeOrderedUserIdGenerator.next(1_700_000_000_001L, new Random(2));
+        assertThat(earlier).isLessThan(later);
+        assertThat(earlier.toString()).isLessThan(later.toString());
+    }
+}
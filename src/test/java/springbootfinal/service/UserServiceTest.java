@@ -9,6 +9,7 @@ import springbootfinal.model.User.Gender;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 
 import org.junit.Test;
 import org.junit.Before;
@@ -18,10 +19,14 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 
+import springbootfinal.dao.ConcurrentDataDao;
 import springbootfinal.dao.FakeDataDao;
+import springbootfinal.dao.WriteOutcome;
 
 public class UserServiceTest {
 
@@ -63,6 +68,11 @@ public class UserServiceTest {
         List<User> allUsers = userService.getAllUsers(Optional.empty());
 
         assertThat(allUsers).hasSize(1);
+        assertThatThrownBy(() -> allUsers.add(anna)).isInstanceOf(UnsupportedOperationException.class);
+        // also when coalescing is on and nobody else asked at the same time
+        List<User> alone = new UserService(fakeDataDao, new NoUserCache(), new TimeOrderedUserIdGenerator(), true,
+                true).getAllUsers(Optional.empty());
+        assertThatThrownBy(() -> alone.add(anna)).isInstanceOf(UnsupportedOperationException.class);
     }
 
     @Test
@@ -90,10 +100,9 @@ public class UserServiceTest {
 
         // Return Anna in terms of an optional data
         // return smth from all the methods
-        given(fakeDataDao.selectUserByUserUid(annaUid)).willReturn(Optional.of(anna));
-        given(fakeDataDao.updateUser(anna)).willReturn(1);
+        given(fakeDataDao.updateIfPresent(anna)).willReturn(WriteOutcome.APPLIED);
 
-        int updateResult = userService.updateUser(anna);
+        WriteOutcome updateResult = userService.updateUser(anna);
 
         // we can capture the anna that is passed into updateUser
         ArgumentCaptor<User> captor = ArgumentCaptor.forClass(User.class);
@@ -101,17 +110,18 @@ public class UserServiceTest {
         // we will make sure that we got call the fakeDataDao method within the method
         // also ensure that the object being called is annaUid
         // captor needs to be used for complex objects
-        verify(fakeDataDao).selectUserByUserUid(annaUid);
+        // the existence check happens inside the dao, there is no separate lookup
+        verify(fakeDataDao, never()).selectUserByUserUid(annaUid);
         // need to pass in captor.capture where the captor is passed in
         // this is because anna is a complex ovvject a reference, we need to get the
         // captor.capture()
         // so that we can perform more tests later such as check all the values passed
         // into it
-        verify(fakeDataDao).updateUser(captor.capture());
+        verify(fakeDataDao).updateIfPresent(captor.capture());
 
         // update user will pass in Ana which can be captured and checked for field
         assertAnnaFields(captor.getValue());
-        assertThat(updateResult).isEqualTo(1);
+        assertThat(updateResult).isEqualTo(WriteOutcome.APPLIED);
     }
 
     @Test
@@ -120,17 +130,28 @@ public class UserServiceTest {
         UUID annaUid = UUID.randomUUID();
         User anna = new User(annaUid, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
 
-        given(fakeDataDao.selectUserByUserUid(annaUid)).willReturn(Optional.of(anna));
-        given(fakeDataDao.deleteUserByUserUid(annaUid)).willReturn(1);
+        given(fakeDataDao.deleteIfPresent(annaUid)).willReturn(WriteOutcome.APPLIED);
 
-        int deleteResult = userService.removeUser(annaUid);
+        WriteOutcome deleteResult = userService.removeUser(annaUid);
 
-        // need to make sure we ran the select UserByuserUid
-        verify(fakeDataDao).selectUserByUserUid(annaUid);
-        // if annaUid is not passed into deleteUserByUserUid
-        verify(fakeDataDao).deleteUserByUserUid(annaUid);
+        // if annaUid is not passed into deleteIfPresent
+        verify(fakeDataDao).deleteIfPresent(annaUid);
 
-        assertThat(deleteResult).isEqualTo(1);
+        assertThat(deleteResult).isEqualTo(WriteOutcome.APPLIED);
+    }
+
+    @Test
+    public void shouldRefuseToUpdateOrRemoveAUserWithoutAnId() throws Exception {
+        // the striped daos lock by userUid, the service must not hand them a null one
+        UserService concurrentService = new UserService(new ConcurrentDataDao());
+        User noId = new User(null, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+
+        assertThat(concurrentService.updateUser(noId)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.updateUser(noId, 1)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.updateUser(null)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.removeUser(null)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.removeUser(null, 1)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.getAllUsers(Optional.empty())).hasSize(1);
     }
 
     @Test
@@ -138,24 +159,22 @@ public class UserServiceTest {
         // note that the UUID is null for insert
         User anna = new User(null, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
 
-        // when mixed with raw values we need to use eq which means that we want a
-        // specific value instead of any
-        given(fakeDataDao.insertUser(any(UUID.class), eq(anna))).willReturn(1);
+        given(fakeDataDao.insertIfAbsent(anna)).willReturn(WriteOutcome.APPLIED);
 
         ArgumentCaptor<User> captor = ArgumentCaptor.forClass(User.class);
 
         // run the method
-        int insertResult = userService.insertUser(anna);
+        WriteOutcome insertResult = userService.insertUser(anna);
 
         // check whether we ran the method
-        verify(fakeDataDao).insertUser(any(UUID.class), captor.capture());
+        verify(fakeDataDao).insertIfAbsent(captor.capture());
 
         // whatever that is inserted has to be anna
         // the anna uuid will be set by this point
         assertAnnaFields(anna);
 
         // final method runs
-        assertThat(insertResult).isEqualTo(1);
+        assertThat(insertResult).isEqualTo(WriteOutcome.APPLIED);
     }
 
     @Test
@@ -168,11 +187,8 @@ public class UserServiceTest {
 
         User joe = new User(joeUserUid, "Joe", "Jones", Gender.MALE, 30, "joeJones@gmail.com");
 
-        ArrayList<User> users = new ArrayList<>();
-        users.add(anna);
-        users.add(joe);
-
-        given(fakeDataDao.selectAllUsers()).willReturn(users);
+        given(fakeDataDao.selectUsersByGender(Gender.MALE)).willReturn(Arrays.asList(joe));
+        given(fakeDataDao.selectUsersByGender(Gender.FEMALE)).willReturn(Arrays.asList(anna));
 
         // Get list of filtered users for both male and female
         // Remember I can include something into the gender or not so it has to be
@@ -185,6 +201,120 @@ public class UserServiceTest {
         List<User> filteredFemaleUsers = userService.getAllUsers(Optional.of("female"));
         assertThat(filteredFemaleUsers).hasSize(1);
         assertAnnaFields(filteredFemaleUsers.get(0));
+
+        // the filter is answered by the dao index rather than a copy of every user
+        verify(fakeDataDao, never()).selectAllUsers();
+    }
+
+    @Test
+    public void shouldGetUsersPageAfterCursor() throws Exception {
+        UUID cursor = UUID.randomUUID();
+        User anna = new User(UUID.randomUUID(), "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+
+        given(fakeDataDao.selectUsersAfter(eq(cursor), eq(10), any())).willReturn(Arrays.asList(anna));
+
+        List<User> page = userService.getUsersPage(Optional.of("female"), Optional.of(cursor), 10);
+
+        assertThat(page).hasSize(1);
+        assertAnnaFields(page.get(0));
+        verify(fakeDataDao, never()).selectAllUsers();
+        assertThatThrownBy(() -> userService.getUsersPage(Optional.empty(), Optional.empty(), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void shouldUpdateAndRemoveUsersInBatches() throws Exception {
+        UUID annaUid = UUID.randomUUID();
+        UUID missingUid = UUID.randomUUID();
+        User anna = new User(annaUid, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+        User missing = new User(missingUid, "Joe", "Jones", Gender.MALE, 30, "joeJones@gmail.com");
+
+        given(fakeDataDao.updateUsersIfPresent(Arrays.asList(missing, anna)))
+                .willReturn(new WriteOutcome[] { WriteOutcome.NOT_FOUND, WriteOutcome.APPLIED });
+        given(fakeDataDao.deleteUsersIfPresent(Arrays.asList(annaUid, missingUid)))
+                .willReturn(new WriteOutcome[] { WriteOutcome.APPLIED, WriteOutcome.NOT_FOUND });
+
+        // the whole batch goes to the dao in one call, which checks each user itself
+        assertThat(userService.updateUsers(Arrays.asList(missing, anna)))
+                .containsExactly(WriteOutcome.NOT_FOUND, WriteOutcome.APPLIED);
+        assertThat(userService.removeUsers(Arrays.asList(annaUid, missingUid)))
+                .containsExactly(WriteOutcome.APPLIED, WriteOutcome.NOT_FOUND);
+        verify(fakeDataDao, never()).selectUserByUserUid(any());
+    }
+
+    @Test
+    public void shouldWriteTheValidItemsOfABatchAndRefuseTheOthers() throws Exception {
+        UserService concurrentService = new UserService(new ConcurrentDataDao());
+        User anna = new User(null, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+        User joe = new User(null, "Joe", "Jones", Gender.MALE, 30, "joeJones@gmail.com");
+
+        assertThat(concurrentService.insertUsers(Arrays.asList(anna, null, joe)))
+                .containsExactly(WriteOutcome.APPLIED, WriteOutcome.INVALID, WriteOutcome.APPLIED);
+
+        User updatedAnna = new User(anna.getUserUid(), "Anna", "Montana", Gender.FEMALE, 31, "Anna@gmail.com");
+        User noId = new User(null, "Joe", "Jones", Gender.MALE, 31, "joeJones@gmail.com");
+        User missing = new User(UUID.randomUUID(), "Tom", "Jones", Gender.MALE, 31, "tom@gmail.com");
+        assertThat(concurrentService.updateUsers(Arrays.asList(noId, updatedAnna, null, missing)))
+                .containsExactly(WriteOutcome.INVALID, WriteOutcome.APPLIED, WriteOutcome.INVALID,
+                        WriteOutcome.NOT_FOUND);
+        assertThat(concurrentService.getUser(anna.getUserUid()).get().getAge()).isEqualTo(31);
+
+        assertThat(concurrentService.removeUsers(Arrays.asList(null, joe.getUserUid())))
+                .containsExactly(WriteOutcome.INVALID, WriteOutcome.APPLIED);
+        assertThat(concurrentService.removeUsers(Arrays.asList((UUID) null))).containsExactly(WriteOutcome.INVALID);
+        // the seeded Joe Jones and anna are left
+        assertThat(concurrentService.getAllUsers(Optional.empty())).hasSize(2);
+    }
+
+    @Test
+    public void shouldRefuseStringsLongerThanTheLogTakes() throws Exception {
+        UserService concurrentService = new UserService(new ConcurrentDataDao());
+        String tooLong = String.join("", Collections.nCopies(UserService.MAX_STRING_LENGTH + 1, "a"));
+        User longName = new User(null, tooLong, "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+        User anna = new User(null, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+
+        assertThat(concurrentService.insertUser(longName)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.insertUsers(Arrays.asList(longName, anna)))
+                .containsExactly(WriteOutcome.INVALID, WriteOutcome.APPLIED);
+        User longEmail = new User(anna.getUserUid(), "Anna", "Montana", Gender.FEMALE, 31, tooLong + "@gmail.com");
+        assertThat(concurrentService.updateUser(longEmail)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.updateUser(longEmail, 1)).isEqualTo(WriteOutcome.INVALID);
+        assertThat(concurrentService.getUser(anna.getUserUid()).get().getAge()).isEqualTo(30);
+    }
+
+    @Test
+    public void shouldInsertUsersInOneBatch() throws Exception {
+        User anna = new User(null, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+        User joe = new User(null, "Joe", "Jones", Gender.MALE, 30, "joeJones@gmail.com");
+
+        given(fakeDataDao.insertUsersIfAbsent(any()))
+                .willReturn(new WriteOutcome[] { WriteOutcome.APPLIED, WriteOutcome.APPLIED });
+
+        assertThat(userService.insertUsers(Arrays.asList(anna, joe)))
+                .containsExactly(WriteOutcome.APPLIED, WriteOutcome.APPLIED);
+        assertAnnaFields(anna);
+        assertJoeFields(joe);
+        verify(fakeDataDao, never()).insertUser(any(), any());
+    }
+
+    @Test
+    public void shouldServeRepeatedGetsFromCacheUntilUserIsUpdated() throws Exception {
+        UUID annaUid = UUID.randomUUID();
+        User anna = new User(annaUid, "Anna", "Montana", Gender.FEMALE, 30, "Anna@gmail.com");
+        UserService cachingService = new UserService(fakeDataDao, new CaffeineUserCache(100, 0));
+
+        given(fakeDataDao.selectUserByUserUid(annaUid)).willReturn(Optional.of(anna));
+        given(fakeDataDao.updateIfPresent(anna)).willReturn(WriteOutcome.APPLIED);
+
+        cachingService.getUser(annaUid);
+        cachingService.getUser(annaUid);
+        verify(fakeDataDao, times(1)).selectUserByUserUid(annaUid);
+
+        // the update invalidates anna, so the next get goes back to the dao
+        cachingService.updateUser(anna);
+        cachingService.getUser(annaUid);
+        verify(fakeDataDao, times(2)).selectUserByUserUid(annaUid);
+        assertThat(cachingService.getCacheStats().getHits()).isEqualTo(1);
     }
 
     private void assertAnnaFields(User user) {
@@ -205,10 +335,54 @@ public class UserServiceTest {
         assertThat(user.getUserUid()).isNotNull();
     }
 
+    @Test
+    public void shouldCountByGenderAndAgeFromTheDaoCountsAndBothByScanning() throws Exception {
+        Map<Gender, Long> byGender = new EnumMap<>(Gender.class);
+        byGender.put(Gender.MALE, 2L);
+        byGender.put(Gender.FEMALE, 0L);
+        SortedMap<Integer, Long> byAge = new TreeMap<>();
+        byAge.put(20, 1L);
+        byAge.put(29, 1L);
+        byAge.put(30, 1L);
+        given(fakeDataDao.countUsers()).willReturn(4);
+        given(fakeDataDao.countUsersByGender()).willReturn(byGender);
+        given(fakeDataDao.countUsersByAge()).willReturn(byAge);
+
+        UserStats genders = userService.getStats(true, false, 10);
+        UserStats ages = userService.getStats(false, true, 10);
+
+        assertThat(genders.getTotal()).isEqualTo(4);
+        // no group for a gender nobody has, the two users without one come last
+        assertThat(genders.getGroups()).extracting(UserStats.Group::getGender, UserStats.Group::getCount)
+                .containsExactly(tuple(Gender.MALE, 2L), tuple(null, 2L));
+        assertThat(ages.getGroups()).extracting(UserStats.Group::getAgeFrom, UserStats.Group::getAgeTo,
+                UserStats.Group::getCount).containsExactly(tuple(20, 30, 2L), tuple(30, 40, 1L), tuple(null, null, 1L));
+        verify(fakeDataDao, never()).streamUsers();
+        verify(fakeDataDao, never()).selectAllUsers();
+
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            users.add(new User(UUID.randomUUID(), "Anna", "Montana", i % 3 == 0 ? Gender.MALE : Gender.FEMALE,
+                    i % 2 == 0 ? null : 15 + i % 10, null));
+        }
+        given(fakeDataDao.countUsers()).willReturn(users.size());
+        given(fakeDataDao.streamUsers()).willAnswer(invocation -> users.stream());
+
+        UserStats both = userService.getStats(true, true, 5);
+
+        assertThat(both.getGroupBy()).containsExactly("gender", "age");
+        assertThat(both.getAgeBucketWidth()).isEqualTo(5);
+        assertThat(both.getGroups()).extracting(UserStats.Group::getGender, UserStats.Group::getAgeFrom,
+                UserStats.Group::getCount).containsExactly(tuple(Gender.MALE, 15, 67L), tuple(Gender.MALE, 20, 100L),
+                        tuple(Gender.MALE, null, 167L), tuple(Gender.FEMALE, 15, 133L),
+                        tuple(Gender.FEMALE, 20, 200L), tuple(Gender.FEMALE, null, 333L));
+        assertThatThrownBy(() -> userService.getStats(true, true, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     public void shouldThrowExceptionWhenGenderIsInvalid() throws Exception{
         assertThatThrownBy(() -> userService.getAllUsers(Optional.of("asdfase")))
-            .isInstanceOf(IllegalStateException.class)
+            .isInstanceOf(InvalidUserInputException.class)
             .hasMessageContaining("Invalid gender");
     }
 }